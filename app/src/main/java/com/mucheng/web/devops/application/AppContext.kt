@@ -7,6 +7,14 @@ import androidx.appcompat.app.AppCompatDelegate
 import com.mucheng.web.devops.config.GlobalConfig
 import com.mucheng.web.devops.handler.AppCoroutineCrashHandler
 import com.mucheng.web.devops.handler.AppThreadCrashHandler
+import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.openapi.view.WebViewPool
+import com.mucheng.web.devops.startup.DarkThemeComponent
+import com.mucheng.web.devops.startup.GlobalConfigComponent
+import com.mucheng.web.devops.startup.LanguageComponent
+import com.mucheng.web.devops.startup.NativePluginsComponent
+import com.mucheng.web.devops.startup.Startup
+import com.mucheng.web.devops.startup.TypefaceComponent
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -26,6 +34,35 @@ class AppContext : Application() {
         @JvmStatic
         lateinit var Context: Context
             private set
+
+        private var isNightModeApplied = false
+
+        /**
+         * 在第一个 Activity 创建前设置深色主题
+         * */
+        @JvmStatic
+        fun applyNightMode() {
+            if (isNightModeApplied) {
+                return
+            }
+            isNightModeApplied = true
+
+            if (Startup.get(DarkThemeComponent)) {
+                useDarkTheme()
+            } else {
+                useLightTheme()
+            }
+        }
+
+        @Suppress("NOTHING_TO_INLINE")
+        private inline fun useDarkTheme() {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES)
+        }
+
+        @Suppress("NOTHING_TO_INLINE")
+        private inline fun useLightTheme() {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO)
+        }
     }
 
     override fun onCreate() {
@@ -35,22 +72,30 @@ class AppContext : Application() {
         // 初始化 CrashHandler
         Thread.setDefaultUncaughtExceptionHandler(AppThreadCrashHandler)
 
-        if (GlobalConfig.isDarkThemeEnabled()) {
-            useDarkTheme()
-        } else {
-            useLightTheme()
-        }
-    }
+        // 在后台并行初始化, 使用时再等待完成
+        Startup.start(
+            DarkThemeComponent,
+            GlobalConfigComponent,
+            TypefaceComponent,
+            LanguageComponent,
+            NativePluginsComponent
+        )
 
-
-    @Suppress("NOTHING_TO_INLINE")
-    private inline fun useDarkTheme() {
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES)
+        // WebView 只能在主线程中创建, 在启动完成后的空闲时间预先初始化
+        WebViewPool.preloadWhenIdle(this)
     }
 
-    @Suppress("NOTHING_TO_INLINE")
-    private inline fun useLightTheme() {
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO)
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        // 界面已全部隐藏 (相当于应用级的 onStop), 立即写入延迟保存的配置
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            GlobalConfig.flushIfLoaded()
+        }
+        // 界面隐藏时不释放, 仅在内存紧张时释放没有被使用的插件
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            PluginManager.deactivateIdlePlugins()
+        }
+        WebViewPool.trimMemory(level)
     }
 
     override fun onTerminate() {
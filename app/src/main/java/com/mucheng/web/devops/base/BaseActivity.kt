@@ -2,6 +2,7 @@ package com.mucheng.web.devops.base
 
 import android.os.Bundle
 import androidx.appcompat.app.AppCompatActivity
+import com.mucheng.web.devops.application.AppContext
 import com.mucheng.web.devops.handler.AppCoroutineCrashHandler
 import com.mucheng.web.devops.util.statusBarColor
 import kotlinx.coroutines.CoroutineName
@@ -18,6 +19,7 @@ open class BaseActivity : AppCompatActivity() {
         MainScope() + CoroutineName("MainScopeCoroutine-${this::class.simpleName}") + AppCoroutineCrashHandler
 
     override fun onCreate(savedInstanceState: Bundle?) {
+        AppContext.applyNightMode()
         super.onCreate(savedInstanceState)
         statusBarColor()
     }
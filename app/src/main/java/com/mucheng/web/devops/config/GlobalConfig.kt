@@ -1,6 +1,7 @@
 package com.mucheng.web.devops.config
 
 import com.mucheng.web.devops.base.BaseBean
+import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.path.FilesDir
 import com.mucheng.web.devops.path.GlobalConfigFile
 import com.mucheng.web.devops.util.AppCoroutine
@@ -9,9 +10,19 @@ import com.mucheng.web.devops.util.isSystemInDarkTheme
 import es.dmoral.toasty.Toasty
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
 
 enum class ConfigKeyEnum {
     AppTypefacePath,
@@ -44,29 +55,56 @@ class GlobalConfig private constructor() : BaseBean() {
 
     companion object {
 
+        private const val SAVE_DELAY = 300L
+
+        @Volatile
         private var instance: GlobalConfig? = null
 
+        @Volatile
+        private var darkThemeEnabled: Boolean? = null
+
+        private val darkThemeFile = File("$FilesDir/darkTheme.conf")
+
+        private val _changes = MutableStateFlow(ConfigChange(null, 0))
+
+        /**
+         * 配置变化通知, 每次调用 set 方法后发送变化的键
+         * 界面收集后直接读取内存中的值, 无需重新读取配置文件
+         * */
+        val changes: StateFlow<ConfigChange> = _changes.asStateFlow()
+
         fun getInstance(): GlobalConfig {
             if (instance == null) {
                 synchronized(GlobalConfig::class.java) {
                     if (instance == null) {
-                        instance = GlobalConfig()
-                        val props = instance!!.getProperties()
+                        val globalConfig = GlobalConfig()
+                        val props = globalConfig.getProperties()
                         runCatching {
                             val input = GlobalConfigFile.inputStream().buffered()
                             input.use {
                                 props.loadFromXML(input)
                             }
                         }
+                        instance = globalConfig
                     }
                 }
             }
             return instance!!
         }
 
+        /**
+         * 立即写入尚未保存的配置, 配置尚未加载时无需处理
+         * */
+        fun flushIfLoaded() {
+            instance?.flush()
+        }
+
+        /**
+         * 深色主题只在首次调用时读取一次, 之后使用内存中的值
+         * */
         fun isDarkThemeEnabled(): Boolean {
-            return try {
-                val darkThemeFile = File("$FilesDir/darkTheme.conf")
+            darkThemeEnabled?.let { return it }
+            val isEnabled = try {
                 val bufferedReader = darkThemeFile.bufferedReader()
                 bufferedReader.use {
                     val result =
@@ -76,16 +114,17 @@ class GlobalConfig private constructor() : BaseBean() {
             } catch (e: Throwable) {
                 Context.isSystemInDarkTheme()
             }
+            darkThemeEnabled = isEnabled
+            return isEnabled
         }
 
         fun setDarkThemeEnabled(isEnabled: Boolean) {
+            darkThemeEnabled = isEnabled
+            _changes.update { ConfigChange(null, it.revision + 1) }
             AppCoroutine.launch(CoroutineName("SetDarkThemeConfigCoroutine") + Dispatchers.IO) {
                 val e = runCatching {
-                    val darkThemeFile = File("$FilesDir/darkTheme.conf")
-                    val bufferedWriter = darkThemeFile.bufferedWriter()
-                    bufferedWriter.use {
-                        bufferedWriter.write(isEnabled.toString())
-                        bufferedWriter.flush()
+                    FileUtil.writeAtomically(darkThemeFile) {
+                        it.write(isEnabled.toString().toByteArray())
                     }
                 }.exceptionOrNull()
                 if (e != null) {
@@ -98,6 +137,42 @@ class GlobalConfig private constructor() : BaseBean() {
 
     }
 
+    /**
+     * 配置变化
+     * @param key 变化的键, 为 null 时表示深色主题
+     * @param revision 递增的版本号, 保证相同的键重复变化时也会通知
+     * */
+    data class ConfigChange(val key: ConfigKeyEnum?, val revision: Int)
+
+    private val typedCache: MutableMap<ConfigKeyEnum, Any> = ConcurrentHashMap()
+
+    private var saveJob: Job? = null
+
+    // 已修改但尚未开始写入
+    private var isSavePending = false
+
+    // 保证按修改顺序写入
+    private val saveMutex = Mutex()
+
+    override fun set(key: Enum<*>, value: String) {
+        super.set(key, value)
+        if (key is ConfigKeyEnum) {
+            typedCache.remove(key)
+            _changes.update { ConfigChange(key, it.revision + 1) }
+        }
+    }
+
+    /**
+     * 获取解析后的值, 解析结果缓存在内存中直到该键再次被设置
+     * */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T : Any> getTyped(key: ConfigKeyEnum, parse: (String?) -> T): T {
+        typedCache[key]?.let { return it as T }
+        val value = parse(get(key))
+        typedCache[key] = value
+        return value
+    }
+
     fun setAppTypefacePath(path: String?) {
         set(ConfigKeyEnum.AppTypefacePath, path ?: "null")
     }
@@ -111,7 +186,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isAutoCompletionEnabled(): Boolean {
-        return get(ConfigKeyEnum.AutoCompletionEnabled)?.toBooleanStrictOrNull() ?: true
+        return getTyped(ConfigKeyEnum.AutoCompletionEnabled) { it?.toBooleanStrictOrNull() ?: true }
     }
 
     fun setOperatorPanelEnabled(isEnabled: Boolean) {
@@ -119,7 +194,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isOperatorPanelEnabled(): Boolean {
-        return get(ConfigKeyEnum.OperatorPanelEnabled)?.toBooleanStrictOrNull() ?: true
+        return getTyped(ConfigKeyEnum.OperatorPanelEnabled) { it?.toBooleanStrictOrNull() ?: true }
     }
 
     fun setCursorVisibleAnimationEnabled(isEnabled: Boolean) {
@@ -127,7 +202,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isCursorVisibleAnimationEnabled(): Boolean {
-        return get(ConfigKeyEnum.CursorVisibleAnimationEnabled)?.toBooleanStrictOrNull() ?: true
+        return getTyped(ConfigKeyEnum.CursorVisibleAnimationEnabled) { it?.toBooleanStrictOrNull() ?: true }
     }
 
     fun setCursorAnimationEnabled(isEnabled: Boolean) {
@@ -135,7 +210,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isCursorAnimationEnabled(): Boolean {
-        return get(ConfigKeyEnum.CursorAnimationEnabled)?.toBooleanStrictOrNull() ?: false
+        return getTyped(ConfigKeyEnum.CursorAnimationEnabled) { it?.toBooleanStrictOrNull() ?: false }
     }
 
     fun setLineNumberEnabled(isEnabled: Boolean) {
@@ -143,7 +218,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isLineNumberEnabled(): Boolean {
-        return get(ConfigKeyEnum.LineNumberEnabled)?.toBooleanStrictOrNull() ?: true
+        return getTyped(ConfigKeyEnum.LineNumberEnabled) { it?.toBooleanStrictOrNull() ?: true }
     }
 
     fun setWordWrapEnabled(isEnabled: Boolean) {
@@ -151,7 +226,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isWordWrapEnabled(): Boolean {
-        return get(ConfigKeyEnum.WordWrapEnabled)?.toBooleanStrictOrNull() ?: false
+        return getTyped(ConfigKeyEnum.WordWrapEnabled) { it?.toBooleanStrictOrNull() ?: false }
     }
 
     fun setStickyLineNumberEnabled(isEnabled: Boolean) {
@@ -159,7 +234,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isStickyLineNumberEnabled(): Boolean {
-        return get(ConfigKeyEnum.StickyLineNumber)?.toBooleanStrictOrNull() ?: false
+        return getTyped(ConfigKeyEnum.StickyLineNumber) { it?.toBooleanStrictOrNull() ?: false }
     }
 
     fun setDividingLineEnabled(isEnabled: Boolean) {
@@ -167,7 +242,7 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun isDividingLineEnabled(): Boolean {
-        return get(ConfigKeyEnum.DividingLineEnabled)?.toBooleanStrictOrNull() ?: false
+        return getTyped(ConfigKeyEnum.DividingLineEnabled) { it?.toBooleanStrictOrNull() ?: false }
     }
 
     fun setCursorAnimationType(type: CursorAnimationType) {
@@ -175,13 +250,10 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun getCursorAnimationType(): CursorAnimationType {
-        val type = get(ConfigKeyEnum.CursorAnimationType)
-        for (cursorAnimationType in CursorAnimationType.values()) {
-            if (cursorAnimationType.name == type) {
-                return cursorAnimationType
-            }
+        return getTyped(ConfigKeyEnum.CursorAnimationType) { type ->
+            CursorAnimationType.values().firstOrNull { it.name == type }
+                ?: CursorAnimationType.TranslationAnimation
         }
-        return CursorAnimationType.TranslationAnimation
     }
 
     fun setMeasureType(type: MeasureType) {
@@ -189,13 +261,9 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun getMeasureType(): MeasureType {
-        val type = get(ConfigKeyEnum.MeasureType)
-        for (measureType in MeasureType.values()) {
-            if (measureType.name == type) {
-                return measureType
-            }
+        return getTyped(ConfigKeyEnum.MeasureType) { type ->
+            MeasureType.values().firstOrNull { it.name == type } ?: MeasureType.LineRowVisible
         }
-        return MeasureType.LineRowVisible
     }
 
     fun setOperatorInputCharTable(input: String) {
@@ -204,8 +272,9 @@ class GlobalConfig private constructor() : BaseBean() {
     }
 
     fun getOperatorInputCharTable(): List<String> {
-        val value = get(ConfigKeyEnum.OperatorInputCharTable)
-        return value?.split(" ") ?: getOperators()
+        return getTyped(ConfigKeyEnum.OperatorInputCharTable) { value ->
+            value?.split(" ") ?: getOperators()
+        }
     }
 
     fun setEditorTypefacePath(path: String?) {
@@ -216,14 +285,41 @@ class GlobalConfig private constructor() : BaseBean() {
         return get(ConfigKeyEnum.EditorTypefacePath) ?: "null"
     }
 
+    /**
+     * 保存配置, 短时间内的多次调用只会写入一次
+     * */
+    @Synchronized
     fun apply() {
-        AppCoroutine.launch(CoroutineName("SaveGlobalConfigCoroutine") + Dispatchers.IO) {
-            val file = GlobalConfigFile
-            val properties = getProperties()
-            val e = runCatching {
-                val output = file.outputStream().buffered()
-                properties.storeToXML(output, null, "UTF-8")
-            }.exceptionOrNull()
+        isSavePending = true
+        scheduleSave(SAVE_DELAY)
+    }
+
+    /**
+     * 立即写入尚未保存的配置, 应用进入后台时调用, 避免进程随后被杀死时丢失修改
+     * */
+    @Synchronized
+    fun flush() {
+        if (isSavePending) {
+            scheduleSave(0L)
+        }
+    }
+
+    private fun scheduleSave(delayMillis: Long) {
+        saveJob?.cancel()
+        saveJob = AppCoroutine.launch(CoroutineName("SaveGlobalConfigCoroutine") + Dispatchers.IO) {
+            delay(delayMillis)
+            synchronized(this@GlobalConfig) {
+                isSavePending = false
+            }
+            val e = saveMutex.withLock {
+                // 在锁内复制, 后写入的一定是较新的配置
+                val properties = getProperties().clone() as Properties
+                runCatching {
+                    FileUtil.writeAtomically(GlobalConfigFile) {
+                        properties.storeToXML(it, null, "UTF-8")
+                    }
+                }.exceptionOrNull()
+            }
             if (e != null) {
                 withContext(Dispatchers.Main) {
                     Toasty.error(Context, "配置保存失败: ${e.message}").show()
@@ -232,7 +328,6 @@ class GlobalConfig private constructor() : BaseBean() {
         }
     }
 
-
     @Suppress("NOTHING_TO_INLINE")
     private inline fun getOperators(): List<String> {
         return listOf(
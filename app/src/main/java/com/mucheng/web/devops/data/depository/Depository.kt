@@ -1,27 +1,22 @@
 package com.mucheng.web.devops.data.depository
 
-import android.graphics.BitmapFactory
-import androidx.core.content.ContextCompat
-import androidx.core.graphics.drawable.toDrawable
-import com.mucheng.web.devops.R
 import com.mucheng.web.devops.data.model.DisplayPluginItem
 import com.mucheng.web.devops.data.model.MainCommonItem
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.network.HttpClient
 import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.path.ProjectDir
-import com.mucheng.web.devops.plugin.Plugin
 import com.mucheng.web.devops.support.AbiSupport
 import com.mucheng.web.devops.tryeval.catchAll
 import com.mucheng.web.devops.tryeval.tryEval
-import com.mucheng.web.devops.util.Context
-import com.mucheng.web.devops.util.await
 import com.mucheng.web.devops.util.isSupported
-import com.mucheng.web.devops.util.request
 import com.mucheng.webops.plugin.data.Workspace
-import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
@@ -40,38 +35,56 @@ object Depository {
     private const val LocalUserDataFileName = "localUserData.conf"
     private const val LocalCheckCodeDataFileName = "localCheckCodeData.conf"
 
-    suspend fun fetchWorkspaces(): List<Workspace> {
-        return withContext(Dispatchers.IO) {
-            buildList {
-                val files = ProjectDir.listFiles() ?: emptyArray()
-                files.sortByDescending {
-                    it.lastModified()
+    /**
+     * 按修改时间倒序分页读取工程
+     * @param pageSize 每次发送的工程数量
+     * */
+    fun fetchWorkspaces(pageSize: Int = 20): Flow<List<Workspace>> {
+        return flow {
+            // 插件在后台加载, 判断工程是否受支持前需等待加载完成
+            PluginManager.awaitPlugins()
+            val files = ProjectDir.listFiles() ?: emptyArray()
+            // 每个目录只获取一次修改时间
+            val rootFiles = files
+                .map { it to it.lastModified() }
+                .sortedByDescending { it.second }
+
+            val names: MutableSet<String> = HashSet()
+            val page: MutableList<Workspace> = ArrayList(pageSize)
+            for ((rootFile, _) in rootFiles) {
+                val workspaceFile = File(rootFile, ".WebDevOps/Workspace.xml")
+                // 文件不存在时为 0, 同时省去了 isFile / isDirectory 的判断
+                // 已迁移到二进制格式的工程以 Workspace.bin 的修改时间为准
+                val stamp = Workspace.lastModified(workspaceFile)
+                if (stamp == 0L) continue
+
+                names.add(rootFile.name)
+                tryEval {
+                    val workspace = WorkspaceRegistry.load(rootFile.name, workspaceFile, stamp)
+                    if (workspace.isSupported()) {
+                        page.add(workspace)
+                    }
+                } catchAll {
+                    it.printStackTrace()
                 }
 
-                for (rootFile in files) {
-                    if (rootFile.isFile) continue
-                    val workspaceDir = File(rootFile, ".WebDevOps")
-                    if (workspaceDir.isFile) continue
-                    val workspaceFile = File(workspaceDir, "Workspace.xml")
-                    if (workspaceFile.isDirectory) continue
-                    tryEval {
-                        val workspace = Workspace()
-                        workspace.loadFrom(workspaceFile)
-                        if (workspace.isSupported()) {
-                            add(workspace)
-                        }
-                    } catchAll {
-                        it.printStackTrace()
-                    }
+                if (page.size >= pageSize) {
+                    emit(ArrayList(page))
+                    page.clear()
                 }
             }
-        }
+            if (page.isNotEmpty()) {
+                emit(page)
+            }
+            WorkspaceRegistry.retainAndSave(names)
+        }.flowOn(Dispatchers.IO)
     }
 
     suspend fun renameProject(workspace: Workspace, projectName: String) {
-        return withContext(Dispatchers.Main) {
-            val beforePath = "$ProjectDir/${workspace.getName()}"
-            val afterPath = "$ProjectDir/$projectName"
+        val beforePath = "$ProjectDir/${workspace.getName()}"
+        val afterPath = "$ProjectDir/$projectName"
+        // 重命名目录与写入 Workspace (含 fsync) 在 IO 线程中进行
+        withContext(Dispatchers.IO) {
             val sourceDir = File(beforePath)
             val targetDir = File(afterPath)
             val workspaceFile = File("$targetDir/.WebDevOps/Workspace.xml")
@@ -90,6 +103,8 @@ object Depository {
                 }
             }
             workspace.storeTo(workspaceFile)
+        }
+        return withContext(Dispatchers.Main) {
             val projectId = workspace.getProjectId()
             val plugin = PluginManager.findPluginByProjectIdSuspend(projectId)
             plugin?.pluginMain?.onRenameProject(workspace, beforePath, afterPath)
@@ -105,15 +120,15 @@ object Depository {
 
     suspend fun fetchMainCommonItem(): List<MainCommonItem> {
         return tryEval {
-            val body = request(MAIN_COMMON_ITEMS).await()
-            parseMainCommonItemList(body.string())
+            val text = HttpClient.Default.fetchString(MAIN_COMMON_ITEMS)
+            parseMainCommonItemList(text)
         } catchAll {
             it.printStackTrace()
             emptyList()
         }
     }
 
-    private suspend fun parseMainCommonItemList(topLevelText: String): List<MainCommonItem> {
+    private fun parseMainCommonItemList(topLevelText: String): List<MainCommonItem> {
         val result: MutableList<MainCommonItem> = ArrayList()
         val jsonArray = JSONArray(topLevelText)
         val len = jsonArray.length()
@@ -129,7 +144,7 @@ object Depository {
         return result
     }
 
-    private suspend fun parseMainCommonItem(jsonObject: JSONObject): MainCommonItem {
+    private fun parseMainCommonItem(jsonObject: JSONObject): MainCommonItem {
         val iconUrl = jsonObject.getString("iconUrl")
         val title = jsonObject.getString("title")
         val simpleName = jsonObject.getString("simpleName")
@@ -138,35 +153,22 @@ object Depository {
         val description = jsonObject.getString("description")
         val pluginDisplayUrl = jsonObject.getString("pluginDisplayUrl")
 
-        return coroutineScope {
-            val icon = async {
-                try {
-                    BitmapFactory.decodeStream(request(iconUrl).await().byteStream())
-                        .toDrawable(Context.resources)
-                } catch (e: Throwable) {
-                    if (e is CancellationException) {
-                        throw e
-                    }
-                    ContextCompat.getDrawable(Context, R.drawable.ic_cube_three)!!
-                }
-            }
-
-            MainCommonItem(
-                icon.await(),
-                title,
-                simpleName,
-                version,
-                size,
-                description,
-                pluginDisplayUrl
-            )
-        }
+        // 图标交由 Glide 按控件尺寸加载并缓存
+        return MainCommonItem(
+            iconUrl,
+            title,
+            simpleName,
+            version,
+            size,
+            description,
+            pluginDisplayUrl
+        )
     }
 
     suspend fun fetchDisplayPluginItem(url: String): DisplayPluginItem {
         return withContext(Dispatchers.IO) {
-            val body = request(url).await()
-            parseDisplayPluginItem(body.string())
+            val text = HttpClient.Default.fetchString(url)
+            parseDisplayPluginItem(text)
         }
     }
 
@@ -183,32 +185,15 @@ object Depository {
         val runMode = jsonObject.getString("runMode")
         val platformJSONArray = jsonObject.getJSONArray("platform")
         val downloadUrl = jsonObject.getString("downloadUrl")
+        // 可选字段, 用于校验下载的插件
+        val sha256 = if (jsonObject.has("sha256")) jsonObject.getString("sha256") else null
 
         return coroutineScope {
-            val icon = async {
-                try {
-                    BitmapFactory.decodeStream(request(iconUrl).await().byteStream())
-                        .toDrawable(Context.resources)
-                } catch (e: Throwable) {
-                    if (e is CancellationException) {
-                        throw e
-                    }
-                    ContextCompat.getDrawable(Context, R.drawable.ic_cube_three)!!
-                }
-            }
-
             val description = async {
-                request(descriptionUrl).await().string()
+                HttpClient.Default.fetchString(descriptionUrl)
             }
 
-            var samePlugin: Plugin? = null
-            val plugins = PluginManager.getPlugins()
-            for (plugin in plugins) {
-                if (plugin.packageName == id) {
-                    samePlugin = plugin
-                    break
-                }
-            }
+            val samePlugin = PluginManager.findPluginByPackageName(id)
 
             val neededUpdate = if (samePlugin == null) {
                 false
@@ -230,7 +215,7 @@ object Depository {
             val platform = if (isSupported) platforms[containsIndex] else platforms[0]
 
             DisplayPluginItem(
-                icon.await(),
+                iconUrl,
                 title,
                 version,
                 versionCode,
@@ -241,6 +226,7 @@ object Depository {
                 runMode,
                 platform,
                 downloadUrl,
+                sha256,
                 samePlugin,
                 isDownloaded,
                 neededUpdate,
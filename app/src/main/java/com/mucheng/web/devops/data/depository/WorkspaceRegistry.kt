@@ -0,0 +1,126 @@
+package com.mucheng.web.devops.data.depository
+
+import com.mucheng.web.devops.openapi.util.FileUtil
+import com.mucheng.web.devops.path.ConfigDir
+import com.mucheng.webops.plugin.data.Workspace
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * 工程列表缓存
+ *
+ * 以二进制形式保存每个工程的 Workspace 内容, 跨启动复用,
+ * 通过 Workspace 文件的修改时间判断缓存是否有效, 避免每次都解析 XML
+ * */
+object WorkspaceRegistry {
+
+    private const val MAGIC = 0x57444752 // "WDGR"
+    private const val VERSION = 1
+
+    private val registryFile: File = File("$ConfigDir/WorkspaceRegistry.bin")
+
+    private class Entry(val stamp: Long, val props: Map<String, String>)
+
+    private val entries: MutableMap<String, Entry> = HashMap()
+
+    private var isLoaded = false
+
+    private var isDirty = false
+
+    /**
+     * 读取工程, 缓存有效时直接使用缓存内容
+     * @param name 工程目录名称
+     * @param workspaceFile Workspace 文件
+     * @param stamp Workspace 文件的修改时间
+     * */
+    @Synchronized
+    fun load(name: String, workspaceFile: File, stamp: Long): Workspace {
+        ensureLoaded()
+        val workspace = Workspace()
+        val entry = entries[name]
+        if (entry != null && entry.stamp == stamp) {
+            for ((key, value) in entry.props) {
+                workspace.set(key, value)
+            }
+            return workspace
+        }
+
+        workspace.loadFrom(workspaceFile)
+        val props = workspace.getMap()
+        entries[name] = Entry(stamp, props.stringPropertyNames().associateWith { props.getProperty(it) })
+        isDirty = true
+        return workspace
+    }
+
+    /**
+     * 移除已不存在的工程并在有变化时写回磁盘
+     * @param names 本次扫描到的工程目录名称
+     * */
+    @Synchronized
+    fun retainAndSave(names: Set<String>) {
+        ensureLoaded()
+        if (entries.keys.retainAll(names)) {
+            isDirty = true
+        }
+        if (!isDirty) {
+            return
+        }
+
+        runCatching {
+            FileUtil.writeAtomically(registryFile) { output ->
+                val dataOutput = DataOutputStream(output)
+                dataOutput.writeInt(MAGIC)
+                dataOutput.writeInt(VERSION)
+                dataOutput.writeInt(entries.size)
+                for ((name, entry) in entries) {
+                    dataOutput.writeUTF(name)
+                    dataOutput.writeLong(entry.stamp)
+                    dataOutput.writeInt(entry.props.size)
+                    for ((key, value) in entry.props) {
+                        dataOutput.writeUTF(key)
+                        dataOutput.writeUTF(value)
+                    }
+                }
+                dataOutput.flush()
+            }
+            isDirty = false
+        }.exceptionOrNull()?.printStackTrace()
+    }
+
+    private fun ensureLoaded() {
+        if (isLoaded) {
+            return
+        }
+        isLoaded = true
+
+        if (!registryFile.isFile) {
+            return
+        }
+
+        runCatching {
+            DataInputStream(registryFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    return
+                }
+                val count = input.readInt()
+                repeat(count) {
+                    val name = input.readUTF()
+                    val stamp = input.readLong()
+                    val propCount = input.readInt()
+                    val props = HashMap<String, String>(propCount)
+                    repeat(propCount) {
+                        props[input.readUTF()] = input.readUTF()
+                    }
+                    entries[name] = Entry(stamp, props)
+                }
+            }
+        }.onFailure {
+            // 缓存损坏时丢弃, 下次扫描会重新生成
+            it.printStackTrace()
+            entries.clear()
+            isDirty = true
+        }
+    }
+
+}
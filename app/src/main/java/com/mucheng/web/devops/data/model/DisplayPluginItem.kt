@@ -1,10 +1,9 @@
 package com.mucheng.web.devops.data.model
 
-import android.graphics.drawable.Drawable
 import com.mucheng.web.devops.plugin.Plugin
 
 data class DisplayPluginItem(
-    val icon: Drawable,
+    val iconUrl: String,
     val title: String,
     val version: String,
     val versionCode: Long,
@@ -15,6 +14,7 @@ data class DisplayPluginItem(
     val runMode: String,
     val platform: String,
     val downloadUrl: String,
+    val sha256: String?,
     val samePlugin: Plugin?,
     val isDownloaded: Boolean,
     val neededUpdate: Boolean,
@@ -1,9 +1,7 @@
 package com.mucheng.web.devops.data.model
 
-import android.graphics.drawable.Drawable
-
 data class MainCommonItem(
-    val icon: Drawable,
+    val iconUrl: String,
     val title: String,
     val simpleName: String,
     val version: String,
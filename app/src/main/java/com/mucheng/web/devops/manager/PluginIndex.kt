@@ -0,0 +1,61 @@
+package com.mucheng.web.devops.manager
+
+import com.mucheng.web.devops.plugin.Plugin
+
+/**
+ * 插件索引的不可变快照
+ *
+ * 安装或卸载插件时在锁内生成新的快照并整体替换 (copy-on-write),
+ * 读取方可以在任意线程无锁地按包名或工程 id 查找插件
+ * */
+class PluginIndex private constructor(
+    val plugins: List<Plugin>,
+    private val packageNameIndex: Map<String, Plugin>,
+    private val projectIdIndex: Map<String, Plugin>
+) {
+
+    companion object {
+
+        val EMPTY = PluginIndex(emptyList(), emptyMap(), emptyMap())
+
+        /**
+         * 构建索引, 包名或工程 id 重复时保留先出现的插件
+         * */
+        fun of(plugins: List<Plugin>): PluginIndex {
+            val list: MutableList<Plugin> = ArrayList(plugins.size)
+            val packageNameIndex: MutableMap<String, Plugin> = HashMap()
+            val projectIdIndex: MutableMap<String, Plugin> = HashMap()
+            for (plugin in plugins) {
+                if (packageNameIndex.containsKey(plugin.packageName)) {
+                    continue
+                }
+                list.add(plugin)
+                packageNameIndex[plugin.packageName] = plugin
+                for (projectId in plugin.getProjectIds()) {
+                    if (!projectIdIndex.containsKey(projectId)) {
+                        projectIdIndex[projectId] = plugin
+                    }
+                }
+            }
+            return PluginIndex(list, packageNameIndex, projectIdIndex)
+        }
+
+    }
+
+    fun findByPackageName(packageName: String): Plugin? {
+        return packageNameIndex[packageName]
+    }
+
+    fun findByProjectId(projectId: String): Plugin? {
+        return projectIdIndex[projectId]
+    }
+
+    operator fun plus(plugin: Plugin): PluginIndex {
+        return of(plugins + plugin)
+    }
+
+    fun filterNot(predicate: (Plugin) -> Boolean): PluginIndex {
+        return of(plugins.filterNot(predicate))
+    }
+
+}
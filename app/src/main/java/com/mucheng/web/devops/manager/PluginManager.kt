@@ -1,128 +1,343 @@
 package com.mucheng.web.devops.manager
 
+import android.content.pm.ApplicationInfo
 import android.content.pm.PackageManager
+import android.content.res.Resources
 import android.os.Build
 import android.util.Log
 import androidx.annotation.Keep
 import com.mucheng.web.devops.exceptions.PluginException
 import com.mucheng.web.devops.path.*
 import com.mucheng.web.devops.plugin.Plugin
+import com.mucheng.web.devops.plugin.PluginManifest
 import com.mucheng.web.devops.plugin.PluginResources
+import com.mucheng.web.devops.plugin.ProjectManifest
 import com.mucheng.web.devops.util.AppCoroutine
 import com.mucheng.web.devops.util.Context
 import com.mucheng.webops.plugin.PluginMain
 import com.mucheng.webops.plugin.data.Files
 import dalvik.system.DexClassLoader
+import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.withContext
+import org.xmlpull.v1.XmlPullParser
 import java.io.File
 
 @Keep
 object PluginManager {
 
-    private val plugins: MutableList<Plugin> = ArrayList()
-
-    fun loadPlugins(onError: (e: Throwable, file: File) -> Unit = { _, _ -> }) {
-        plugins.clear()
-        var listFiles =
-            PluginDir.listFiles()?.filter { it.isFile && it.name.endsWith(".apk") } ?: emptyList()
-        listFiles = listFiles.sortedWith(Comparator { o1, o2 ->
-            val diff = o1.lastModified() - o2.lastModified()
-            return@Comparator if (diff > 0) {
-                -1
-            } else if (diff == 0L) {
-                0
-            } else {
-                1
+    private val lock = Any()
+
+    @Volatile
+    private var index: PluginIndex = PluginIndex.EMPTY
+
+    private val _pluginsFlow: MutableStateFlow<List<Plugin>> = MutableStateFlow(emptyList())
+
+    /**
+     * 已加载的插件, 每次安装或卸载后发送新的列表
+     * */
+    val pluginsFlow: StateFlow<List<Plugin>> = _pluginsFlow.asStateFlow()
+
+    private val isLoaded: MutableStateFlow<Boolean> = MutableStateFlow(false)
+
+    /**
+     * 在 IO 线程并行加载插件目录下的所有插件
+     * 加载失败的插件会在全部加载完成后依次回调 [onError]
+     * */
+    suspend fun loadPlugins(onError: (e: Throwable, file: File) -> Unit = { _, _ -> }) {
+        val failures = try {
+            withContext(CoroutineName("LoadPluginsCoroutine") + Dispatchers.IO) {
+                val listFiles = PluginDir.listFiles()
+                    ?.filter { it.isFile && it.name.endsWith(".apk") }
+                    ?.map { it to it.lastModified() }
+                    ?.sortedByDescending { it.second }
+                    ?.map { it.first }
+                    ?: emptyList()
+
+                val results = listFiles.map { file ->
+                    async {
+                        runCatching { loadPluginFile(file) }
+                    }
+                }.awaitAll()
+
+                val failures: MutableList<Pair<Throwable, File>> = ArrayList()
+                val loadedPlugins: MutableList<Plugin> = ArrayList()
+                // 保持按修改时间倒序排列
+                for ((position, result) in results.withIndex()) {
+                    val plugin = result.getOrNull()
+                    if (plugin == null) {
+                        failures.add(result.exceptionOrNull()!! to listFiles[position])
+                    } else if (loadedPlugins.none { it.packageName == plugin.packageName }) {
+                        loadedPlugins.add(plugin)
+                        Log.e("PluginManager", "Loaded plugin: ${plugin.installedPath}")
+                    } else {
+                        Log.e("PluginManager", "The plugin '${plugin.packageName}' has already loaded.")
+                    }
+                }
+                PluginManifestCache.retainAndSave(listFiles)
+                var mergedPlugins: List<Plugin> = loadedPlugins
+                update { current ->
+                    // 合并而不是替换: 保留同版本的已有实例 (可能已激活或正在使用), 以及加载期间安装的插件
+                    mergedPlugins = loadedPlugins.map { plugin ->
+                        current.findByPackageName(plugin.packageName)
+                            ?.takeIf { it.versionCode == plugin.versionCode }
+                            ?: plugin
+                    }
+                    // 安装文件已被删除的插件不再保留
+                    PluginIndex.of(mergedPlugins + current.plugins.filter { File(it.installedPath).isFile })
+                }
+                // 手动放入或上次未完成优化的插件在后台补做
+                PluginOptimizer.optimizeAll(mergedPlugins)
+                failures
             }
-        })
-        for (file in listFiles) {
-            try {
-                loadExternalPlugin(file)
-                Log.e("PluginManager", "Loaded plugin: ${file.absolutePath}")
-            } catch (e: Throwable) {
-                onError(e, file)
+        } finally {
+            // 加载失败或被取消时同样标记完成, 避免 awaitPlugins 一直等待
+            isLoaded.value = true
+        }
+
+        for ((e, file) in failures) {
+            onError(e, file)
+        }
+    }
+
+    /**
+     * 等待首次加载完成
+     * */
+    suspend fun awaitPlugins(): List<Plugin> {
+        isLoaded.first { it }
+        return getPlugins()
+    }
+
+    /**
+     * 解析尚未导入的 APK 的元数据, 不写入缓存, 需在子线程中调用
+     * @return 无法解析时返回 null
+     * */
+    fun readApkManifest(file: File): PluginManifest? {
+        return runCatching { parseManifest(file) }.getOrNull()
+    }
+
+    fun loadExternalPlugin(file: File): Plugin {
+        val packageName = resolveManifest(file).packageName
+        val loadedPlugin = findPluginByPackageName(packageName)
+        if (loadedPlugin != null) {
+            Log.e("PluginManager", "The plugin '$packageName' has already loaded.")
+            return loadedPlugin
+        }
+
+        val plugin = loadPluginFile(file)
+        var result = plugin
+        update {
+            // 并发安装同一插件时以先完成的为准
+            val existing = it.findByPackageName(plugin.packageName)
+            if (existing != null) {
+                result = existing
+                it
+            } else {
+                it + plugin
             }
         }
+        PluginManifestCache.retainAndSave(PluginDir.listFiles()?.toList() ?: emptyList())
+        // 安装后立即在后台优化, 首次使用时无需等待
+        PluginOptimizer.optimizeAsync(result)
+        return result
     }
 
-    fun getApkPackageName(file: File): String? {
-        val appContext = Context
-        val packageManager = appContext.packageManager
-        val packageInfo = packageManager.getPackageArchiveInfo(
-            file.absolutePath,
-            PackageManager.GET_ACTIVITIES or
-                    PackageManager.GET_SERVICES or
-                    PackageManager.GET_META_DATA or
-                    PackageManager.GET_PROVIDERS
-        ) ?: return null
-        val applicationInfo = packageInfo.applicationInfo
-        applicationInfo.sourceDir = file.absolutePath
-        applicationInfo.publicSourceDir = file.absolutePath
-        return applicationInfo.packageName
+    /**
+     * 读取插件元数据, 优先使用缓存
+     * */
+    private fun resolveManifest(file: File): PluginManifest {
+        PluginManifestCache.get(file)?.let { return it }
+
+        val manifest = parseManifest(file)
+        PluginManifestCache.put(file, manifest)
+        return manifest
     }
 
     @Suppress("DEPRECATION")
-    fun loadExternalPlugin(file: File): Plugin {
+    private fun parseManifest(file: File): PluginManifest {
         val appContext = Context
         val packageManager = appContext.packageManager
         val packageInfo = packageManager.getPackageArchiveInfo(
             file.absolutePath,
-            PackageManager.GET_ACTIVITIES or
-                    PackageManager.GET_SERVICES or
-                    PackageManager.GET_META_DATA or
-                    PackageManager.GET_PROVIDERS
+            PackageManager.GET_META_DATA
         ) ?: throw PluginException("Cannot resolve the path: ${file.absolutePath}")
         val applicationInfo = packageInfo.applicationInfo
         applicationInfo.sourceDir = file.absolutePath
         applicationInfo.publicSourceDir = file.absolutePath
 
-        val metaData = packageInfo.applicationInfo.metaData
-        val name = applicationInfo.loadLabel(packageManager).toString()
-        val packageName = applicationInfo.packageName
-        val loadedPlugin = findPluginByPackageName(packageName)
-        if (loadedPlugin != null) {
-            Log.e("PluginManager", "The plugin '$packageName' has already loaded.")
-            return loadedPlugin
+        val metaData = applicationInfo.metaData
+        val launchMain = metaData?.getString("launchMain")
+            ?: throw PluginException("The plugin '${file.absolutePath}' has no 'launchMain' meta-data.")
+        val versionCode = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            packageInfo.longVersionCode
+        } else {
+            packageInfo.versionCode.toLong()
+        }
+        val projectsResId = metaData.getInt("projects", 0)
+        val projects = if (projectsResId != 0) {
+            parseProjects(packageManager.getResourcesForApplication(applicationInfo), projectsResId)
+        } else {
+            null
         }
+        val preloadClasses = metaData.getString("preloadClasses")
+            ?.split(',')
+            ?.map { it.trim() }
+            ?.filter { it.isNotEmpty() }
+            ?: emptyList()
+        return PluginManifest(
+            applicationInfo.loadLabel(packageManager).toString(),
+            applicationInfo.packageName,
+            launchMain,
+            versionCode,
+            projects,
+            preloadClasses
+        )
+    }
 
-        val launchMain = metaData.getString("launchMain")
-            ?: throw PluginException("The plugin '${file.absolutePath}' has no 'launchMain' meta-data.")
+    /**
+     * 解析 meta-data "projects" 指向的 xml 资源:
+     * <projects>
+     *     <project name="..." id="..." description="..." icon="@drawable/..." />
+     * </projects>
+     * */
+    private fun parseProjects(resources: Resources, resId: Int): List<ProjectManifest> {
+        val projects: MutableList<ProjectManifest> = ArrayList()
+        val parser = resources.getXml(resId)
+        try {
+            var eventType = parser.eventType
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && parser.name == "project") {
+                    val name = parser.getAttributeValue(null, "name")
+                    val projectId = parser.getAttributeValue(null, "id")
+                    if (name == null || projectId == null) {
+                        throw PluginException("The project declaration must have 'name' and 'id' attributes.")
+                    }
+                    projects.add(
+                        ProjectManifest(
+                            name,
+                            projectId,
+                            parser.getAttributeValue(null, "description"),
+                            parser.getAttributeResourceValue(null, "icon", 0)
+                        )
+                    )
+                }
+                eventType = parser.next()
+            }
+        } finally {
+            parser.close()
+        }
+        return projects
+    }
+
+    private fun loadPluginFile(file: File): Plugin {
+        val appContext = Context
+        val packageManager = appContext.packageManager
+        val manifest = resolveManifest(file)
+
+        val resourcesProvider = {
+            // 资源只需要 APK 路径, 无需完整解析清单
+            val applicationInfo = ApplicationInfo()
+            applicationInfo.packageName = manifest.packageName
+            applicationInfo.sourceDir = file.absolutePath
+            applicationInfo.publicSourceDir = file.absolutePath
+            PluginResources(packageManager.getResourcesForApplication(applicationInfo))
+        }
 
-        val dexClassLoader = DexClassLoader(
+        lateinit var plugin: Plugin
+        val activator = {
+            activatePlugin(file, manifest, plugin.resources)
+        }
+
+        plugin = Plugin(
+            manifest.pluginName,
+            manifest.packageName,
             file.absolutePath,
-            OatDir.absolutePath,
-            null,
-            appContext.classLoader
+            manifest.versionCode,
+            manifest.launchMain,
+            manifest.projects,
+            resourcesProvider,
+            activator
         )
 
-        val resources =
-            PluginResources(packageManager.getResourcesForApplication(applicationInfo))
+        // 未声明工程的插件只能通过 PluginMain 获取工程列表, 仍在加载时激活
+        if (manifest.projects == null) {
+            plugin.pluginMain
+        }
+        return plugin
+    }
 
-        val pluginMain = dexClassLoader.loadClass(launchMain).newInstance() as PluginMain
+    private fun activatePlugin(file: File, manifest: PluginManifest, resources: Resources): PluginMain {
+        val appContext = Context
+        val pluginMain = PluginProfiler.measure(manifest.packageName, "loadDex") {
+            val dexClassLoader = DexClassLoader(
+                file.absolutePath,
+                OatDir.absolutePath,
+                null,
+                appContext.classLoader
+            )
+            // 预加载插件声明的常用类
+            for (className in manifest.preloadClasses) {
+                runCatching {
+                    Class.forName(className, true, dexClassLoader)
+                }.exceptionOrNull()?.printStackTrace()
+            }
+
+            @Suppress("DEPRECATION")
+            dexClassLoader.loadClass(manifest.launchMain).newInstance() as PluginMain
+        }
         // 调用初始化方法
-        pluginMain.onInit(
-            appContext, resources, AppCoroutine, Files(
-                StorageDir,
-                CacheDir,
-                FilesDir,
-                PluginDir,
-                OatDir,
-                MainDir,
-                ProjectDir,
-                PluginStoreDir
+        PluginProfiler.measure(manifest.packageName, "onInit") {
+            pluginMain.onInit(
+                appContext, resources, AppCoroutine, Files(
+                    StorageDir,
+                    CacheDir,
+                    FilesDir,
+                    PluginDir,
+                    OatDir,
+                    MainDir,
+                    ProjectDir,
+                    PluginStoreDir
+                )
             )
-        )
+        }
+        Log.i("PluginManager", "Activated plugin: ${manifest.packageName}")
+        return pluginMain
+    }
 
-        val versionCode = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-            packageInfo.longVersionCode
-        } else {
-            packageInfo.versionCode.toLong()
+    /**
+     * 在 IO 线程激活插件, 避免首次使用时在主线程加载 dex
+     * */
+    suspend fun activatePluginSuspend(plugin: Plugin): PluginMain {
+        return withContext(Dispatchers.IO) {
+            plugin.pluginMain
+        }
+    }
+
+    /**
+     * 内存不足时释放没有被使用的插件
+     * */
+    fun deactivateIdlePlugins() {
+        for (plugin in getPlugins()) {
+            if (plugin.deactivate()) {
+                Log.i("PluginManager", "Deactivated plugin: ${plugin.packageName}")
+            }
+        }
+    }
+
+    private inline fun update(transform: (PluginIndex) -> PluginIndex) {
+        synchronized(lock) {
+            val newIndex = transform(index)
+            if (newIndex !== index) {
+                index = newIndex
+                _pluginsFlow.value = newIndex.plugins
+            }
         }
-        val plugin =
-            Plugin(name, packageName, pluginMain, file.absolutePath, versionCode)
-        plugins.add(plugin)
-        return plugin
     }
 
     suspend fun findPluginByProjectIdSuspend(projectId: String): Plugin? {
@@ -132,12 +347,7 @@ object PluginManager {
     }
 
     fun findPluginByProjectId(projectId: String): Plugin? {
-        for (plugin in plugins) {
-            if (plugin.isSupported(projectId)) {
-                return plugin
-            }
-        }
-        return null
+        return index.findByProjectId(projectId)
     }
 
     suspend fun findPluginByPackageNameSuspend(packageName: String): Plugin? {
@@ -147,28 +357,28 @@ object PluginManager {
     }
 
     fun findPluginByPackageName(packageName: String): Plugin? {
-        for (plugin in plugins) {
-            if (plugin.packageName == packageName) {
-                return plugin
-            }
-        }
-        return null
+        return index.findByPackageName(packageName)
     }
 
     fun removePluginByPackageName(packageName: String) {
-        for (plugin in plugins) {
-            if (plugin.packageName == packageName) {
-                plugins.remove(plugin)
+        update {
+            if (it.findByPackageName(packageName) == null) it else it.filterNot { plugin ->
+                plugin.packageName == packageName
             }
         }
     }
 
     fun removePlugin(plugin: Plugin): Boolean {
-        return plugins.remove(plugin)
+        var isRemoved = false
+        update {
+            isRemoved = plugin in it.plugins
+            if (isRemoved) it.filterNot { target -> target === plugin } else it
+        }
+        return isRemoved
     }
 
     fun getPlugins(): List<Plugin> {
-        return plugins
+        return index.plugins
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,219 @@
+package com.mucheng.web.devops.manager
+
+import com.mucheng.web.devops.openapi.util.FileUtil
+import com.mucheng.web.devops.path.ConfigDir
+import com.mucheng.web.devops.plugin.PluginManifest
+import com.mucheng.web.devops.plugin.ProjectManifest
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * 插件元数据缓存
+ *
+ * 以 APK 的大小和修改时间作为快速校验, 两者变化时再比较 SHA-256,
+ * 命中缓存时无需调用 getPackageArchiveInfo 解析整个 APK 的清单;
+ * 同时记录插件的 dex 是否已经完成优化
+ * */
+object PluginManifestCache {
+
+    private const val MAGIC = 0x5744504D // "WDPM"
+    private const val VERSION = 3
+
+    private val cacheFile: File = File("$ConfigDir/PluginManifest.bin")
+
+    private class Entry(
+        val length: Long,
+        val lastModified: Long,
+        val sha256: String,
+        val manifest: PluginManifest,
+        val optimized: Boolean
+    )
+
+    private val entries: MutableMap<String, Entry> = HashMap()
+
+    private var isLoaded = false
+
+    private var isDirty = false
+
+    /**
+     * 获取缓存的元数据, 缓存无效时返回 null
+     * @param file 插件 APK
+     * */
+    fun get(file: File): PluginManifest? {
+        val entry = synchronized(this) {
+            ensureLoaded()
+            entries[file.absolutePath]
+        } ?: return null
+
+        val length = file.length()
+        val lastModified = file.lastModified()
+        if (entry.length == length && entry.lastModified == lastModified) {
+            return entry.manifest
+        }
+
+        // 仅修改时间变化 (例如重新复制了同样的文件) 时, 内容一致仍可复用, 优化结果同样有效
+        if (entry.length != length || FileUtil.sha256(file.inputStream()) != entry.sha256) {
+            return null
+        }
+        put(file, entry.manifest, entry.sha256, entry.optimized)
+        return entry.manifest
+    }
+
+    /**
+     * 记录解析出的元数据
+     * @param sha256 已知的 APK 哈希, 为 null 时重新计算
+     * @param optimized 内容与已优化的记录一致时沿用
+     * */
+    fun put(file: File, manifest: PluginManifest, sha256: String? = null, optimized: Boolean = false) {
+        val entry = Entry(
+            file.length(),
+            file.lastModified(),
+            sha256 ?: FileUtil.sha256(file.inputStream()),
+            manifest,
+            optimized
+        )
+        synchronized(this) {
+            ensureLoaded()
+            entries[file.absolutePath] = entry
+            isDirty = true
+        }
+    }
+
+    /**
+     * 插件的 dex 是否已经完成优化
+     * */
+    fun isOptimized(file: File): Boolean {
+        val entry = synchronized(this) {
+            ensureLoaded()
+            entries[file.absolutePath]
+        } ?: return false
+        return entry.optimized && entry.length == file.length() && entry.lastModified == file.lastModified()
+    }
+
+    /**
+     * 记录插件的 dex 已经完成优化
+     * */
+    @Synchronized
+    fun markOptimized(file: File) {
+        ensureLoaded()
+        val entry = entries[file.absolutePath] ?: return
+        if (entry.optimized || entry.length != file.length() || entry.lastModified != file.lastModified()) {
+            return
+        }
+        entries[file.absolutePath] = Entry(entry.length, entry.lastModified, entry.sha256, entry.manifest, true)
+        isDirty = true
+    }
+
+    /**
+     * 移除已不存在的插件并在有变化时写回磁盘
+     * @param files 本次扫描到的插件 APK
+     * */
+    @Synchronized
+    fun retainAndSave(files: List<File>) {
+        ensureLoaded()
+        val paths = files.mapTo(HashSet()) { it.absolutePath }
+        if (entries.keys.retainAll(paths)) {
+            isDirty = true
+        }
+        if (!isDirty) {
+            return
+        }
+
+        runCatching {
+            FileUtil.writeAtomically(cacheFile) { output ->
+                val dataOutput = DataOutputStream(output)
+                dataOutput.writeInt(MAGIC)
+                dataOutput.writeInt(VERSION)
+                dataOutput.writeInt(entries.size)
+                for ((path, entry) in entries) {
+                    val manifest = entry.manifest
+                    dataOutput.writeUTF(path)
+                    dataOutput.writeLong(entry.length)
+                    dataOutput.writeLong(entry.lastModified)
+                    dataOutput.writeUTF(entry.sha256)
+                    dataOutput.writeUTF(manifest.pluginName)
+                    dataOutput.writeUTF(manifest.packageName)
+                    dataOutput.writeUTF(manifest.launchMain)
+                    dataOutput.writeLong(manifest.versionCode)
+                    val projects = manifest.projects
+                    dataOutput.writeInt(projects?.size ?: -1)
+                    for (project in projects ?: emptyList()) {
+                        dataOutput.writeUTF(project.name)
+                        dataOutput.writeUTF(project.projectId)
+                        dataOutput.writeBoolean(project.description != null)
+                        dataOutput.writeUTF(project.description ?: "")
+                        dataOutput.writeInt(project.iconResId)
+                    }
+                    dataOutput.writeInt(manifest.preloadClasses.size)
+                    for (className in manifest.preloadClasses) {
+                        dataOutput.writeUTF(className)
+                    }
+                    dataOutput.writeBoolean(entry.optimized)
+                }
+                dataOutput.flush()
+            }
+            isDirty = false
+        }.exceptionOrNull()?.printStackTrace()
+    }
+
+    private fun ensureLoaded() {
+        if (isLoaded) {
+            return
+        }
+        isLoaded = true
+
+        if (!cacheFile.isFile) {
+            return
+        }
+
+        runCatching {
+            DataInputStream(cacheFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    return
+                }
+                val count = input.readInt()
+                repeat(count) {
+                    val path = input.readUTF()
+                    val length = input.readLong()
+                    val lastModified = input.readLong()
+                    val sha256 = input.readUTF()
+                    val pluginName = input.readUTF()
+                    val packageName = input.readUTF()
+                    val launchMain = input.readUTF()
+                    val versionCode = input.readLong()
+                    val projectCount = input.readInt()
+                    val projects = if (projectCount < 0) null else List(projectCount) {
+                        val name = input.readUTF()
+                        val projectId = input.readUTF()
+                        val hasDescription = input.readBoolean()
+                        val description = input.readUTF()
+                        ProjectManifest(
+                            name,
+                            projectId,
+                            if (hasDescription) description else null,
+                            input.readInt()
+                        )
+                    }
+                    val preloadClasses = List(input.readInt()) { input.readUTF() }
+                    val optimized = input.readBoolean()
+                    val manifest = PluginManifest(
+                        pluginName,
+                        packageName,
+                        launchMain,
+                        versionCode,
+                        projects,
+                        preloadClasses
+                    )
+                    entries[path] = Entry(length, lastModified, sha256, manifest, optimized)
+                }
+            }
+        }.onFailure {
+            // 缓存损坏时丢弃, 下次加载会重新生成
+            it.printStackTrace()
+            entries.clear()
+            isDirty = true
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.mucheng.web.devops.manager
+
+import android.os.Build
+import android.os.SystemClock
+import android.util.Log
+import com.mucheng.web.devops.path.OatDir
+import com.mucheng.web.devops.path.PluginDir
+import com.mucheng.web.devops.plugin.Plugin
+import com.mucheng.web.devops.util.AppCoroutine
+import com.mucheng.web.devops.util.Context
+import dalvik.system.DexClassLoader
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 插件 dex 的后台优化
+ *
+ * 安装或更新插件后立即在后台创建一次 DexClassLoader, 触发 dex 优化,
+ * 之后激活插件时只需映射已经优化好的代码; 确认生成了优化文件后才记录到 [PluginManifestCache] 中
+ * Android 10 起应用无法再触发 dex2oat, 此时不做任何处理
+ * */
+object PluginOptimizer {
+
+    private val jobs: MutableMap<String, Job> = ConcurrentHashMap()
+
+    // 同一时间只优化一个插件, 避免与前台争抢 CPU
+    private val mutex = Mutex()
+
+    private val isSupported: Boolean
+        get() = Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+
+    fun isOptimized(plugin: Plugin): Boolean {
+        val file = File(plugin.installedPath)
+        // 优化文件可能已被清除
+        return PluginManifestCache.isOptimized(file) && hasOptimizedFile(file)
+    }
+
+    /**
+     * 在后台优化插件, 已优化、正在优化或系统不支持时直接返回
+     * */
+    fun optimizeAsync(plugin: Plugin): Job? {
+        if (!isSupported || isOptimized(plugin)) {
+            return null
+        }
+
+        val path = plugin.installedPath
+        jobs[path]?.let { return it }
+        synchronized(jobs) {
+            jobs[path]?.let { return it }
+            val job = AppCoroutine.launch(CoroutineName("OptimizePluginCoroutine") + Dispatchers.IO) {
+                mutex.withLock {
+                    runCatching { optimize(plugin) }.exceptionOrNull()?.printStackTrace()
+                }
+            }
+            jobs[path] = job
+            job.invokeOnCompletion { jobs.remove(path, job) }
+            return job
+        }
+    }
+
+    /**
+     * 优化所有尚未优化的插件
+     * */
+    fun optimizeAll(plugins: List<Plugin>) {
+        for (plugin in plugins) {
+            optimizeAsync(plugin)
+        }
+    }
+
+    private fun optimize(plugin: Plugin) {
+        val file = File(plugin.installedPath)
+        if (!file.isFile || isOptimized(plugin)) {
+            return
+        }
+
+        val start = SystemClock.elapsedRealtime()
+        // 创建 ClassLoader 时会同步完成 dex 优化, 结果保留下来供之后复用
+        DexClassLoader(file.absolutePath, OatDir.absolutePath, null, Context.classLoader)
+        if (!hasOptimizedFile(file)) {
+            Log.i("PluginOptimizer", "No optimized code generated for plugin: ${plugin.packageName}")
+            return
+        }
+        PluginManifestCache.markOptimized(file)
+        PluginManifestCache.retainAndSave(PluginDir.listFiles()?.toList() ?: emptyList())
+        Log.i(
+            "PluginOptimizer",
+            "Optimized plugin: ${plugin.packageName} (${SystemClock.elapsedRealtime() - start} ms)"
+        )
+    }
+
+    /**
+     * 是否存在 dex 优化后的文件
+     * Android 8.0 之前写入 OatDir 中的 <name>.dex, 之后忽略 optimizedDirectory, 写入 APK 同目录的 oat/<isa>/<name>.odex
+     * */
+    private fun hasOptimizedFile(file: File): Boolean {
+        val baseName = file.nameWithoutExtension
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return File(OatDir, "$baseName.dex").isFile
+        }
+        val isaDirs = File(file.parentFile, "oat").listFiles() ?: return false
+        return isaDirs.any { File(it, "$baseName.odex").isFile }
+    }
+
+}
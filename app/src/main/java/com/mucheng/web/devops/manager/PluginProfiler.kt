@@ -0,0 +1,260 @@
+package com.mucheng.web.devops.manager
+
+import android.os.Looper
+import android.os.SystemClock
+import com.mucheng.webops.plugin.command.ShellExecutor
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * 插件性能统计
+ *
+ * 记录每次 PluginMain 回调的耗时、所在线程、回调期间启动的子进程数与 Java 堆的增长 (近似值),
+ * 最近的记录保存在固定大小的环形缓冲区中, 可在插件管理页查看或导出为 JSON
+ * */
+object PluginProfiler {
+
+    private const val CAPACITY = 256
+
+    /**
+     * 一次回调的统计结果
+     * @param heapDelta 回调前后 Java 堆已用大小的差值, 其他线程同时分配时会有误差
+     * */
+    class Record(
+        val packageName: String,
+        val callback: String,
+        val threadName: String,
+        val isMainThread: Boolean,
+        val startTime: Long,
+        val durationNanos: Long,
+        val heapDelta: Long,
+        val processCount: Int
+    )
+
+    class Summary(
+        val packageName: String,
+        val count: Int,
+        val totalNanos: Long,
+        val maxNanos: Long,
+        val mainThreadNanos: Long,
+        val processCount: Int,
+        val slowest: Record?
+    )
+
+    internal class Frame(val packageName: String) {
+        @Volatile
+        var processCount = 0
+
+        @Volatile
+        var isClosed = false
+    }
+
+    private val records = arrayOfNulls<Record>(CAPACITY)
+
+    private var nextIndex = 0
+
+    private var size = 0
+
+    private val frames = object : ThreadLocal<ArrayList<Frame>>() {
+        override fun initialValue(): ArrayList<Frame> = ArrayList()
+    }
+
+    // 在回调之外启动的进程, 按插件包名累计
+    private val detachedProcessCounts: MutableMap<String, Int> = HashMap()
+
+    init {
+        ShellExecutor.processListener = ShellExecutor.ProcessListener { command, _ ->
+            onProcessStarted(command)
+        }
+    }
+
+    /**
+     * 统计一次插件回调
+     * @param packageName 插件包名
+     * @param callback 回调名称, 例如 "onOpenProject"
+     * */
+    inline fun <T> measure(packageName: String, callback: String, block: () -> T): T {
+        val token = begin(packageName)
+        try {
+            return block()
+        } finally {
+            end(token, callback)
+        }
+    }
+
+    class Token internal constructor(
+        internal val frame: Frame,
+        internal val threadName: String,
+        internal val isMainThread: Boolean,
+        internal val startTime: Long,
+        internal val startNanos: Long,
+        internal val startHeap: Long
+    )
+
+    @PublishedApi
+    internal fun begin(packageName: String): Token {
+        val frame = Frame(packageName)
+        val stack = frames.get()!!
+        stack.removeAll { it.isClosed }
+        stack.add(frame)
+        val thread = Thread.currentThread()
+        return Token(
+            frame,
+            thread.name,
+            Looper.myLooper() == Looper.getMainLooper(),
+            System.currentTimeMillis(),
+            SystemClock.elapsedRealtimeNanos(),
+            usedHeap()
+        )
+    }
+
+    @PublishedApi
+    internal fun end(token: Token, callback: String) {
+        val durationNanos = SystemClock.elapsedRealtimeNanos() - token.startNanos
+        // 挂起函数恢复后可能位于其他线程, 原线程的栈在下次使用时清理
+        token.frame.isClosed = true
+        frames.get()!!.remove(token.frame)
+        add(
+            Record(
+                token.frame.packageName,
+                callback,
+                token.threadName,
+                token.isMainThread,
+                token.startTime,
+                durationNanos,
+                usedHeap() - token.startHeap,
+                token.frame.processCount
+            )
+        )
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun onProcessStarted(command: List<String>) {
+        val frame = frames.get()!!.lastOrNull { !it.isClosed }
+        if (frame != null) {
+            ++frame.processCount
+            return
+        }
+
+        // 不在回调中 (例如插件自己的协程), 根据调用栈找到所属插件
+        val packageName = findCallerPlugin() ?: return
+        synchronized(this) {
+            detachedProcessCounts[packageName] = (detachedProcessCounts[packageName] ?: 0) + 1
+        }
+        add(
+            Record(
+                packageName,
+                "process: ${command.firstOrNull() ?: ""}",
+                Thread.currentThread().name,
+                Looper.myLooper() == Looper.getMainLooper(),
+                System.currentTimeMillis(),
+                0L,
+                0L,
+                1
+            )
+        )
+    }
+
+    private fun findCallerPlugin(): String? {
+        val plugins = PluginManager.getPlugins()
+        for (element in Throwable().stackTrace) {
+            for (plugin in plugins) {
+                val mainPackage = plugin.launchMain.substringBeforeLast('.') + "."
+                if (element.className.startsWith(mainPackage)) {
+                    return plugin.packageName
+                }
+            }
+        }
+        return null
+    }
+
+    @Synchronized
+    private fun add(record: Record) {
+        records[nextIndex] = record
+        nextIndex = (nextIndex + 1) % CAPACITY
+        if (size < CAPACITY) {
+            ++size
+        }
+    }
+
+    /**
+     * 最近的记录, 按时间先后排列
+     * */
+    @Synchronized
+    fun getRecords(): List<Record> {
+        val result: MutableList<Record> = ArrayList(size)
+        val start = (nextIndex - size + CAPACITY) % CAPACITY
+        for (offset in 0 until size) {
+            result.add(records[(start + offset) % CAPACITY]!!)
+        }
+        return result
+    }
+
+    /**
+     * 按插件汇总, 总耗时最长的在前
+     * */
+    fun getSummaries(): List<Summary> {
+        val detached = synchronized(this) { HashMap(detachedProcessCounts) }
+        return getRecords()
+            .groupBy { it.packageName }
+            .map { (packageName, records) ->
+                val callbacks = records.filter { it.durationNanos > 0L }
+                Summary(
+                    packageName,
+                    callbacks.size,
+                    callbacks.sumOf { it.durationNanos },
+                    callbacks.maxOfOrNull { it.durationNanos } ?: 0L,
+                    callbacks.filter { it.isMainThread }.sumOf { it.durationNanos },
+                    callbacks.sumOf { it.processCount } + (detached[packageName] ?: 0),
+                    callbacks.maxByOrNull { it.durationNanos }
+                )
+            }
+            .sortedByDescending { it.totalNanos }
+    }
+
+    @Synchronized
+    fun clear() {
+        records.fill(null)
+        nextIndex = 0
+        size = 0
+        detachedProcessCounts.clear()
+    }
+
+    fun toJson(): JSONObject {
+        val recordArray = JSONArray()
+        for (record in getRecords()) {
+            recordArray.put(
+                JSONObject()
+                    .put("packageName", record.packageName)
+                    .put("callback", record.callback)
+                    .put("thread", record.threadName)
+                    .put("mainThread", record.isMainThread)
+                    .put("startTime", record.startTime)
+                    .put("durationMs", record.durationNanos / 1_000_000.0)
+                    .put("heapDeltaBytes", record.heapDelta)
+                    .put("processCount", record.processCount)
+            )
+        }
+        val summaryArray = JSONArray()
+        for (summary in getSummaries()) {
+            summaryArray.put(
+                JSONObject()
+                    .put("packageName", summary.packageName)
+                    .put("count", summary.count)
+                    .put("totalMs", summary.totalNanos / 1_000_000.0)
+                    .put("maxMs", summary.maxNanos / 1_000_000.0)
+                    .put("mainThreadMs", summary.mainThreadNanos / 1_000_000.0)
+                    .put("processCount", summary.processCount)
+                    .put("slowestCallback", summary.slowest?.callback)
+            )
+        }
+        return JSONObject()
+            .put("summaries", summaryArray)
+            .put("records", recordArray)
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.mucheng.web.devops.network
+
+import com.mucheng.web.devops.openapi.util.FileUtil
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import okhttp3.CacheControl
+import okhttp3.Request
+import okhttp3.Response
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 文件下载管理
+ *
+ * 下载内容先写入同目录下的 .part 文件, 中断或取消后保留已下载的部分,
+ * 再次下载时通过 HTTP Range 续传; 校验大小与 SHA-256 通过后再原子替换目标文件
+ * @param httpClient 使用的网络层
+ * @param maxConcurrentDownloads 同时进行的最大下载数, 其余的排队等待
+ * @param progressIntervalMillis 进度回调的最小间隔
+ * */
+class DownloadManager(
+    private val httpClient: HttpClient,
+    maxConcurrentDownloads: Int = DEFAULT_MAX_CONCURRENT_DOWNLOADS,
+    private val progressIntervalMillis: Long = DEFAULT_PROGRESS_INTERVAL_MILLIS
+) {
+
+    companion object {
+        private const val DEFAULT_MAX_CONCURRENT_DOWNLOADS = 2
+        private const val DEFAULT_PROGRESS_INTERVAL_MILLIS = 200L
+        private const val BUFFER_SIZE = 64 * 1024
+
+        private const val PART_SUFFIX = ".part"
+        private const val VALIDATOR_SUFFIX = ".part.validator"
+
+        // 下载内容不写入 HTTP 缓存
+        private val NO_STORE = CacheControl.Builder()
+            .noCache()
+            .noStore()
+            .build()
+
+        val Default: DownloadManager by lazy {
+            DownloadManager(HttpClient.Default)
+        }
+    }
+
+    private val semaphore = Semaphore(maxConcurrentDownloads)
+
+    /**
+     * 下载文件到 [target]
+     * @param expectedSize 期望的文件大小, 小于 0 时使用服务器返回的长度 (续传时以 Content-Range 为准)
+     * @param expectedSha256 期望的 SHA-256 (十六进制), 为 null 时不校验
+     * @param onProgress 进度回调, 在 IO 线程按 [progressIntervalMillis] 节流调用, total 未知时为 -1
+     * @return [target]
+     * */
+    suspend fun download(
+        url: String,
+        target: File,
+        expectedSize: Long = -1L,
+        expectedSha256: String? = null,
+        onProgress: suspend (current: Long, total: Long) -> Unit = { _, _ -> }
+    ): File {
+        return semaphore.withPermit {
+            withContext(Dispatchers.IO) {
+                target.parentFile?.mkdirs()
+                val partFile = File(target.parentFile, target.name + PART_SUFFIX)
+                val validatorFile = File(target.parentFile, target.name + VALIDATOR_SUFFIX)
+                val total = transfer(url, partFile, validatorFile, expectedSize, onProgress)
+                try {
+                    verify(partFile, total, expectedSha256)
+                } catch (e: IOException) {
+                    // 内容已损坏, 下次重新下载
+                    partFile.delete()
+                    validatorFile.delete()
+                    throw e
+                }
+                if (!partFile.renameTo(target)) {
+                    throw IOException("Cannot rename ${partFile.absolutePath} to ${target.absolutePath}")
+                }
+                validatorFile.delete()
+                target
+            }
+        }
+    }
+
+    /**
+     * 清除 [target] 未完成的下载
+     * */
+    fun clearPartial(target: File) {
+        File(target.parentFile, target.name + PART_SUFFIX).delete()
+        File(target.parentFile, target.name + VALIDATOR_SUFFIX).delete()
+    }
+
+    /**
+     * @return 文件的总大小, 未知时为 -1
+     * */
+    private suspend fun transfer(
+        url: String,
+        partFile: File,
+        validatorFile: File,
+        expectedSize: Long,
+        onProgress: suspend (current: Long, total: Long) -> Unit
+    ): Long {
+        var downloaded = if (partFile.isFile) partFile.length() else 0L
+        val validator = if (downloaded > 0L && validatorFile.isFile) validatorFile.readText() else null
+        if (validator == null) {
+            // 无法确认服务器上的文件是否变化, 从头下载
+            downloaded = 0L
+        }
+
+        val builder = Request.Builder()
+            .url(url)
+            .get()
+            .cacheControl(NO_STORE)
+        if (downloaded > 0L) {
+            builder.header("Range", "bytes=$downloaded-")
+            builder.header("If-Range", validator!!)
+        }
+
+        httpClient.okHttpClient.newCall(builder.build()).awaitResponse().use { response ->
+            val append = when {
+                response.code == 206 && downloaded > 0L -> true
+                response.code == 416 && downloaded > 0L &&
+                        downloaded == (if (expectedSize >= 0L) expectedSize else response.completeLength()) -> {
+                    // 上次已下载完成, 但未来得及校验
+                    return downloaded
+                }
+
+                response.code == 416 -> {
+                    partFile.delete()
+                    validatorFile.delete()
+                    throw IOException("HTTP 416: $url")
+                }
+
+                response.isSuccessful -> false
+                else -> throw IOException("HTTP ${response.code}: $url")
+            }
+            if (!append) {
+                downloaded = 0L
+            }
+
+            val body = response.body ?: throw IOException("Response body is null: $url")
+            val contentLength = body.contentLength()
+            val completeLength = if (append) response.completeLength() else -1L
+            val total = when {
+                expectedSize >= 0L -> expectedSize
+                completeLength >= 0L -> completeLength
+                contentLength >= 0L -> downloaded + contentLength
+                else -> -1L
+            }
+
+            val newValidator = response.validator()
+            if (newValidator != null) {
+                validatorFile.writeText(newValidator)
+            } else {
+                validatorFile.delete()
+            }
+
+            var lastProgressTime = System.nanoTime() / 1_000_000
+            onProgress(downloaded, total)
+            FileOutputStream(partFile, append).use { output ->
+                body.byteStream().use { input ->
+                    val buffer = ByteArray(BUFFER_SIZE)
+                    while (true) {
+                        coroutineContext.ensureActive()
+                        val length = input.read(buffer)
+                        if (length == -1) {
+                            break
+                        }
+                        output.write(buffer, 0, length)
+                        downloaded += length
+
+                        val now = System.nanoTime() / 1_000_000
+                        if (now - lastProgressTime >= progressIntervalMillis) {
+                            lastProgressTime = now
+                            onProgress(downloaded, total)
+                        }
+                    }
+                }
+                output.fd.sync()
+            }
+            onProgress(downloaded, total)
+            return total
+        }
+    }
+
+    private fun verify(partFile: File, total: Long, expectedSha256: String?) {
+        val length = partFile.length()
+        if (total >= 0L && length != total) {
+            throw IOException("Size mismatch: expected $total but was $length")
+        }
+        if (expectedSha256 != null) {
+            val sha256 = FileUtil.sha256(partFile.inputStream())
+            if (!sha256.equals(expectedSha256, ignoreCase = true)) {
+                throw IOException("Checksum mismatch: expected $expectedSha256 but was $sha256")
+            }
+        }
+    }
+
+    /**
+     * Content-Range 中的完整长度, 例如 206 的 "bytes 0-99/200", 416 同样以 "/200" 结尾; 未知时为 -1
+     * */
+    private fun Response.completeLength(): Long {
+        val contentRange = header("Content-Range") ?: return -1L
+        return contentRange.substringAfterLast('/').trim().toLongOrNull() ?: -1L
+    }
+
+    /**
+     * 用于 If-Range 的校验值, 只使用强 ETag 或 Last-Modified
+     * */
+    private fun Response.validator(): String? {
+        val eTag = header("ETag")
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag
+        }
+        return header("Last-Modified")
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.mucheng.web.devops.network
+
+import com.mucheng.web.devops.path.CacheDir
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Cache
+import okhttp3.CacheControl
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * 全局共享的网络层
+ *
+ * 所有请求共用同一个 OkHttpClient (连接池、线程池与磁盘缓存),
+ * 同一 URL 正在进行中的文本请求会被合并为一次
+ * @param cacheDir HTTP 缓存目录, 为 null 时不使用缓存
+ * @param cacheSize 磁盘缓存的最大字节数
+ * @param maxRequestsPerHost 每个域名同时进行的最大请求数
+ * */
+class HttpClient(
+    cacheDir: File?,
+    cacheSize: Long = DEFAULT_CACHE_SIZE,
+    maxRequestsPerHost: Int = DEFAULT_MAX_REQUESTS_PER_HOST
+) {
+
+    companion object {
+        private const val DEFAULT_CACHE_SIZE = 20L * 1024 * 1024
+        private const val DEFAULT_MAX_REQUESTS_PER_HOST = 4
+
+        /**
+         * App 使用的实例, 缓存位于 CacheDir/http
+         * */
+        val Default: HttpClient by lazy {
+            HttpClient(File("$CacheDir/http"))
+        }
+    }
+
+    val okHttpClient: OkHttpClient = OkHttpClient.Builder()
+        .dispatcher(Dispatcher().also { it.maxRequestsPerHost = maxRequestsPerHost })
+        .apply {
+            if (cacheDir != null) {
+                cache(Cache(cacheDir, cacheSize))
+            }
+        }
+        .build()
+
+    private val scope = CoroutineScope(CoroutineName("HttpClientCoroutine") + Dispatchers.IO + SupervisorJob())
+
+    private val inFlight: MutableMap<String, Deferred<String>> = ConcurrentHashMap()
+
+    fun newCall(url: String, cacheControl: CacheControl? = null): Call {
+        val builder = Request.Builder()
+            .url(url)
+            .get()
+        if (cacheControl != null) {
+            builder.cacheControl(cacheControl)
+        }
+        return okHttpClient.newCall(builder.build())
+    }
+
+    /**
+     * 获取文本内容
+     * 同一 URL 的并发请求只会发出一次, 调用方取消时不影响其他等待者
+     * @param revalidate 为 true 时每次都向服务器校验缓存 (ETag / Last-Modified), 未修改时直接使用缓存
+     * */
+    suspend fun fetchString(url: String, revalidate: Boolean = true): String {
+        val key = "$revalidate:$url"
+        val deferred = inFlight[key] ?: synchronized(inFlight) {
+            inFlight[key] ?: scope.async(start = CoroutineStart.LAZY) {
+                val cacheControl = if (revalidate) CacheControl.Builder().noCache().build() else null
+                newCall(url, cacheControl).awaitResponse().use { response ->
+                    if (!response.isSuccessful) {
+                        throw IOException("HTTP ${response.code}: $url")
+                    }
+                    response.body?.string() ?: throw IOException("Response body is null: $url")
+                }
+            }.also { created ->
+                // 先登记再启动, 保证完成后一定会被移除
+                inFlight[key] = created
+                created.invokeOnCompletion { inFlight.remove(key, created) }
+                created.start()
+            }
+        }
+        return deferred.await()
+    }
+
+}
+
+/**
+ * 异步执行请求并挂起等待响应, 协程取消时同时取消请求
+ * */
+suspend fun Call.awaitResponse(): Response {
+    return suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation {
+            cancel()
+        }
+        enqueue(object : Callback {
+
+            override fun onResponse(call: Call, response: Response) {
+                continuation.resume(response)
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                continuation.resumeWithException(e)
+            }
+
+        })
+    }
+}
@@ -0,0 +1,58 @@
+package com.mucheng.web.devops.network;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.integration.okhttp3.OkHttpUrlLoader;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.module.AppGlideModule;
+
+import java.io.InputStream;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Glide 全局配置
+ * 内存缓存按字节数限制, 磁盘缓存位于 CacheDir/image,
+ * 网络图片通过共享的 OkHttp 连接池与调度器加载 (每个域名的并发数受限)
+ */
+@GlideModule
+public final class WebDevGlideModule extends AppGlideModule {
+
+    private static final long MAX_MEMORY_CACHE_SIZE = 32L * 1024 * 1024;
+
+    private static final long DISK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context).build();
+        long memoryCacheSize = Math.min(calculator.getMemoryCacheSize(), MAX_MEMORY_CACHE_SIZE);
+        builder.setMemoryCache(new LruResourceCache(memoryCacheSize));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, "image", DISK_CACHE_SIZE));
+    }
+
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        // 图片已由 Glide 缓存, 不再写入 HTTP 缓存
+        OkHttpClient okHttpClient = HttpClient.Companion.getDefault()
+                .getOkHttpClient()
+                .newBuilder()
+                .cache(null)
+                .build();
+        registry.replace(GlideUrl.class, InputStream.class, new OkHttpUrlLoader.Factory(okHttpClient));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+
+}
@@ -4,8 +4,10 @@ import android.annotation.SuppressLint
 
 import android.os.Environment
 import androidx.appcompat.app.AppCompatActivity
+import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.util.Context
 import java.io.File
+import java.util.Properties
 
 @SuppressLint("SdCardPath")
 val StorageDir = Environment.getExternalStorageDirectory() ?: File("/sdcard")
@@ -32,6 +34,8 @@ val OutCacheDir: File = File("$MainDir/cache")
 
 val GlobalConfigFile: File = File("$ConfigDir/GlobalConfig.xml")
 
+private val NativePluginsStampFile: File = File("$ConfigDir/NativePlugins.properties")
+
 @Suppress("SpellCheckingInspection")
 private val NomediaFile: File = File("$MainDir/.nomedia")
 
@@ -57,10 +61,16 @@ fun AppCompatActivity.CreateCoreFiles() {
     }
 }
 
+/**
+ * 复制 Assets 下的内置插件到插件目录
+ * 安装包未更新且插件文件未被改动时直接跳过, 否则比较 SHA-256, 内容一致时不再复制
+ * */
 @Suppress("FunctionName")
-fun AppCompatActivity.CopyNativePlugins() {
+fun CopyNativePlugins() {
     runCatching {
-        // 复制 Assets 下的插件到插件目录
+        PluginDir.mkdirs()
+        ConfigDir.mkdirs()
+
         val assetsPlugins = arrayOf(
             "plugin-static-project-release.apk"
         )
@@ -68,16 +78,51 @@ fun AppCompatActivity.CopyNativePlugins() {
             "com.mucheng.web.devops.statics"
         )
 
-        val assets = assets
+        val stamps = Properties()
+        runCatching {
+            NativePluginsStampFile.inputStream().buffered().use {
+                stamps.load(it)
+            }
+        }
+
+        val assets = Context.assets
+        @Suppress("DEPRECATION")
+        val lastUpdateTime = Context.packageManager
+            .getPackageInfo(Context.packageName, 0).lastUpdateTime.toString()
+        var isChanged = false
         for ((index, plugin) in assetsPlugins.withIndex()) {
+            val name = nativeNames[index]
             val path = "plugin/$plugin"
-            val bis = assets.open(path).buffered()
-            val bos = File("$PluginDir/${nativeNames[index]}.apk").outputStream().buffered()
-            bis.use {
-                bos.use {
-                    bis.copyTo(bos)
+            val target = File("$PluginDir/$name.apk")
+            if (stamps.getProperty("$name.lastUpdateTime") == lastUpdateTime &&
+                stamps.getProperty("$name.target") == target.stamp()
+            ) {
+                continue
+            }
+
+            val assetHash = FileUtil.sha256(assets.open(path))
+            if (!target.isFile || FileUtil.sha256(target.inputStream()) != assetHash) {
+                FileUtil.writeAtomically(target) { output ->
+                    assets.open(path).use {
+                        it.copyTo(output)
+                    }
                 }
             }
+
+            stamps.setProperty("$name.lastUpdateTime", lastUpdateTime)
+            stamps.setProperty("$name.sha256", assetHash)
+            stamps.setProperty("$name.target", target.stamp())
+            isChanged = true
+        }
+
+        if (isChanged) {
+            FileUtil.writeAtomically(NativePluginsStampFile) {
+                stamps.store(it, null)
+            }
         }
     }.exceptionOrNull()?.printStackTrace()
-}
\ No newline at end of file
+}
+
+private fun File.stamp(): String {
+    return "${length()}:${lastModified()}"
+}
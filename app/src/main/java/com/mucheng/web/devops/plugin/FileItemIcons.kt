@@ -0,0 +1,60 @@
+package com.mucheng.web.devops.plugin
+
+import android.content.Context
+import android.graphics.drawable.Drawable
+import androidx.core.content.ContextCompat
+import com.mucheng.web.devops.R
+import com.mucheng.webops.plugin.PluginMain
+import java.io.File
+
+/**
+ * 文件列表的图标
+ *
+ * 默认图标只加载一次, 插件提供的图标按扩展名缓存 ConstantState,
+ * 每一行返回新的 Drawable 实例; 只有重写了旧版 getFileItemIcon(file) 的插件才会逐个文件回调
+ * */
+class FileItemIcons(context: Context, private val pluginMain: PluginMain) {
+
+    private val fileIcon: Drawable.ConstantState =
+        ContextCompat.getDrawable(context, R.drawable.ic_file)!!.constantState!!
+
+    private val folderIcon: Drawable.ConstantState =
+        ContextCompat.getDrawable(context, R.drawable.ic_folder)!!.constantState!!
+
+    // 扩展名 -> 插件图标, 插件没有提供图标时为 null
+    private val extensionIcons: MutableMap<String, Drawable.ConstantState?> = HashMap()
+
+    private val isLegacy: Boolean = runCatching {
+        pluginMain.javaClass.getMethod("getFileItemIcon", File::class.java).declaringClass !=
+                PluginMain::class.java
+    }.getOrDefault(false)
+
+    /**
+     * @param isFile 调用方已知的文件类型, 避免重复 stat
+     * */
+    @Suppress("DEPRECATION")
+    fun getIcon(file: File, isFile: Boolean = file.isFile): Drawable {
+        if (isLegacy) {
+            pluginMain.getFileItemIcon(file)?.let { return it }
+        }
+        if (!isFile) {
+            return folderIcon.newDrawable()
+        }
+
+        val extension = file.extension
+        val constantState = synchronized(extensionIcons) {
+            if (extensionIcons.containsKey(extension)) {
+                extensionIcons[extension]
+            } else {
+                val icon = pluginMain.getFileItemIcon(extension)
+                // 没有 ConstantState 的图标无法共享, 不缓存
+                if (icon != null && icon.constantState == null) {
+                    return icon
+                }
+                icon?.constantState.also { extensionIcons[extension] = it }
+            }
+        }
+        return (constantState ?: fileIcon).newDrawable()
+    }
+
+}
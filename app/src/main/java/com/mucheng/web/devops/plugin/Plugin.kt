@@ -1,25 +1,109 @@
 package com.mucheng.web.devops.plugin
 
+import android.content.res.Resources
 import androidx.annotation.Keep
 import com.mucheng.webops.plugin.PluginMain
+import com.mucheng.webops.plugin.data.Project
 
+/**
+ * 已安装的插件
+ *
+ * 声明了工程的插件在第一次访问 [pluginMain] 时才会加载 dex 并调用 onInit,
+ * 没有被使用的插件可以通过 [deactivate] 释放
+ * */
 @Keep
-data class Plugin(
+class Plugin(
     val pluginName: String,
     val packageName: String,
-    val pluginMain: PluginMain,
     val installedPath: String,
-    val versionCode: Long
+    val versionCode: Long,
+    val launchMain: String,
+    private val declaredProjects: List<ProjectManifest>?,
+    private val resourcesProvider: () -> Resources,
+    private val activator: () -> PluginMain
 ) {
 
-    fun isSupported(projectId: String): Boolean {
-        val projects = pluginMain.getProjects()
-        for (project in projects) {
-            if (project.projectId == projectId) {
-                return true
+    @Volatile
+    private var activatedMain: PluginMain? = null
+
+    private var useCount = 0
+
+    val resources: Resources by lazy { resourcesProvider() }
+
+    private val projects: List<Project>? by lazy {
+        declaredProjects?.map {
+            @Suppress("DEPRECATION")
+            val icon = if (it.iconResId != 0) resources.getDrawable(it.iconResId) else null
+            Project(it.name, it.projectId, it.description, icon)
+        }
+    }
+
+    private val projectIds: Set<String> by lazy {
+        declaredProjects?.mapTo(HashSet()) { it.projectId }
+            ?: pluginMain.getProjects().mapTo(HashSet()) { it.projectId }
+    }
+
+    val pluginMain: PluginMain
+        get() {
+            activatedMain?.let { return it }
+            synchronized(this) {
+                return activatedMain ?: activator().also { activatedMain = it }
             }
         }
-        return false
+
+    val isActivated: Boolean
+        get() = activatedMain != null
+
+    /**
+     * 标记插件正在被使用 (例如打开了该插件的工程), 使用中的插件不会被释放
+     * */
+    @Synchronized
+    fun acquire() {
+        ++useCount
+    }
+
+    @Synchronized
+    fun release() {
+        if (useCount > 0) {
+            --useCount
+        }
+    }
+
+    /**
+     * 释放未被使用的 PluginMain, 下次访问时重新激活
+     * 未声明工程的插件需要 PluginMain 提供工程列表, 不会被释放;
+     * 仍有后台服务运行的插件可以通过 [PluginMain.onDeactivate] 拒绝释放
+     * @return 是否已释放
+     * */
+    @Synchronized
+    fun deactivate(): Boolean {
+        val pluginMain = activatedMain
+        if (declaredProjects == null || useCount > 0 || pluginMain == null) {
+            return false
+        }
+        val canDeactivate = runCatching { pluginMain.onDeactivate() }
+            .onFailure { it.printStackTrace() }
+            .getOrDefault(false)
+        if (!canDeactivate) {
+            return false
+        }
+        activatedMain = null
+        return true
+    }
+
+    fun getProjects(): List<Project> {
+        return projects ?: pluginMain.getProjects()
+    }
+
+    /**
+     * 支持的工程 id, 声明了工程的插件无需激活
+     * */
+    fun getProjectIds(): Set<String> {
+        return projectIds
+    }
+
+    fun isSupported(projectId: String): Boolean {
+        return projectId in projectIds
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,34 @@
+package com.mucheng.web.devops.plugin
+
+import androidx.annotation.Keep
+
+/**
+ * 插件 APK 中解析出的元数据
+ * @param pluginName 插件名称 (application label)
+ * @param packageName 插件包名
+ * @param launchMain 入口类, 来自 meta-data "launchMain"
+ * @param versionCode 插件版本号
+ * @param projects 插件通过 meta-data "projects" 声明的工程, 未声明时为 null
+ * @param preloadClasses 激活时预加载的类, 来自 meta-data "preloadClasses" (以逗号分隔)
+ * */
+@Keep
+data class PluginManifest(
+    val pluginName: String,
+    val packageName: String,
+    val launchMain: String,
+    val versionCode: Long,
+    val projects: List<ProjectManifest>?,
+    val preloadClasses: List<String> = emptyList()
+)
+
+/**
+ * 插件静态声明的工程
+ * @param iconResId 插件资源中的图标 id, 没有图标时为 0
+ * */
+@Keep
+data class ProjectManifest(
+    val name: String,
+    val projectId: String,
+    val description: String?,
+    val iconResId: Int
+)
@@ -7,8 +7,17 @@ import android.content.res.Resources
 import android.content.res.XmlResourceParser
 import android.graphics.drawable.Drawable
 import android.util.DisplayMetrics
+import android.util.SparseArray
+import android.util.SparseIntArray
 import androidx.annotation.Keep
+import java.util.WeakHashMap
 
+/**
+ * 插件的资源
+ *
+ * 缓存已解码 Drawable 的 ConstantState (按资源 id 与主题区分)、字符串与颜色,
+ * 每次返回新的 Drawable 实例但共享底层的位图等数据; 配置变化后缓存自动失效
+ * */
 @Keep
 @Suppress("DEPRECATION")
 class PluginResources(assets: AssetManager?, metrics: DisplayMetrics?, config: Configuration?) :
@@ -16,14 +25,49 @@ class PluginResources(assets: AssetManager?, metrics: DisplayMetrics?, config: C
 
     private lateinit var injectResources: Resources
 
+    private val lock = Any()
+
+    private var cachedConfiguration: Configuration? = null
+
+    // 主题属于 Activity, 弱引用以免 Activity 销毁后仍被缓存持有
+    private val drawableCache: MutableMap<Theme?, SparseArray<Drawable.ConstantState>> = WeakHashMap()
+
+    private val stringCache = SparseArray<String>()
+
+    private val colorCache = SparseIntArray()
+
     constructor(injectResources: Resources) : this(
         injectResources.assets, injectResources.displayMetrics, injectResources.configuration
     ) {
         this.injectResources = injectResources
     }
 
+    /**
+     * 配置 (夜间模式、字体缩放、语言等) 变化时清空缓存
+     * 需在持有 [lock] 时调用
+     * */
+    private fun ensureCacheValid() {
+        val configuration = injectResources.configuration
+        val cached = cachedConfiguration
+        if (cached != null && cached.diff(configuration) == 0) {
+            return
+        }
+        cachedConfiguration = Configuration(configuration)
+        drawableCache.clear()
+        stringCache.clear()
+        colorCache.clear()
+    }
+
     override fun getString(id: Int): String {
-        return injectResources.getString(id)
+        synchronized(lock) {
+            ensureCacheValid()
+            stringCache[id]?.let { return it }
+        }
+        val string = injectResources.getString(id)
+        synchronized(lock) {
+            stringCache.put(id, string)
+        }
+        return string
     }
 
     override fun getLayout(id: Int): XmlResourceParser {
@@ -36,17 +80,37 @@ class PluginResources(assets: AssetManager?, metrics: DisplayMetrics?, config: C
         ReplaceWith("super.getDrawable(id)", "android.content.res.Resources")
     )
     override fun getDrawable(id: Int): Drawable {
-        return injectResources.getDrawable(id)
+        return getDrawable(id, null)
     }
 
     @SuppressLint("UseCompatLoadingForDrawables")
     override fun getDrawable(id: Int, theme: Theme?): Drawable {
-        return injectResources.getDrawable(id, theme)
+        synchronized(lock) {
+            ensureCacheValid()
+            drawableCache[theme]?.get(id)?.let { return it.newDrawable(injectResources, theme) }
+        }
+        val drawable = injectResources.getDrawable(id, theme)
+        val constantState = drawable.constantState ?: return drawable
+        synchronized(lock) {
+            drawableCache.getOrPut(theme) { SparseArray() }.put(id, constantState)
+        }
+        return drawable
     }
 
     @Deprecated("Deprecated in Java")
     override fun getColor(id: Int): Int {
-        return injectResources.getColor(id)
+        synchronized(lock) {
+            ensureCacheValid()
+            val index = colorCache.indexOfKey(id)
+            if (index >= 0) {
+                return colorCache.valueAt(index)
+            }
+        }
+        val color = injectResources.getColor(id)
+        synchronized(lock) {
+            colorCache.put(id, color)
+        }
+        return color
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.mucheng.web.devops.startup
+
+import android.os.SystemClock
+import android.os.Trace
+import android.util.Log
+import com.mucheng.web.devops.util.AppCoroutine
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+
+/**
+ * 启动流程
+ *
+ * 按依赖关系并行初始化 [StartupComponent], 每个组件只初始化一次,
+ * 并在 systrace / Perfetto 中输出 "Startup:<name>" 区段, 耗时同时记录到 [getTimings]
+ * */
+object Startup {
+
+    private const val TAG = "Startup"
+
+    private val components: MutableMap<StartupComponent<*>, Deferred<Any?>> = HashMap()
+
+    private val timings: MutableMap<String, Long> = LinkedHashMap()
+
+    /**
+     * 开始初始化组件 (及其依赖), 不会阻塞当前线程
+     * */
+    fun start(vararg components: StartupComponent<*>) {
+        for (component in components) {
+            deferredOf(component)
+        }
+    }
+
+    /**
+     * 挂起等待组件初始化完成
+     * */
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T> await(component: StartupComponent<T>): T {
+        return deferredOf(component).await() as T
+    }
+
+    /**
+     * 阻塞获取组件, 组件已完成时直接返回
+     * */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Suppress("UNCHECKED_CAST")
+    fun <T> get(component: StartupComponent<T>): T {
+        val deferred = deferredOf(component)
+        if (deferred.isCompleted) {
+            return deferred.getCompleted() as T
+        }
+        return trace("Startup.block:${component.name}") {
+            runBlocking { deferred.await() as T }
+        }
+    }
+
+    @Synchronized
+    fun getTimings(): Map<String, Long> {
+        return LinkedHashMap(timings)
+    }
+
+    @Synchronized
+    private fun deferredOf(component: StartupComponent<*>): Deferred<Any?> {
+        components[component]?.let { return it }
+
+        val dependencies = component.dependencies.map { deferredOf(it) }
+        // 直接在组件的调度器上启动, 避免主线程阻塞等待时无法调度 AppCoroutine 的主线程任务
+        val deferred = AppCoroutine.async(CoroutineName("StartupCoroutine-${component.name}") + component.dispatcher) {
+            dependencies.awaitAll()
+            val start = SystemClock.uptimeMillis()
+            val result = trace("Startup:${component.name}") { component.create() }
+            record(component.name, SystemClock.uptimeMillis() - start)
+            result
+        }
+        components[component] = deferred
+        return deferred
+    }
+
+    @Synchronized
+    private fun record(name: String, cost: Long) {
+        timings[name] = cost
+        Log.i(TAG, "$name: ${cost}ms")
+    }
+
+    private inline fun <T> trace(section: String, block: () -> T): T {
+        // Trace 区段名称最长 127 个字符
+        Trace.beginSection(section.take(127))
+        try {
+            return block()
+        } finally {
+            Trace.endSection()
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.mucheng.web.devops.startup
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+
+/**
+ * 启动组件
+ *
+ * 组件只会在第一次被请求时初始化, 初始化前会先等待 [dependencies] 完成
+ * 注意: 会被 [Startup.get] 阻塞获取的组件不能运行在主线程调度器上
+ * @param name 组件名称, 同时用作 Trace 区段名称
+ * @param dependencies 依赖的组件
+ * @param dispatcher 初始化所在的调度器
+ * */
+abstract class StartupComponent<T>(
+    val name: String,
+    val dependencies: List<StartupComponent<*>> = emptyList(),
+    val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+
+    abstract fun create(): T
+
+}
@@ -0,0 +1,67 @@
+package com.mucheng.web.devops.startup
+
+import android.graphics.Typeface
+import com.mucheng.web.devops.config.GlobalConfig
+import com.mucheng.web.devops.path.CopyNativePlugins
+import com.mucheng.web.devops.support.LanguageSupport
+import com.mucheng.web.devops.util.TypefaceUtil
+import kotlinx.coroutines.Dispatchers
+
+/**
+ * 解析 GlobalConfig.xml
+ * */
+object GlobalConfigComponent : StartupComponent<GlobalConfig>("GlobalConfig") {
+
+    override fun create(): GlobalConfig {
+        return GlobalConfig.getInstance()
+    }
+
+}
+
+/**
+ * 读取深色主题配置, 在第一个 Activity 创建前需要完成
+ * */
+object DarkThemeComponent : StartupComponent<Boolean>("DarkTheme") {
+
+    override fun create(): Boolean {
+        return GlobalConfig.isDarkThemeEnabled()
+    }
+
+}
+
+/**
+ * 解码全局字体, 依赖 GlobalConfig 中的字体路径
+ * */
+object TypefaceComponent : StartupComponent<Typeface>(
+    "Typeface",
+    listOf(GlobalConfigComponent),
+    Dispatchers.Default
+) {
+
+    override fun create(): Typeface {
+        return TypefaceUtil.loadTypeface()
+    }
+
+}
+
+/**
+ * 构建本地语言表
+ * */
+object LanguageComponent : StartupComponent<LanguageSupport>("LanguageSupport", dispatcher = Dispatchers.Default) {
+
+    override fun create(): LanguageSupport {
+        return LanguageSupport
+    }
+
+}
+
+/**
+ * 复制内置插件, 内容未变化时跳过
+ * */
+object NativePluginsComponent : StartupComponent<Unit>("NativePlugins") {
+
+    override fun create() {
+        CopyNativePlugins()
+    }
+
+}
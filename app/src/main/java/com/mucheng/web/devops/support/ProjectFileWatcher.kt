@@ -0,0 +1,172 @@
+package com.mucheng.web.devops.support
+
+import android.os.FileObserver
+import com.mucheng.web.devops.openapi.util.FileUtil
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * 基于 FileObserver (inotify) 的工程文件监听
+ *
+ * 只监听最近使用的若干个目录, 超出 [maxWatchedDirs] 时按 LRU 淘汰,
+ * 短时间内的大量事件会被合并后一次性回调到主线程
+ * */
+class ProjectFileWatcher(
+    private val scope: CoroutineScope,
+    private val maxWatchedDirs: Int = 16,
+    private val onChanged: (changes: FileChanges) -> Unit
+) {
+
+    companion object {
+        private const val COALESCE_DELAY = 120L
+        private const val MAX_PENDING_EVENTS = 256
+
+        private const val MASK = FileObserver.CREATE or
+                FileObserver.DELETE or
+                FileObserver.MOVED_FROM or
+                FileObserver.MOVED_TO or
+                FileObserver.CLOSE_WRITE or
+                FileObserver.DELETE_SELF or
+                FileObserver.MOVE_SELF
+    }
+
+    /**
+     * 一次合并后的变化
+     * @param created 新增 (或移入) 的文件
+     * @param deleted 删除 (或移出) 的文件
+     * @param modified 内容被写入的文件
+     * @param overflowDirs 事件过多而需要整体重新扫描的目录
+     * */
+    data class FileChanges(
+        val created: Set<File>,
+        val deleted: Set<File>,
+        val modified: Set<File>,
+        val overflowDirs: Set<File>
+    )
+
+    private val observers = object : LinkedHashMap<String, FileObserver>(16, 0.75f, true) {
+
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, FileObserver>): Boolean {
+            if (size > maxWatchedDirs) {
+                eldest.value.stopWatching()
+                return true
+            }
+            return false
+        }
+
+    }
+
+    private val lock = Any()
+
+    private val pending: MutableMap<File, Int> = LinkedHashMap()
+
+    private val overflowDirs: MutableSet<File> = LinkedHashSet()
+
+    private var flushJob: Job? = null
+
+    /**
+     * 监听目录, 重复调用只会刷新其 LRU 顺序
+     * */
+    @Suppress("DEPRECATION")
+    fun watch(dir: File) {
+        val path = dir.absolutePath
+        synchronized(lock) {
+            if (observers[path] != null) {
+                return
+            }
+            val observer = object : FileObserver(path, MASK) {
+                override fun onEvent(event: Int, name: String?) {
+                    dispatchEvent(dir, event and FileObserver.ALL_EVENTS, name)
+                }
+            }
+            observers[path] = observer
+            observer.startWatching()
+        }
+    }
+
+    fun unwatch(dir: File) {
+        synchronized(lock) {
+            observers.remove(dir.absolutePath)?.stopWatching()
+        }
+    }
+
+    fun stopAll() {
+        synchronized(lock) {
+            for (observer in observers.values) {
+                observer.stopWatching()
+            }
+            observers.clear()
+            pending.clear()
+            overflowDirs.clear()
+            flushJob?.cancel()
+            flushJob = null
+        }
+    }
+
+    private fun dispatchEvent(dir: File, event: Int, name: String?) {
+        synchronized(lock) {
+            if (event and (FileObserver.DELETE_SELF or FileObserver.MOVE_SELF) != 0) {
+                observers.remove(dir.absolutePath)?.stopWatching()
+                pending[dir] = (pending[dir] ?: 0) or FileObserver.DELETE
+            } else if (name != null) {
+                // 原子写入时的临时文件, 最终的 rename 会产生目标文件的事件
+                if (dir in overflowDirs || FileUtil.isTempFileName(name)) {
+                    return
+                }
+                if (pending.size >= MAX_PENDING_EVENTS) {
+                    // 事件过多时不再逐条记录, 交由调用方重新扫描此目录
+                    pending.keys.removeAll { it.parentFile == dir }
+                    overflowDirs.add(dir)
+                } else {
+                    val file = File(dir, name)
+                    pending[file] = (pending[file] ?: 0) or event
+                }
+            }
+
+            if (flushJob == null) {
+                flushJob = scope.launch(CoroutineName("FileWatcherCoroutine") + Dispatchers.Default) {
+                    delay(COALESCE_DELAY)
+                    val changes = drain()
+                    withContext(Dispatchers.Main) {
+                        onChanged(changes)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun drain(): FileChanges {
+        synchronized(lock) {
+            val created = LinkedHashSet<File>()
+            val deleted = LinkedHashSet<File>()
+            val modified = LinkedHashSet<File>()
+            for ((file, event) in pending) {
+                val isCreated = event and (FileObserver.CREATE or FileObserver.MOVED_TO) != 0
+                val isDeleted = event and (FileObserver.DELETE or FileObserver.MOVED_FROM) != 0
+                // 同一批次中先删后建 (例如原子替换) 时以磁盘上的实际状态为准
+                if (isCreated && isDeleted) {
+                    if (file.exists()) created.add(file) else deleted.add(file)
+                } else if (isCreated) {
+                    created.add(file)
+                } else if (isDeleted) {
+                    deleted.add(file)
+                }
+                if (event and FileObserver.CLOSE_WRITE != 0) {
+                    modified.add(file)
+                }
+            }
+            val changes = FileChanges(created, deleted, modified, LinkedHashSet(overflowDirs))
+            pending.clear()
+            overflowDirs.clear()
+            flushJob = null
+            return changes
+        }
+    }
+
+}
@@ -7,20 +7,20 @@ import androidx.core.content.edit
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.mucheng.web.devops.BuildConfig
 import com.mucheng.web.devops.data.model.UpdatedInfo
+import com.mucheng.web.devops.network.DownloadManager
+import com.mucheng.web.devops.network.HttpClient
 import com.mucheng.web.devops.openapi.util.ContextUtil.openBrowser
 import com.mucheng.web.devops.path.OutCacheDir
 import com.mucheng.web.devops.ui.activity.MainActivity
 import com.mucheng.web.devops.util.AppCoroutine
-import com.mucheng.web.devops.util.await
 import com.mucheng.web.devops.util.installApk
-import com.mucheng.web.devops.util.request
 import es.dmoral.toasty.Toasty
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import okhttp3.ResponseBody
 import org.json.JSONObject
-import java.io.FileOutputStream
+import java.io.File
 
 object Updater {
 
@@ -29,8 +29,7 @@ object Updater {
     fun updateIfNeeded(activity: MainActivity) {
         AppCoroutine.launch(Dispatchers.IO) {
             runCatching {
-                val body = request(UPDATER_URL).await()
-                val data = body.string()
+                val data = HttpClient.Default.fetchString(UPDATER_URL)
                 val updateData = parseData(data)
                 if (updateData.versionCode <= BuildConfig.VERSION_CODE) {
                     return@launch
@@ -76,42 +75,32 @@ object Updater {
                 button3.setOnClickListener(null)
                 button3.text = ""
                 AppCoroutine.launch(Dispatchers.IO) {
-                    val url = updateData.updatedUrl
-                    val body: ResponseBody
+                    val file =
+                        File("$OutCacheDir/WebDev_${updateData.version}_code${updateData.versionCode}.apk")
                     try {
-                        body = request(url).await()
+                        DownloadManager.Default.download(updateData.updatedUrl, file) { current, total ->
+                            if (total > 0L) {
+                                withContext(Dispatchers.Main) {
+                                    button2.text = "${current * 100 / total}%"
+                                }
+                            }
+                        }
                     } catch (e: Throwable) {
+                        if (e is CancellationException) {
+                            throw e
+                        }
+                        // 已下载的部分会保留, 重试时继续下载
                         withContext(Dispatchers.Main) {
                             Toasty.error(
                                 activity,
                                 "更新时发生错误: $e, 若多次尝试错误, 请选择浏览器更新"
-                            )
+                            ).show()
+                            button2.text = "更新"
+                            button2.setOnClickListener { block?.invoke() }
                         }
-                        button2.setOnClickListener { block?.invoke() }
                         return@launch
                     }
-                    val total: Long = body.contentLength()
-                    var currentBytes = 0f
-                    val inputStream = body.byteStream().buffered()
-                    val filePath =
-                        "$OutCacheDir/WebDev_${updateData.version}_code${updateData.versionCode}.apk"
-                    val outputStream =
-                        FileOutputStream(filePath).buffered()
-                    val buffer = ByteArray(4096)
-                    var len: Int
-                    outputStream.use {
-                        inputStream.use {
-                            while (inputStream.read(buffer).also { len = it } != -1) {
-                                outputStream.write(buffer, 0, len)
-                                outputStream.flush()
-                                currentBytes += len
-                                withContext(Dispatchers.Main) {
-                                    val progress = (currentBytes / total * 100).toInt()
-                                    button2.text = "${progress}%"
-                                }
-                            }
-                        }
-                    }
+                    val filePath = file.absolutePath
                     withContext(Dispatchers.Main) {
                         activity.installApk(filePath)
                         button2.text = "安装"
@@ -131,7 +120,7 @@ object Updater {
         val versionCode = obj.getInt("versionCode")
         val descriptionUrl = obj.getString("descriptionUrl")
         val updatedUrl = obj.getString("updatedUrl")
-        val description = request(descriptionUrl).await().string()
+        val description = HttpClient.Default.fetchString(descriptionUrl)
         return UpdatedInfo(version, versionCode, description, updatedUrl)
     }
 
@@ -8,10 +8,13 @@ import androidx.activity.viewModels
 import androidx.lifecycle.lifecycleScope
 import com.bumptech.glide.Glide
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.mucheng.web.devops.R
 import com.mucheng.web.devops.base.BaseActivity
 import com.mucheng.web.devops.data.model.DisplayPluginItem
 import com.mucheng.web.devops.databinding.ActivityDisplayPluginBinding
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.manager.PluginProfiler
+import com.mucheng.web.devops.network.DownloadManager
 import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.web.devops.path.PluginDir
@@ -20,16 +23,14 @@ import com.mucheng.web.devops.tryeval.catchAllWithUnit
 import com.mucheng.web.devops.tryeval.tryEval
 import com.mucheng.web.devops.ui.viewmodel.DisplayPluginViewModel
 import com.mucheng.web.devops.ui.viewstate.DisplayPluginState
-import com.mucheng.web.devops.util.await
-import com.mucheng.web.devops.util.request
 import es.dmoral.toasty.Toasty
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.File
-import java.nio.ByteBuffer
-import java.nio.channels.Channels
+import java.io.IOException
 
 class DisplayPluginActivity : BaseActivity() {
 
@@ -89,7 +90,9 @@ class DisplayPluginActivity : BaseActivity() {
     private fun initViewByDisplayPluginItem(item: DisplayPluginItem) {
         val root = viewBinding.includedDisplayPluginLayout
         Glide.with(this)
-            .load(item.icon)
+            .load(item.iconUrl)
+            .placeholder(R.drawable.ic_cube_three)
+            .error(R.drawable.ic_cube_three)
             .into(root.icon)
 
         root.title.text = item.title
@@ -161,62 +164,47 @@ class DisplayPluginActivity : BaseActivity() {
     }
 
     private fun showUpdateDialog(item: DisplayPluginItem) {
-        var isActive = true
         val loadingDialog = LoadingComponent(this)
+        var job: Job? = null
         loadingDialog.setContent("准备更新插件....")
+        // 取消后保留已下载的部分, 下次继续下载
         loadingDialog.setPositiveButton("取消") { _, _ ->
-            isActive = false
+            job?.cancel()
         }
         loadingDialog.show()
 
         val plugin = item.samePlugin!!
-        val installedPath = plugin.installedPath
+        val installedFile = File(plugin.installedPath)
+        // 新版本下载并校验完成前, 旧版本保持可用
+        val downloadFile = File(PluginDir, "${item.id}.update")
 
-        mainScope.launch(CoroutineName("UpdatePluginCoroutine") + Dispatchers.IO) {
-            plugin.pluginMain.onUpdate(this@DisplayPluginActivity)
-            PluginManager.removePlugin(plugin)
-
-            val downloadUrl = item.downloadUrl
+        job = mainScope.launch(CoroutineName("UpdatePluginCoroutine") + Dispatchers.IO) {
             tryEval {
-                val body = request(downloadUrl).await()
-                val inputStream = body.byteStream().buffered()
-                val outputStream = File(installedPath).outputStream()
-                val inputChannel = Channels.newChannel(inputStream)
-                val outputChannel = outputStream.channel
-                val total = body.contentLength()
-                var currentBytes = 0f
-                val buffer = ByteBuffer.allocate(4096)
-                var len: Int
-                inputStream.use {
-                    outputStream.use {
-                        inputChannel.use {
-                            outputChannel.use {
-                                while (inputChannel.read(buffer).also { len = it } != -1) {
-                                    if (!isActive) {
-                                        FileUtil.deleteFile(File(installedPath))
-                                        return@launch
-                                    }
-                                    withContext(Dispatchers.Main) {
-                                        val progress = (currentBytes / total * 100).toInt()
-                                        loadingDialog.setContent("正在更新插件.... (${progress}%)")
-                                    }
-                                    buffer.flip()
-                                    outputChannel.write(buffer)
-                                    buffer.clear()
-                                    currentBytes += len
-                                }
-                            }
-                        }
+                DownloadManager.Default.download(
+                    item.downloadUrl,
+                    downloadFile,
+                    expectedSha256 = item.sha256
+                ) { current, total ->
+                    withContext(Dispatchers.Main) {
+                        loadingDialog.setContent("正在更新插件.... (${formatProgress(current, total)})")
                     }
                 }
-                PluginManager.loadExternalPlugin(File(installedPath))
+
+                PluginProfiler.measure(plugin.packageName, "onUpdate") {
+                    plugin.pluginMain.onUpdate(this@DisplayPluginActivity)
+                }
+                PluginManager.removePlugin(plugin)
+                if (!downloadFile.renameTo(installedFile)) {
+                    throw IOException("Cannot rename ${downloadFile.absolutePath} to ${installedFile.absolutePath}")
+                }
+                PluginManager.loadExternalPlugin(installedFile)
                 withContext(Dispatchers.Main) {
                     loadingDialog.dismiss()
                     Toasty.success(this@DisplayPluginActivity, "更新成功").show()
                     displayPluginViewModel.fetchDisplayPluginItem(displayPluginViewModel.getUrl()!!)
                 }
             } catchAllWithUnit {
-                FileUtil.deleteFile(File(installedPath))
+                downloadFile.delete()
                 withContext(Dispatchers.Main) {
                     loadingDialog.dismiss()
                     Toasty.error(this@DisplayPluginActivity, "更新失败: ${it.message}").show()
@@ -227,58 +215,39 @@ class DisplayPluginActivity : BaseActivity() {
     }
 
     private fun showDownloadDialog(item: DisplayPluginItem) {
-        var isActive = true
         val loadingDialog = LoadingComponent(this)
+        var job: Job? = null
         loadingDialog.setContent("准备下载插件....")
+        // 取消后保留已下载的部分, 下次继续下载
         loadingDialog.setPositiveButton("取消") { _, _ ->
-            isActive = false
+            job?.cancel()
         }
         loadingDialog.show()
 
-        val installedPath = "$PluginDir/${item.id}.apk"
-        mainScope.launch(CoroutineName("DownloadPluginCoroutine") + Dispatchers.IO) {
-            val downloadUrl = item.downloadUrl
+        val installedFile = File(PluginDir, "${item.id}.apk")
+        job = mainScope.launch(CoroutineName("DownloadPluginCoroutine") + Dispatchers.IO) {
             tryEval {
-                val body = request(downloadUrl).await()
-                val inputStream = body.byteStream()
-                val outputStream = File(installedPath).outputStream()
-                val inputChannel = Channels.newChannel(inputStream)
-                val outputChannel = outputStream.channel
-                val total: Long = body.contentLength()
-                var currentBytes = 0f
-                val buffer = ByteBuffer.allocate(4096)
-                var len: Int
-                inputStream.use {
-                    outputStream.use {
-                        inputChannel.use {
-                            outputChannel.use {
-                                while (inputChannel.read(buffer).also { len = it } != -1) {
-                                    if (!isActive) {
-                                        FileUtil.deleteFile(File(installedPath))
-                                        return@launch
-                                    }
-                                    withContext(Dispatchers.Main) {
-                                        val progress = (currentBytes / total * 100).toInt()
-                                        loadingDialog.setContent("正在下载插件.... (${progress}%)")
-                                    }
-                                    buffer.flip()
-                                    outputChannel.write(buffer)
-                                    buffer.clear()
-                                    currentBytes += len
-                                }
-                            }
-                        }
+                DownloadManager.Default.download(
+                    item.downloadUrl,
+                    installedFile,
+                    expectedSha256 = item.sha256
+                ) { current, total ->
+                    withContext(Dispatchers.Main) {
+                        loadingDialog.setContent("正在下载插件.... (${formatProgress(current, total)})")
                     }
                 }
-                val loadedPlugin = PluginManager.loadExternalPlugin(File(installedPath))
-                loadedPlugin.pluginMain.onInstall(this@DisplayPluginActivity)
+
+                val loadedPlugin = PluginManager.loadExternalPlugin(installedFile)
+                PluginProfiler.measure(loadedPlugin.packageName, "onInstall") {
+                    loadedPlugin.pluginMain.onInstall(this@DisplayPluginActivity)
+                }
                 withContext(Dispatchers.Main) {
                     loadingDialog.dismiss()
                     Toasty.success(this@DisplayPluginActivity, "下载成功").show()
                     displayPluginViewModel.fetchDisplayPluginItem(displayPluginViewModel.getUrl()!!)
                 }
             } catchAllWithUnit {
-                FileUtil.deleteFile(File(installedPath))
+                FileUtil.deleteFile(installedFile)
                 withContext(Dispatchers.Main) {
                     loadingDialog.dismiss()
                     Toasty.error(this@DisplayPluginActivity, "下载失败: ${it.message}").show()
@@ -288,6 +257,13 @@ class DisplayPluginActivity : BaseActivity() {
         }
     }
 
+    private fun formatProgress(current: Long, total: Long): String {
+        if (total <= 0L) {
+            return FileUtil.formatBytes(current)
+        }
+        return "${current * 100 / total}%"
+    }
+
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         when (item.itemId) {
             android.R.id.home -> {
@@ -11,7 +11,6 @@ import android.view.MenuItem
 import android.view.View
 import androidx.activity.viewModels
 import androidx.appcompat.widget.PopupMenu
-import androidx.core.content.ContextCompat
 import androidx.core.view.GravityCompat
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
@@ -19,16 +18,20 @@ import com.google.android.material.tabs.TabLayout
 import com.google.android.material.tabs.TabLayout.OnTabSelectedListener
 import com.mucheng.web.devops.R
 import com.mucheng.web.devops.base.BaseActivity
+import com.mucheng.web.devops.config.ConfigKeyEnum
 import com.mucheng.web.devops.config.CursorAnimationType.*
 import com.mucheng.web.devops.config.GlobalConfig
 import com.mucheng.web.devops.data.model.FileItem
 import com.mucheng.web.devops.databinding.ActivityEditorBinding
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.manager.PluginProfiler
 import com.mucheng.web.devops.openapi.editor.colorScheme.AtomOneDarkColorScheme
 import com.mucheng.web.devops.openapi.editor.colorScheme.QuietLightColorScheme
 import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.web.devops.path.ProjectDir
+import com.mucheng.web.devops.plugin.FileItemIcons
+import com.mucheng.web.devops.support.ProjectFileWatcher
 import com.mucheng.web.devops.ui.adapter.FileSelectorAdapter
 import com.mucheng.web.devops.ui.view.ComposableDialog
 import com.mucheng.web.devops.ui.viewmodel.EditorViewModel
@@ -38,6 +41,7 @@ import com.mucheng.web.devops.util.getFile
 import com.mucheng.webops.plugin.data.ObservableValue
 import com.mucheng.webops.plugin.data.Workspace
 import com.mucheng.webops.plugin.data.info.ComponentInfo
+import com.mucheng.webops.plugin.event.FileSaveBus
 import es.dmoral.toasty.Toasty
 import io.github.rosemoe.sora.event.ContentChangeEvent
 import io.github.rosemoe.sora.text.ContentCreator
@@ -52,7 +56,10 @@ import io.github.rosemoe.sora.widget.subscribeEvent
 import kotlinx.coroutines.*
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 
 class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback {
 
@@ -61,6 +68,9 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
         private const val CLOSE_OTHER = "关闭其它"
         private const val RENAME = "重命名"
         private const val DELETE = "删除"
+
+        // 与 GlobalConfig 的保存延迟一致, 连续输入时只在停顿后写入一次
+        private const val AUTO_SAVE_DELAY = 300L
     }
 
     private lateinit var viewBinding: ActivityEditorBinding
@@ -81,6 +91,44 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
 
     private val progressStateFlow = MutableStateFlow(0)
 
+    private val fileWatcher by lazy {
+        ProjectFileWatcher(mainScope) { onProjectFilesChanged(it) }
+    }
+
+    // 记录自身保存后的文件状态, 用于区分外部修改
+    private val savedFileStamps: MutableMap<String, Long> = ConcurrentHashMap()
+
+    private val saveCoroutineLock = Mutex()
+
+    // 等待保存的最新内容, 同一文件只保留一份
+    private val pendingSaveContents: MutableMap<String, String> = ConcurrentHashMap()
+
+    // 正在保存的文件, 期间的监听事件来自自身的写入
+    private val savingFiles: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    // 等待自动保存的文件, 内容仍在编辑器中
+    private var autoSaveFile: File? = null
+
+    private var autoSaveJob: Job? = null
+
+    private var isReloadDialogShowing = false
+
+    private val fileItemIcons by lazy {
+        FileItemIcons(this, editorViewModel.plugin!!.pluginMain)
+    }
+
+    private val fileItemComparator = Comparator<FileItem> { o1, o2 ->
+        if (o1.name == ".WebDevOps" && o1.file.isDirectory) {
+            -1
+        } else if (o1.file.isFile && o2.file.isDirectory) {
+            1
+        } else if (o1.file.isDirectory && o2.file.isFile) {
+            -1
+        } else {
+            0
+        }
+    }
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         viewBinding = ActivityEditorBinding.inflate(layoutInflater)
@@ -102,6 +150,8 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
         recyclerView.adapter = fileSelectorAdapter
 
         editorViewModel.plugin = PluginManager.findPluginByProjectId(workspace.getProjectId()) ?: return finish()
+        // 工程打开期间插件不会因内存不足被释放
+        editorViewModel.plugin!!.acquire()
         editorViewModel.setCurrentDir(File(workspace.getOpenFile()).parentFile!!)
         viewBinding.swipeRefreshLayout.setOnRefreshListener {
             val currentDir = editorViewModel.getCurrentDir()
@@ -167,13 +217,11 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
                                 }
                                 try {
                                     File(currentDir, title).createNewFile()
-                                    refresh(currentDir)
                                 } catch (e: Throwable) {
                                     Toasty.error(this, "创建文件失败: ${e.message}").show()
                                 }
                             } else {
                                 File("$currentDir/$title").mkdirs()
-                                refresh(currentDir)
                             }
 
                             true
@@ -282,26 +330,20 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
             colorScheme = if (GlobalConfig.isDarkThemeEnabled()) AtomOneDarkColorScheme() else QuietLightColorScheme()
 
             getComponent<Magnifier>().isEnabled = true
-            getComponent<EditorAutoCompletion>().isEnabled = globalConfig.isAutoCompletionEnabled()
-
-            if (!globalConfig.isOperatorPanelEnabled()) {
-                viewBinding.symbolTableContainer.visibility = View.GONE
-            }
-            isCursorAnimationEnabled = globalConfig.isCursorAnimationEnabled()
-            isLineNumberEnabled = globalConfig.isLineNumberEnabled()
-            setPinLineNumber(globalConfig.isStickyLineNumberEnabled())
-
-            cursorAnimator = when (globalConfig.getCursorAnimationType()) {
-                TranslationAnimation -> MoveCursorAnimator(this)
-                ScaleAnimation -> ScaleCursorAnimator(this)
-                FadeAnimation -> FadeCursorAnimator(this)
+        }
+        for (key in ConfigKeyEnum.values()) {
+            applyEditorConfig(key)
+        }
+        // 配置变化时只更新对应的编辑器选项, 值取自内存
+        mainScope.launch(CoroutineName("GlobalConfigObserverCoroutine")) {
+            GlobalConfig.changes.collect { change ->
+                change.key?.let { applyEditorConfig(it) }
             }
-
-            isWordwrap = globalConfig.isWordWrapEnabled()
         }
 
-        editorViewModel.plugin!!.pluginMain.apply {
-            onOpenProject(
+        val plugin = editorViewModel.plugin!!
+        PluginProfiler.measure(plugin.packageName, "onOpenProject") {
+            plugin.pluginMain.onOpenProject(
                 this@EditorActivity,
                 workspace,
                 editor,
@@ -319,41 +361,86 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
         }
 
         editor.subscribeEvent<ContentChangeEvent> { _, _ ->
-            AppCoroutine.launch(CoroutineName("SaveFileCoroutine") + Dispatchers.IO) {
-                val currentFile = editorViewModel.getCurrentFile() ?: return@launch
-                try {
-                    val bufferedWriter = currentFile.bufferedWriter()
-                    bufferedWriter.use {
-                        val content = editor.text
-                        val lineCount = content.lineCount
-                        var workLine = 0
-                        while (workLine <= lineCount) {
-                            val contentLine = content.getLine(workLine)
-                            bufferedWriter.write(contentLine.toString())
-                            bufferedWriter.flush()
-                            if (workLine + 1 < lineCount) {
-                                bufferedWriter.write(contentLine.lineSeparator.content)
-                                bufferedWriter.flush()
-                            }
-                            ++workLine
-                        }
-                    }
-                } catch (e: Throwable) {
-                    if (e is CancellationException) {
-                        throw e
-                    }
+            val currentFile = editorViewModel.getCurrentFile() ?: return@subscribeEvent
+            // 切换文件前 openFile 已经保存了之前的文件
+            autoSaveFile = currentFile
+            autoSaveJob?.cancel()
+            autoSaveJob = mainScope.launch(CoroutineName("AutoSaveCoroutine")) {
+                delay(AUTO_SAVE_DELAY)
+                flushAutoSave()
+            }
+        }
+
+    }
+
+    /**
+     * 立即保存等待自动保存的文件, 必须在编辑器切换到其它文件之前调用
+     * */
+    private fun flushAutoSave() {
+        val file = autoSaveFile ?: return
+        autoSaveFile = null
+        autoSaveJob?.cancel()
+        autoSaveJob = null
+        // 在主线程中取得内容, 避免切换文件后把其它文件的内容写入
+        pendingSaveContents[file.absolutePath] = viewBinding.editor.text.toString()
+        AppCoroutine.launch(CoroutineName("SaveFileCoroutine") + Dispatchers.IO) {
+            saveFile(file)
+        }
+    }
+
+    /**
+     * 丢弃尚未开始的自动保存, 重新加载文件时调用
+     * */
+    private fun discardAutoSave() {
+        autoSaveFile = null
+        autoSaveJob?.cancel()
+        autoSaveJob = null
+    }
+
+    /**
+     * 依次保存文件, 连续输入时只写入最新的内容
+     * 保存期间忽略该文件的监听事件, 保存完成后记录文件状态
+     * */
+    private suspend fun saveFile(file: File) {
+        val path = file.absolutePath
+        val isSaved = saveCoroutineLock.withLock {
+            val content = pendingSaveContents.remove(path) ?: return
+            savingFiles.add(path)
+            try {
+                FileUtil.writeAtomically(file) {
+                    it.write(content.toByteArray())
                 }
+                savedFileStamps[path] = fileStampOf(file)
+                true
+            } catch (e: IOException) {
+                e.printStackTrace()
+                false
+            } finally {
+                savingFiles.remove(path)
             }
         }
+        // 文件已替换完成后再通知订阅者; 还有更新的内容等待保存时由下一次保存通知, 避免预览刷新到中间状态
+        if (isSaved && !pendingSaveContents.containsKey(path)) {
+            FileSaveBus.publish(file)
+        }
+    }
 
+    override fun onStop() {
+        // 进入后台后进程可能被杀死, 不再等待延迟
+        flushAutoSave()
+        super.onStop()
     }
 
     override fun onDestroy() {
+        flushAutoSave()
         val workspace = editorViewModel.workspace!!
         val editor = viewBinding.editor
-        editorViewModel.plugin!!.pluginMain.apply {
-            onCloseProject(this@EditorActivity, workspace, editor)
+        val plugin = editorViewModel.plugin!!
+        PluginProfiler.measure(plugin.packageName, "onCloseProject") {
+            plugin.pluginMain.onCloseProject(this@EditorActivity, workspace, editor)
         }
+        plugin.release()
+        fileWatcher.stopAll()
         editor.release()
         super.onDestroy()
     }
@@ -472,8 +559,9 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
 
     override fun onStart() {
         super.onStart()
+        // 之后的变化由 fileWatcher 增量同步, 这里只需要首次加载
         val currentDir = editorViewModel.getCurrentDir()
-        if (currentDir != null) {
+        if (currentDir != null && editorViewModel.list.isEmpty()) {
             refresh(currentDir)
         }
     }
@@ -489,6 +577,7 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
             try {
                 viewBinding.swipeRefreshLayout.isRefreshing = true
                 viewBinding.fileRecyclerView.isEnabled = false
+                fileWatcher.watch(currentDir)
                 refreshFiles(currentDir)
                 viewBinding.drawerTitle.text =
                     currentDir.absolutePath.replaceFirst("$ProjectDir/", "")
@@ -505,17 +594,7 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
         return withContext(Dispatchers.IO) {
             val fileItems = (currentDir.listFiles() ?: emptyArray()).toMutableList().map {
                 FileItem(it.name, it, getFileItemIcon(it))
-            }.sortedWith { o1, o2 ->
-                if (o1.name == ".WebDevOps" && o1.file.isDirectory) {
-                    -1
-                } else if (o1.file.isFile && o2.file.isDirectory) {
-                    1
-                } else if (o1.file.isDirectory && o2.file.isFile) {
-                    -1
-                } else {
-                    0
-                }
-            }
+            }.sortedWith(fileItemComparator)
 
             editorViewModel.list.clear()
             editorViewModel.list.addAll(fileItems)
@@ -525,16 +604,121 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
         }
     }
 
-    private fun getFileItemIcon(file: File): Drawable {
-        val fileDrawable = ContextCompat.getDrawable(this, R.drawable.ic_file)!!
-        val folderDrawable = ContextCompat.getDrawable(this, R.drawable.ic_folder)!!
-        val plugin = editorViewModel.plugin!!
-        val pluginMain = plugin.pluginMain
-        return pluginMain.getFileItemIcon(file) ?: if (file.isFile) {
-            fileDrawable
+    private fun onProjectFilesChanged(changes: ProjectFileWatcher.FileChanges) {
+        val currentDir = editorViewModel.getCurrentDir() ?: return
+        if (currentDir in changes.deleted) {
+            // 当前目录被外部删除, 回到工程根目录
+            val rootDir = File("$ProjectDir/${editorViewModel.workspace?.getName()}")
+            editorViewModel.setCurrentDir(rootDir)
+            refresh(rootDir)
+            return
+        }
+
+        if (currentDir in changes.overflowDirs) {
+            refresh(currentDir)
         } else {
-            folderDrawable
+            val list = editorViewModel.list
+            for (file in changes.deleted) {
+                if (file.parentFile != currentDir) continue
+                val position = list.indexOfFirst { it.file.absolutePath == file.absolutePath }
+                if (position != -1) {
+                    list.removeAt(position)
+                    fileSelectorAdapter.notifyItemRemoved(position)
+                }
+            }
+            for (file in changes.created) {
+                if (file.parentFile != currentDir || !file.exists()) continue
+                if (list.any { it.file.absolutePath == file.absolutePath }) continue
+                val fileItem = FileItem(file.name, file, getFileItemIcon(file))
+                var position = list.indexOfFirst { fileItemComparator.compare(fileItem, it) < 0 }
+                if (position == -1) {
+                    position = list.size
+                }
+                list.add(position, fileItem)
+                fileSelectorAdapter.notifyItemInserted(position)
+            }
+        }
+
+        // 被外部程序 (例如 PHP 上传或 git pull) 修改的已打开文件
+        val currentFile = editorViewModel.getCurrentFile() ?: return
+        if (currentFile !in changes.modified && currentFile !in changes.created) {
+            return
         }
+        val path = currentFile.absolutePath
+        if (path in savingFiles || pendingSaveContents.containsKey(path) || autoSaveFile == currentFile) {
+            return
+        }
+        val savedStamp = savedFileStamps[path]
+        if (!currentFile.isFile || savedStamp == fileStampOf(currentFile) || isReloadDialogShowing) {
+            return
+        }
+        isReloadDialogShowing = true
+        MaterialAlertDialogBuilder(this)
+            .setTitle("文件已被修改")
+            .setMessage("文件 ${currentFile.name} 已在外部被修改, 是否重新加载? 重新加载将丢弃编辑器中的内容")
+            .setPositiveButton("重新加载") { _, _ ->
+                discardAutoSave()
+                openFile(currentFile) {
+                    Toasty.info(this, "已重新加载").show()
+                }
+            }
+            .setNegativeButton("保留编辑器中的内容") { _, _ ->
+                // 下次保存时覆盖外部的修改
+                savedFileStamps[path] = fileStampOf(currentFile)
+            }
+            .setOnDismissListener {
+                isReloadDialogShowing = false
+            }
+            .show()
+    }
+
+    private fun applyEditorConfig(key: ConfigKeyEnum) {
+        val globalConfig = GlobalConfig.getInstance()
+        val editor = viewBinding.editor
+        when (key) {
+            ConfigKeyEnum.AutoCompletionEnabled -> {
+                editor.getComponent<EditorAutoCompletion>().isEnabled = globalConfig.isAutoCompletionEnabled()
+            }
+
+            ConfigKeyEnum.OperatorPanelEnabled -> {
+                viewBinding.symbolTableContainer.visibility =
+                    if (globalConfig.isOperatorPanelEnabled()) View.VISIBLE else View.GONE
+            }
+
+            ConfigKeyEnum.CursorAnimationEnabled -> {
+                editor.isCursorAnimationEnabled = globalConfig.isCursorAnimationEnabled()
+            }
+
+            ConfigKeyEnum.LineNumberEnabled -> {
+                editor.isLineNumberEnabled = globalConfig.isLineNumberEnabled()
+            }
+
+            ConfigKeyEnum.StickyLineNumber -> {
+                editor.setPinLineNumber(globalConfig.isStickyLineNumberEnabled())
+            }
+
+            ConfigKeyEnum.CursorAnimationType -> {
+                editor.cursorAnimator = when (globalConfig.getCursorAnimationType()) {
+                    TranslationAnimation -> MoveCursorAnimator(editor)
+                    ScaleAnimation -> ScaleCursorAnimator(editor)
+                    FadeAnimation -> FadeCursorAnimator(editor)
+                }
+            }
+
+            ConfigKeyEnum.WordWrapEnabled -> {
+                editor.isWordwrap = globalConfig.isWordWrapEnabled()
+            }
+
+            else -> {}
+        }
+    }
+
+    private fun fileStampOf(file: File): Long {
+        return file.lastModified() * 31 + file.length()
+    }
+
+    private fun getFileItemIcon(file: File): Drawable {
+        return fileItemIcons.getIcon(file)
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
@@ -610,6 +794,8 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
     }
 
     private fun openFile(file: File, callback: () -> Unit = {}) {
+        // 编辑器中仍是之前文件的内容
+        flushAutoSave()
         val editor = viewBinding.editor
         val loadingComponent = LoadingComponent(this)
         loadingComponent.setContent("正在打开文件....")
@@ -619,15 +805,18 @@ class EditorActivity : BaseActivity(), FileSelectorAdapter.FileSelectorCallback
             openFileCoroutineLock.lock()
             try {
                 editorViewModel.setCurrentFile(file)
+                fileWatcher.watch(file.parentFile!!)
+                savedFileStamps[file.absolutePath] = fileStampOf(file)
                 val content = ContentCreator.fromReader(file.reader())
                 withContext(Dispatchers.Main) {
                     editor.setText(content)
                     loadingComponent.dismiss()
                     callback()
                     viewBinding.tabLayout.visibility = View.VISIBLE
-                    editorViewModel.plugin!!.pluginMain.onOpenFile(
-                        this@EditorActivity, file, editor
-                    )
+                    val plugin = editorViewModel.plugin!!
+                    PluginProfiler.measure(plugin.packageName, "onOpenFile") {
+                        plugin.pluginMain.onOpenFile(this@EditorActivity, file, editor)
+                    }
                 }
             } finally {
                 openFileCoroutineLock.unlock()
@@ -6,6 +6,7 @@ import android.view.MenuItem
 import androidx.activity.viewModels
 import com.mucheng.web.devops.base.BaseActivity
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.manager.PluginProfiler
 import com.mucheng.web.devops.ui.viewmodel.ExecuteViewModel
 import com.mucheng.webops.plugin.data.Workspace
 import java.io.File
@@ -24,9 +25,12 @@ class ExecuteActivity : BaseActivity() {
         executeViewModel.setWorkspace(workspace)
 
         val plugin = PluginManager.findPluginByProjectId(projectId) ?: return finish()
+        plugin.acquire()
         executeViewModel.setPlugin(plugin)
 
-        val pluginActivity = plugin.pluginMain.onCreateExecuteActivity()
+        val pluginActivity = PluginProfiler.measure(plugin.packageName, "onCreateExecuteActivity") {
+            plugin.pluginMain.onCreateExecuteActivity()
+        }
         executeViewModel.setPluginActivity(pluginActivity)
 
         pluginActivity.onInit(this, mainScope, workspace)
@@ -61,6 +65,7 @@ class ExecuteActivity : BaseActivity() {
     override fun onDestroy() {
         super.onDestroy()
         executeViewModel.getPluginActivity()?.onDestroy()
+        executeViewModel.getPlugin()?.release()
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
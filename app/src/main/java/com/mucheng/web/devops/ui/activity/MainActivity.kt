@@ -16,8 +16,9 @@ import com.mucheng.web.devops.dialog.PrivacyPolicyDialog
 import com.mucheng.web.devops.manager.PluginManager
 import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.openapi.view.LoadingComponent
-import com.mucheng.web.devops.path.CopyNativePlugins
 import com.mucheng.web.devops.path.CreateCoreFiles
+import com.mucheng.web.devops.startup.NativePluginsComponent
+import com.mucheng.web.devops.startup.Startup
 import com.mucheng.web.devops.support.LanguageKeys
 import com.mucheng.web.devops.support.Updater
 import com.mucheng.web.devops.ui.fragment.MainCommonPageFragment
@@ -45,7 +46,6 @@ class MainActivity : BaseActivity() {
         viewBinding = ActivityMainBinding.inflate(layoutInflater)
         setContentView(viewBinding.root)
         CreateCoreFiles()
-        CopyNativePlugins()
 
         val toolbar = viewBinding.toolbar
         setSupportActionBar(toolbar)
@@ -87,20 +87,24 @@ class MainActivity : BaseActivity() {
 
 
     private fun loadPlugins() {
-        PluginManager.loadPlugins { e, file ->
-            MaterialAlertDialogBuilder(this@MainActivity)
-                .setTitle("此插件无法加载")
-                .setMessage(buildString {
-                    append("在路径: ${file.absolutePath}").appendLine()
-                    append("异常: ${e.stackTraceToString()}")
-                })
-                .setNeutralButton("删除") { _, _ ->
-                    FileUtil.deleteFile(file)
-                }
-                .setPositiveButton("确定", null)
-                .setCancelable(false)
-                .show()
-            e.printStackTrace()
+        mainScope.launch {
+            // 内置插件在启动时已开始复制, 加载插件前需等待完成
+            Startup.await(NativePluginsComponent)
+            PluginManager.loadPlugins { e, file ->
+                MaterialAlertDialogBuilder(this@MainActivity)
+                    .setTitle("此插件无法加载")
+                    .setMessage(buildString {
+                        append("在路径: ${file.absolutePath}").appendLine()
+                        append("异常: ${e.stackTraceToString()}")
+                    })
+                    .setNeutralButton("删除") { _, _ ->
+                        FileUtil.deleteFile(file)
+                    }
+                    .setPositiveButton("确定", null)
+                    .setCancelable(false)
+                    .show()
+                e.printStackTrace()
+            }
         }
     }
 
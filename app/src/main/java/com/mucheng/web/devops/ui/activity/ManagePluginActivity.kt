@@ -8,26 +8,31 @@ import android.view.MenuItem
 import android.view.View
 import androidx.appcompat.widget.PopupMenu
 import androidx.core.view.GravityCompat
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.mucheng.web.devops.R
 import com.mucheng.web.devops.base.BaseActivity
 import com.mucheng.web.devops.databinding.ActivityManagePluginBinding
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.manager.PluginManifestCache
+import com.mucheng.web.devops.manager.PluginProfiler
 import com.mucheng.web.devops.openapi.util.FileUtil
 import com.mucheng.web.devops.openapi.view.LoadingComponent
+import com.mucheng.web.devops.path.OutCacheDir
 import com.mucheng.web.devops.path.PluginDir
 import com.mucheng.web.devops.plugin.Plugin
+import com.mucheng.web.devops.plugin.PluginManifest
 import com.mucheng.web.devops.tryeval.catchAllWithUnit
 import com.mucheng.web.devops.tryeval.tryEval
 import com.mucheng.web.devops.ui.adapter.ManagePluginAdapter
 import es.dmoral.toasty.Toasty
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.File
-import java.nio.ByteBuffer
 
 class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCallback {
 
@@ -58,11 +63,15 @@ class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCal
         }
 
         plugins.clear()
-        plugins.addAll(PluginManager.getPlugins())
 
         val recyclerView = viewBinding.recyclerView
         recyclerView.layoutManager = LinearLayoutManager(this, LinearLayoutManager.VERTICAL, false)
         recyclerView.adapter = managePluginAdapter
+
+        mainScope.launch {
+            plugins.addAll(PluginManager.awaitPlugins())
+            managePluginAdapter.notifyItemRangeInserted(0, plugins.size)
+        }
     }
 
     override fun onCreateOptionsMenu(menu: Menu?): Boolean {
@@ -85,6 +94,11 @@ class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCal
                 return true
             }
 
+            R.id.plugin_diagnostics -> {
+                showDiagnosticsDialog()
+                return true
+            }
+
         }
         return super.onOptionsItemSelected(item)
     }
@@ -111,86 +125,80 @@ class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCal
                 return
             }
 
-            val packageName = PluginManager.getApkPackageName(file)
-            if (packageName != null) {
-                if (PluginManager.findPluginByPackageName(packageName) != null) {
-                    MaterialAlertDialogBuilder(this)
+            // 解析 APK 较慢, 不能阻塞主线程
+            lifecycleScope.launch(CoroutineName("ResolvePluginManifestCoroutine")) {
+                val manifest = withContext(Dispatchers.IO) {
+                    PluginManager.readApkManifest(file)
+                }
+                if (manifest == null) {
+                    Toasty.error(this@ManagePluginActivity, "加载插件失败: 无法解析插件").show()
+                    return@launch
+                }
+
+                if (PluginManager.findPluginByPackageName(manifest.packageName) != null) {
+                    MaterialAlertDialogBuilder(this@ManagePluginActivity)
                         .setTitle("覆盖插件")
                         .setMessage("已加载的插件中含有此插件, 是否覆盖?")
                         .setNeutralButton("取消", null)
                         .setPositiveButton("确定") { _, _ ->
-                            loadCopyLocalPlugin(file, packageName)
+                            loadCopyLocalPlugin(file, manifest)
                         }.show()
                 } else {
-                    loadCopyLocalPlugin(file, packageName)
+                    loadCopyLocalPlugin(file, manifest)
                 }
-            } else {
-                Toasty.error(this@ManagePluginActivity, "加载插件失败: 无法解析插件").show()
             }
         }
     }
 
-    private fun loadCopyLocalPlugin(file: File, packageName: String) {
-        var isActive = true
+    private fun loadCopyLocalPlugin(file: File, manifest: PluginManifest) {
+        val packageName = manifest.packageName
+        var job: Job? = null
         val loadingComponent = LoadingComponent(this)
         loadingComponent.setContent("准备加载插件....")
         loadingComponent.setPositiveButton("取消") { _, _ ->
-            isActive = false
+            job?.cancel()
         }
         loadingComponent.show()
 
         val outputFile = File("$PluginDir/$packageName.apk")
-        mainScope.launch(CoroutineName("LoadLocalPluginCoroutine") + Dispatchers.IO) {
+        job = mainScope.launch(CoroutineName("LoadLocalPluginCoroutine") + Dispatchers.IO) {
             tryEval {
-                val updatedPlugin = PluginManager.findPluginByPackageName(packageName)
-                if (updatedPlugin != null) {
-                    updatedPlugin.pluginMain.onUpdate(this@ManagePluginActivity)
-                    PluginManager.removePlugin(updatedPlugin)
+                // 复制完成前旧版本保持可用, 取消或失败时不会留下不完整的文件
+                FileUtil.copyFileAtomically(file, outputFile) { current, total ->
+                    withContext(Dispatchers.Main) {
+                        val progress = if (total > 0L) current * 100 / total else 100L
+                        loadingComponent.setContent("正在复制插件.... (${progress}%)")
+                    }
                 }
+                // 选择文件时已解析过清单, 只需为导入后的文件建立缓存
+                PluginManifestCache.put(outputFile, manifest)
 
-                val inputStream = file.inputStream()
-                val outputStream = outputFile.outputStream()
-                val inputChannel = inputStream.channel
-                val outputChannel = outputStream.channel
-
-                inputStream.use {
-                    outputStream.use {
-                        inputChannel.use {
-                            outputChannel.use {
-                                val totalBytes: Long = file.length()
-                                var currentBytes = 0f
-                                val buffer = ByteBuffer.allocate(4096)
-                                var len: Int
-                                while (inputChannel.read(buffer).also { len = it } != -1) {
-                                    if (!isActive) {
-                                        FileUtil.deleteFile(outputFile)
-                                        return@launch
-                                    }
-                                    withContext(Dispatchers.Main) {
-                                        val progress = (currentBytes * 100 / totalBytes).toInt()
-                                        loadingComponent.setContent("正在复制插件.... (${progress}%)")
-                                    }
-                                    buffer.flip()
-                                    outputChannel.write(buffer)
-                                    buffer.clear()
-                                    currentBytes += len
-                                }
-                            }
-                        }
+                val updatedPlugin = PluginManager.findPluginByPackageName(packageName)
+                if (updatedPlugin != null) {
+                    PluginProfiler.measure(packageName, "onUpdate") {
+                        updatedPlugin.pluginMain.onUpdate(this@ManagePluginActivity)
                     }
+                    PluginManager.removePlugin(updatedPlugin)
                 }
 
                 val loadedPlugin = PluginManager.loadExternalPlugin(outputFile)
-                loadedPlugin.pluginMain.onInstall(this@ManagePluginActivity)
+                PluginProfiler.measure(packageName, "onInstall") {
+                    loadedPlugin.pluginMain.onInstall(this@ManagePluginActivity)
+                }
                 withContext(Dispatchers.Main) {
                     Toasty.success(this@ManagePluginActivity, "加载插件成功").show()
                     loadingComponent.dismiss()
-                    val length = plugins.size
-                    plugins.add(loadedPlugin)
-                    managePluginAdapter.notifyItemInserted(length)
+                    val position = plugins.indexOfFirst { it.packageName == packageName }
+                    if (position != -1) {
+                        plugins[position] = loadedPlugin
+                        managePluginAdapter.notifyItemChanged(position)
+                    } else {
+                        val length = plugins.size
+                        plugins.add(loadedPlugin)
+                        managePluginAdapter.notifyItemInserted(length)
+                    }
                 }
             } catchAllWithUnit {
-                FileUtil.deleteFile(outputFile)
                 withContext(Dispatchers.Main) {
                     it.printStackTrace()
                     Toasty.error(this@ManagePluginActivity, "加载插件失败: ${it.message}").show()
@@ -200,6 +208,62 @@ class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCal
         }
     }
 
+    private fun showDiagnosticsDialog() {
+        val summaries = PluginProfiler.getSummaries()
+        val message = if (summaries.isEmpty()) {
+            "暂无记录"
+        } else {
+            buildString {
+                for (summary in summaries) {
+                    val pluginName = PluginManager.findPluginByPackageName(summary.packageName)?.pluginName
+                        ?: summary.packageName
+                    appendLine(pluginName)
+                    appendLine("调用 ${summary.count} 次, 总耗时 ${formatNanos(summary.totalNanos)} (主线程 ${formatNanos(summary.mainThreadNanos)})")
+                    val slowest = summary.slowest
+                    if (slowest != null) {
+                        appendLine("最慢: ${slowest.callback} ${formatNanos(slowest.durationNanos)} [${slowest.threadName}]")
+                    }
+                    appendLine("启动进程 ${summary.processCount} 个")
+                    appendLine()
+                }
+            }.trimEnd()
+        }
+
+        MaterialAlertDialogBuilder(this)
+            .setTitle("插件性能诊断")
+            .setMessage(message)
+            .setPositiveButton("确定", null)
+            .setNegativeButton("清空") { _, _ ->
+                PluginProfiler.clear()
+            }
+            .setNeutralButton("导出 JSON") { _, _ ->
+                exportDiagnostics()
+            }
+            .show()
+    }
+
+    private fun exportDiagnostics() {
+        mainScope.launch(CoroutineName("ExportDiagnosticsCoroutine") + Dispatchers.IO) {
+            tryEval {
+                val file = File(OutCacheDir, "PluginProfile_${System.currentTimeMillis()}.json")
+                FileUtil.writeAtomically(file) {
+                    it.write(PluginProfiler.toJson().toString(2).toByteArray())
+                }
+                withContext(Dispatchers.Main) {
+                    Toasty.success(this@ManagePluginActivity, "已导出到 ${file.absolutePath}").show()
+                }
+            } catchAllWithUnit {
+                withContext(Dispatchers.Main) {
+                    Toasty.error(this@ManagePluginActivity, "导出失败: ${it.message}").show()
+                }
+            }
+        }
+    }
+
+    private fun formatNanos(nanos: Long): String {
+        return "%.1f ms".format(nanos / 1_000_000.0)
+    }
+
     override fun onManagePlugin(view: View, plugin: Plugin, position: Int) {
         val popupMenu = PopupMenu(this, view)
         popupMenu.gravity = GravityCompat.END or Gravity.BOTTOM
@@ -251,7 +315,9 @@ class ManagePluginActivity : BaseActivity(), ManagePluginAdapter.ManagePluginCal
         mainScope.launch(CoroutineName("DeletePluginCoroutine") + Dispatchers.IO) {
             val e = runCatching {
                 FileUtil.deleteFile(File(plugin.installedPath))
-                plugin.pluginMain.onUninstall(this@ManagePluginActivity)
+                PluginProfiler.measure(plugin.packageName, "onUninstall") {
+                    plugin.pluginMain.onUninstall(this@ManagePluginActivity)
+                }
                 PluginManager.removePlugin(plugin)
             }.exceptionOrNull()
             withContext(Dispatchers.Main) {
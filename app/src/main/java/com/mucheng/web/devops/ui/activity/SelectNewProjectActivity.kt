@@ -9,6 +9,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.mucheng.web.devops.base.BaseActivity
 import com.mucheng.web.devops.databinding.ActivitySelectNewProjectBinding
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.manager.PluginProfiler
 import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.web.devops.plugin.Plugin
 import com.mucheng.web.devops.support.LanguageKeys
@@ -82,10 +83,10 @@ class SelectNewProjectActivity : BaseActivity(),
     private suspend fun fetchNewProjectList(): List<Project> {
         return withContext(Dispatchers.IO) {
             val projectList: MutableList<Project> = ArrayList()
-            val plugins = PluginManager.getPlugins()
+            val plugins = PluginManager.awaitPlugins()
             for (plugin in plugins) {
                 try {
-                    projectList.addAll(plugin.pluginMain.getProjects())
+                    projectList.addAll(plugin.getProjects())
                 } catch (e: Throwable) {
                     e.printStackTrace()
                     withContext(Dispatchers.Main) {
@@ -139,8 +140,11 @@ class SelectNewProjectActivity : BaseActivity(),
         loadingComponent: LoadingComponent
     ) {
         val createInfo = CreateInfo(projectId, this)
+        val pluginMain = PluginManager.activatePluginSuspend(plugin)
         withContext(Dispatchers.Main) {
-            plugin.pluginMain.onCreateInfo(createInfo)
+            PluginProfiler.measure(plugin.packageName, "onCreateInfo") {
+                pluginMain.onCreateInfo(createInfo)
+            }
         }
 
         CreateInfoDialog(this)
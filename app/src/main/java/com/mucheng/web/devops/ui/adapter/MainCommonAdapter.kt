@@ -53,7 +53,9 @@ class MainCommonAdapter(
             )
         }
         Glide.with(context)
-            .load(mainCommonItem.icon)
+            .load(mainCommonItem.iconUrl)
+            .placeholder(R.drawable.ic_cube_three)
+            .error(R.drawable.ic_cube_three)
             .into(holder.icon)
 
         holder.title.text = mainCommonItem.title
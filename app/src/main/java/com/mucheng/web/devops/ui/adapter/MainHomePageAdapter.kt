@@ -4,6 +4,7 @@ import android.content.Context
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import com.mucheng.web.devops.R
 import com.mucheng.web.devops.ui.view.MaterialTextViewX
@@ -19,6 +20,29 @@ class MainHomePageAdapter(
         val time: MaterialTextViewX = itemView.findViewById(R.id.time)
     }
 
+    class DiffCallback(
+        private val oldList: List<Workspace>,
+        private val newList: List<Workspace>
+    ) : DiffUtil.Callback() {
+
+        override fun getOldListSize(): Int {
+            return oldList.size
+        }
+
+        override fun getNewListSize(): Int {
+            return newList.size
+        }
+
+        override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+            return oldList[oldItemPosition].getName() == newList[newItemPosition].getName()
+        }
+
+        override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+            return oldList[oldItemPosition].getMap() == newList[newItemPosition].getMap()
+        }
+
+    }
+
     interface OnActionListener {
         fun onClick(view: View, workspace: Workspace, position: Int)
         fun onLongClick(view: View, workspace: Workspace, position: Int)
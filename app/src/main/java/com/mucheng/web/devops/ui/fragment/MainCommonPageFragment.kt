@@ -16,10 +16,8 @@ import com.mucheng.web.devops.ui.activity.DisplayPluginActivity
 import com.mucheng.web.devops.ui.adapter.MainCommonAdapter
 import com.mucheng.web.devops.ui.viewmodel.MainViewModel
 import kotlinx.coroutines.CoroutineName
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.withContext
 
 class MainCommonPageFragment : BaseFragment(), MainCommonAdapter.MainCommonItemCallback {
 
@@ -55,7 +53,10 @@ class MainCommonPageFragment : BaseFragment(), MainCommonAdapter.MainCommonItemC
             refresh()
         }
 
-        refresh()
+        // 再次进入时直接显示已有数据, 图标由 Glide 的内存缓存提供
+        if (mainViewModel.mainCommonItems.isEmpty()) {
+            refresh()
+        }
     }
 
     private fun refresh() {
@@ -74,14 +75,11 @@ class MainCommonPageFragment : BaseFragment(), MainCommonAdapter.MainCommonItemC
     }
 
     @SuppressLint("NotifyDataSetChanged")
-    private suspend fun refreshMainCommonItems(fetchMainCommonItems: List<MainCommonItem>) {
-        return withContext(Dispatchers.IO) {
-            mainViewModel.mainCommonItems.clear()
-            mainViewModel.mainCommonItems.addAll(fetchMainCommonItems)
-            withContext(Dispatchers.Main) {
-                mainCommonAdapter.notifyDataSetChanged()
-            }
-        }
+    private fun refreshMainCommonItems(fetchMainCommonItems: List<MainCommonItem>) {
+        // 在主线程修改列表, 避免与 RecyclerView 的绑定并发
+        mainViewModel.mainCommonItems.clear()
+        mainViewModel.mainCommonItems.addAll(fetchMainCommonItems)
+        mainCommonAdapter.notifyDataSetChanged()
     }
 
     override fun onMainCommonItemClick(view: View, mainCommonItem: MainCommonItem, position: Int) {
@@ -1,6 +1,5 @@
 package com.mucheng.web.devops.ui.fragment
 
-import android.annotation.SuppressLint
 import android.content.Intent
 import android.os.Bundle
 import android.view.Gravity
@@ -11,10 +10,12 @@ import androidx.appcompat.widget.PopupMenu
 import androidx.core.view.GravityCompat
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.mucheng.web.devops.base.BaseFragment
 import com.mucheng.web.devops.databinding.FragmentMainHomePageBinding
+import com.mucheng.web.devops.manager.PluginManager
 import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.web.devops.path.ProjectDir
 import com.mucheng.web.devops.ui.activity.EditorActivity
@@ -90,7 +91,14 @@ class MainHomePageFragment : BaseFragment(), MainHomePageAdapter.OnActionListene
             try {
                 viewBinding.recyclerView.isEnabled = false
                 viewBinding.swipeRefreshLayout.isRefreshing = true
-                refreshWorkspaces(mainViewModel.fetchWorkspaces())
+                val loaded: MutableList<Workspace> = ArrayList()
+                mainViewModel.fetchWorkspaces().collect { page ->
+                    loaded.addAll(page)
+                    // 尚未扫描到的旧工程暂时保留在末尾, 避免列表闪烁
+                    val names = loaded.mapTo(HashSet()) { it.getName() }
+                    submitWorkspaces(loaded + mainViewModel.list.filter { it.getName() !in names })
+                }
+                submitWorkspaces(loaded)
                 viewBinding.recyclerView.isEnabled = true
                 viewBinding.swipeRefreshLayout.isRefreshing = false
             } finally {
@@ -122,29 +130,16 @@ class MainHomePageFragment : BaseFragment(), MainHomePageAdapter.OnActionListene
         refresh()
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    private suspend fun refreshWorkspaces(workspaces: List<Workspace>) {
-        withContext(Dispatchers.IO) {
-            val sourceList = mainViewModel.list
-            val isNotEmpty = sourceList.isNotEmpty()
-            if (isNotEmpty) {
-                sourceList.clear()
-                withContext(Dispatchers.Main) {
-                    mainHomePageAdapter.notifyDataSetChanged()
-                }
-            }
-
-            for (workspace in workspaces) {
-                sourceList.add(workspace)
-                withContext(Dispatchers.Main) {
-                    mainHomePageAdapter.notifyDataSetChanged()
-                }
-            }
-
-            withContext(Dispatchers.Main) {
-                checkIsEmpty()
-            }
+    private suspend fun submitWorkspaces(workspaces: List<Workspace>) {
+        val sourceList = mainViewModel.list
+        val oldList = ArrayList(sourceList)
+        val diffResult = withContext(Dispatchers.Default) {
+            DiffUtil.calculateDiff(MainHomePageAdapter.DiffCallback(oldList, workspaces))
         }
+        sourceList.clear()
+        sourceList.addAll(workspaces)
+        diffResult.dispatchUpdatesTo(mainHomePageAdapter)
+        checkIsEmpty()
     }
 
     private fun checkIsEmpty() {
@@ -164,9 +159,16 @@ class MainHomePageFragment : BaseFragment(), MainHomePageAdapter.OnActionListene
     }
 
     override fun onClick(view: View, workspace: Workspace, position: Int) {
-        val intent = Intent(requireContext(), EditorActivity::class.java)
-        intent.putExtra("path", "$ProjectDir/${workspace.getName()}/.WebDevOps/Workspace.xml")
-        startActivity(intent)
+        viewLifecycleOwner.lifecycleScope.launch {
+            // 首次打开某类工程时在后台激活插件, 避免在主线程加载 dex
+            val plugin = PluginManager.findPluginByProjectIdSuspend(workspace.getProjectId())
+            if (plugin != null) {
+                PluginManager.activatePluginSuspend(plugin)
+            }
+            val intent = Intent(requireContext(), EditorActivity::class.java)
+            intent.putExtra("path", "$ProjectDir/${workspace.getName()}/.WebDevOps/Workspace.xml")
+            startActivity(intent)
+        }
     }
 
     override fun onLongClick(view: View, workspace: Workspace, position: Int) {
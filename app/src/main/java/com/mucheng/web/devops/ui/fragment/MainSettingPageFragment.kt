@@ -7,10 +7,12 @@ import android.os.Process
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.switchmaterial.SwitchMaterial
 import com.mucheng.web.devops.base.BaseFragment
+import com.mucheng.web.devops.config.ConfigKeyEnum
 import com.mucheng.web.devops.config.CursorAnimationType
 import com.mucheng.web.devops.config.GlobalConfig
 import com.mucheng.web.devops.data.model.*
@@ -23,6 +25,8 @@ import com.mucheng.web.devops.ui.view.ComposableDialog
 import com.mucheng.web.devops.util.supportedText
 import com.mucheng.webops.plugin.data.info.ComponentInfo
 import es.dmoral.toasty.Toasty
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.launch
 import java.io.File
 
 class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallback {
@@ -74,6 +78,17 @@ class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallba
         recyclerView.layoutManager =
             LinearLayoutManager(requireContext(), LinearLayoutManager.VERTICAL, false)
         recyclerView.adapter = settingAdapter
+
+        // 配置被修改后同步到对应的设置项
+        viewLifecycleOwner.lifecycleScope.launch(CoroutineName("GlobalConfigObserverCoroutine")) {
+            GlobalConfig.changes.collect { refreshSettingItem(it.key) }
+        }
+    }
+
+    override fun onStop() {
+        super.onStop()
+        // 离开设置页时不再等待延迟保存
+        GlobalConfig.flushIfLoaded()
     }
 
     private fun requireSettingItemList(): List<SettingItem> {
@@ -108,7 +123,7 @@ class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallba
                 SwitchSettingItem(
                     WordWrapEnabled,
                     "自动换行",
-                    globalConfig.isLineNumberEnabled()
+                    globalConfig.isWordWrapEnabled()
                 ),
                 SwitchSettingItem(
                     StickyLineNumberEnabled,
@@ -132,6 +147,60 @@ class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallba
         return settingItemList
     }
 
+    /**
+     * 使用内存中的配置值更新设置项, 值未变化时不刷新
+     * @param key 变化的键, 为 null 时表示深色主题
+     * */
+    private fun refreshSettingItem(key: ConfigKeyEnum?) {
+        val globalConfig = GlobalConfig.getInstance()
+        val title = when (key) {
+            null -> DarkTheme
+            ConfigKeyEnum.AutoCompletionEnabled -> AutoCompletion
+            ConfigKeyEnum.OperatorPanelEnabled -> OperatorCompletion
+            ConfigKeyEnum.CursorAnimationEnabled -> CursorAnimationEnabled
+            ConfigKeyEnum.LineNumberEnabled -> LineNumberEnabled
+            ConfigKeyEnum.WordWrapEnabled -> WordWrapEnabled
+            ConfigKeyEnum.StickyLineNumber -> StickyLineNumberEnabled
+            ConfigKeyEnum.CursorAnimationType -> CursorAnimation
+            ConfigKeyEnum.OperatorInputCharTable -> OperatorInputCharTable
+            else -> return
+        }
+        val position = settingItemList.indexOfFirst {
+            (it is SwitchSettingItem && it.title == title) || (it is ClickableSettingItem && it.title == title)
+        }
+        if (position == -1) {
+            return
+        }
+        val isChanged = when (val settingItem = settingItemList[position]) {
+            is SwitchSettingItem -> {
+                val isChecked = when (key) {
+                    null -> GlobalConfig.isDarkThemeEnabled()
+                    ConfigKeyEnum.AutoCompletionEnabled -> globalConfig.isAutoCompletionEnabled()
+                    ConfigKeyEnum.OperatorPanelEnabled -> globalConfig.isOperatorPanelEnabled()
+                    ConfigKeyEnum.CursorAnimationEnabled -> globalConfig.isCursorAnimationEnabled()
+                    ConfigKeyEnum.LineNumberEnabled -> globalConfig.isLineNumberEnabled()
+                    ConfigKeyEnum.WordWrapEnabled -> globalConfig.isWordWrapEnabled()
+                    else -> globalConfig.isStickyLineNumberEnabled()
+                }
+                (settingItem.isChecked != isChecked).also { settingItem.isChecked = isChecked }
+            }
+
+            is ClickableSettingItem -> {
+                val description = if (key == ConfigKeyEnum.CursorAnimationType) {
+                    getCursorAnimationDescription(globalConfig.getCursorAnimationType())
+                } else {
+                    globalConfig.getOperatorInputCharTable().joinToString(separator = " ")
+                }
+                (settingItem.description != description).also { settingItem.description = description }
+            }
+
+            else -> false
+        }
+        if (isChanged) {
+            settingAdapter.notifyItemChanged(position)
+        }
+    }
+
     private fun getCursorAnimationDescription(cursorAnimationType: CursorAnimationType): String {
         return when (cursorAnimationType) {
             CursorAnimationType.TranslationAnimation -> "平移动画"
@@ -229,8 +298,6 @@ class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallba
                         val type = getCursorAnimationTypeByDescription(text)
                         globalConfig.setCursorAnimationType(type)
                         globalConfig.apply()
-                        settingItem.description = text
-                        settingAdapter.notifyItemChanged(position)
                         true
                     }
                     .setCancelable(true)
@@ -260,8 +327,6 @@ class MainSettingPageFragment : BaseFragment(), SettingAdapter.SettingItemCallba
                         }
                         globalConfig.setOperatorInputCharTable(input)
                         globalConfig.apply()
-                        settingItem.description = input
-                        settingAdapter.notifyItemChanged(position)
                         true
                     }
                     .setCancelable(false)
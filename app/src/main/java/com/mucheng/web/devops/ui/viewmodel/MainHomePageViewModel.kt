@@ -3,12 +3,13 @@ package com.mucheng.web.devops.ui.viewmodel
 import com.mucheng.web.devops.base.BaseViewModel
 import com.mucheng.web.devops.data.depository.Depository
 import com.mucheng.webops.plugin.data.Workspace
+import kotlinx.coroutines.flow.Flow
 
 class MainHomePageViewModel : BaseViewModel() {
 
     val list: MutableList<Workspace> = ArrayList()
 
-    suspend fun fetchWorkspaces(): List<Workspace> {
+    fun fetchWorkspaces(): Flow<List<Workspace>> {
         return Depository.fetchWorkspaces()
     }
 
@@ -11,6 +11,7 @@ import androidx.core.content.FileProvider
 import androidx.core.view.WindowCompat
 import com.mucheng.web.devops.application.AppContext
 import com.mucheng.web.devops.manager.PluginManager
+import com.mucheng.web.devops.network.HttpClient
 import com.mucheng.web.devops.path.ProjectDir
 import com.mucheng.web.devops.support.LanguageKeys
 import com.mucheng.web.devops.support.LanguageSupport
@@ -18,8 +19,6 @@ import com.mucheng.webops.plugin.data.Workspace
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.suspendCancellableCoroutine
 import okhttp3.Call
-import okhttp3.OkHttpClient
-import okhttp3.Request
 import java.io.File
 import java.io.IOException
 import java.net.ConnectException
@@ -61,13 +60,7 @@ inline fun supportedText(keys: LanguageKeys): String {
 
 @Suppress("NOTHING_TO_INLINE")
 inline fun request(url: String): Call {
-    val okHttpClient = OkHttpClient()
-    return okHttpClient.newCall(
-        Request.Builder()
-            .url(url)
-            .get()
-            .build()
-    )
+    return HttpClient.Default.newCall(url)
 }
 
 suspend inline fun Call.await(): okhttp3.ResponseBody {
@@ -92,14 +85,7 @@ suspend inline fun Call.await(): okhttp3.ResponseBody {
 }
 
 fun Workspace.isSupported(): Boolean {
-    val plugins = PluginManager.getPlugins()
-    val projectId = getProjectId()
-    for (plugin in plugins) {
-        if (plugin.isSupported(projectId)) {
-            return true
-        }
-    }
-    return false
+    return PluginManager.findPluginByProjectId(getProjectId()) != null
 }
 
 fun Workspace.getFile(): File {
@@ -2,18 +2,24 @@ package com.mucheng.web.devops.util
 
 import android.graphics.Typeface
 import com.mucheng.web.devops.config.GlobalConfig
+import com.mucheng.web.devops.startup.Startup
+import com.mucheng.web.devops.startup.TypefaceComponent
 
 object TypefaceUtil {
 
-    private var typeface: Typeface
+    @Volatile
+    private var typeface: Typeface? = null
 
-    init {
+    /**
+     * 解码全局字体, 由 [TypefaceComponent] 在后台调用
+     * */
+    fun loadTypeface(): Typeface {
         val applicationContext = Context
         val assets = applicationContext.assets
         val globalConfig = GlobalConfig.getInstance()
         val typefacePath = globalConfig.getAppTypefacePath()
 
-        typeface = try {
+        return try {
             if (typefacePath == "null") {
                 Typeface.createFromAsset(assets, "font/MiSans-Regular.ttf")
             } else {
@@ -38,7 +44,7 @@ object TypefaceUtil {
     }
 
     fun getTypeface(): Typeface {
-        return typeface
+        return typeface ?: Startup.get(TypefaceComponent).also { typeface = it }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,145 @@
+package com.mucheng.web.devops.network
+
+import com.mucheng.web.devops.openapi.util.FileUtil
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+
+class DownloadManagerTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var server: MockWebServer
+
+    private lateinit var downloadManager: DownloadManager
+
+    private val content = ByteArray(256 * 1024) { (it % 251).toByte() }
+
+    private val sha256 = FileUtil.sha256(content.inputStream())
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+        downloadManager = DownloadManager(HttpClient(null))
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun downloadsAndVerifies() = runBlocking {
+        server.enqueue(
+            MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setBody(Buffer().write(content))
+        )
+        val target = File(folder.root, "plugin.apk")
+
+        var lastProgress = 0L
+        downloadManager.download(server.url("/plugin.apk").toString(), target, expectedSha256 = sha256) { current, _ ->
+            lastProgress = current
+        }
+
+        assertArrayEquals(content, target.readBytes())
+        assertEquals(content.size.toLong(), lastProgress)
+        assertFalse(File(folder.root, "plugin.apk.part").exists())
+    }
+
+    @Test
+    fun resumesFromPartialFile() = runBlocking {
+        val offset = content.size / 2
+        val target = File(folder.root, "plugin.apk")
+        File(folder.root, "plugin.apk.part").writeBytes(content.copyOf(offset))
+        File(folder.root, "plugin.apk.part.validator").writeText("\"v1\"")
+
+        server.enqueue(
+            MockResponse()
+                .setResponseCode(206)
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Content-Range", "bytes $offset-${content.size - 1}/${content.size}")
+                .setBody(Buffer().write(content, offset, content.size - offset))
+        )
+
+        downloadManager.download(server.url("/plugin.apk").toString(), target, expectedSha256 = sha256)
+
+        val request = server.takeRequest()
+        assertEquals("bytes=$offset-", request.getHeader("Range"))
+        assertEquals("\"v1\"", request.getHeader("If-Range"))
+        assertArrayEquals(content, target.readBytes())
+    }
+
+    @Test
+    fun restartsWhenRangeIsIgnored() = runBlocking {
+        val target = File(folder.root, "plugin.apk")
+        File(folder.root, "plugin.apk.part").writeBytes(ByteArray(1024))
+        File(folder.root, "plugin.apk.part.validator").writeText("\"v0\"")
+
+        server.enqueue(
+            MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setBody(Buffer().write(content))
+        )
+
+        downloadManager.download(server.url("/plugin.apk").toString(), target, expectedSha256 = sha256)
+
+        assertArrayEquals(content, target.readBytes())
+    }
+
+    @Test
+    fun completesWhenRangeIsNotSatisfiable() = runBlocking {
+        val target = File(folder.root, "plugin.apk")
+        File(folder.root, "plugin.apk.part").writeBytes(content)
+        File(folder.root, "plugin.apk.part.validator").writeText("\"v1\"")
+
+        // 上次已下载完整但未校验, 服务器通过 Content-Range 返回完整长度
+        server.enqueue(
+            MockResponse()
+                .setResponseCode(416)
+                .setHeader("Content-Range", "bytes */${content.size}")
+        )
+
+        downloadManager.download(server.url("/plugin.apk").toString(), target, expectedSha256 = sha256)
+
+        assertArrayEquals(content, target.readBytes())
+        assertFalse(File(folder.root, "plugin.apk.part").exists())
+    }
+
+    @Test
+    fun rejectsChecksumMismatch() = runBlocking {
+        val target = File(folder.root, "plugin.apk")
+        target.writeText("old")
+        server.enqueue(MockResponse().setBody(Buffer().write(content)))
+
+        try {
+            downloadManager.download(
+                server.url("/plugin.apk").toString(),
+                target,
+                expectedSha256 = "0".repeat(64)
+            )
+            fail("Expected IOException")
+        } catch (e: IOException) {
+            // 校验失败时不替换目标文件
+            assertEquals("old", target.readText())
+            assertFalse(File(folder.root, "plugin.apk.part").exists())
+        }
+        assertTrue(target.isFile)
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.mucheng.web.devops.network
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.TimeUnit
+
+class HttpClientTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var server: MockWebServer
+
+    private lateinit var httpClient: HttpClient
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+        httpClient = HttpClient(folder.newFolder("http"))
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun coalescesConcurrentRequests() = runBlocking {
+        server.enqueue(
+            MockResponse()
+                .setBody("[]")
+                .setBodyDelay(200, TimeUnit.MILLISECONDS)
+        )
+        val url = server.url("/mainCommonItems.json").toString()
+
+        val results = List(8) {
+            async { httpClient.fetchString(url) }
+        }.awaitAll()
+
+        assertEquals(List(8) { "[]" }, results)
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun revalidatesWithETag() = runBlocking {
+        server.enqueue(
+            MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "max-age=0")
+                .setBody("{\"version\":1}")
+        )
+        server.enqueue(MockResponse().setResponseCode(304))
+        val url = server.url("/update.json").toString()
+
+        assertEquals("{\"version\":1}", httpClient.fetchString(url))
+        assertEquals("{\"version\":1}", httpClient.fetchString(url))
+
+        server.takeRequest()
+        val revalidation = server.takeRequest()
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"))
+    }
+
+}
@@ -1,17 +1,30 @@
 package com.mucheng.web.devops.openapi.util
 
+import android.system.Os
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
 import net.lingala.zip4j.io.inputstream.ZipInputStream
 import net.lingala.zip4j.model.LocalFileHeader
 import java.io.File
+import java.io.FileInputStream
 import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
 import java.math.BigDecimal
 import java.nio.ByteBuffer
 import java.nio.channels.Channels
+import java.security.MessageDigest
+import kotlin.coroutines.coroutineContext
 
 object FileUtil {
 
+    private const val TRANSFER_SLICE_SIZE = 8L * 1024 * 1024
+
+    // .<name>.<随机数>.tmp
+    private val TEMP_FILE_NAME_REGEX = Regex("^\\..+\\.-?\\d+\\.tmp$")
+
     fun deleteFile(file: File) {
         if (!file.exists()) {
             return
@@ -54,6 +67,144 @@ object FileUtil {
         source.delete()
     }
 
+    /**
+     * 原子写入文件
+     * 先写入同目录下的临时文件并 fsync, 再通过 rename 替换目标文件
+     * 目标是符号链接时写入其指向的文件, 并保留原文件的权限
+     * @param file 目标文件
+     * @param block 写入内容
+     */
+    fun writeAtomically(file: File, block: (output: OutputStream) -> Unit) {
+        // rename 会把符号链接替换为普通文件, 因此替换链接指向的文件
+        val targetFile = if (file.exists()) file.canonicalFile else file
+        val tempFile = createTempFile(targetFile)
+        try {
+            val fileOutputStream = FileOutputStream(tempFile)
+            fileOutputStream.use {
+                val bufferedOutputStream = fileOutputStream.buffered()
+                block(bufferedOutputStream)
+                bufferedOutputStream.flush()
+                fileOutputStream.fd.sync()
+            }
+            copyFileMode(targetFile, tempFile)
+            if (!tempFile.renameTo(targetFile)) {
+                throw IOException("Cannot rename ${tempFile.absolutePath} to ${targetFile.absolutePath}")
+            }
+        } catch (e: Throwable) {
+            tempFile.delete()
+            throw e
+        }
+    }
+
+    /**
+     * 复制文件, 先写入同目录下的临时文件再通过 rename 替换目标文件
+     * 使用 FileChannel.transferTo 分段复制; 不使用硬链接, 源文件之后被修改或删除时不影响复制结果
+     * @param onProgress 进度回调, 按 [progressIntervalMillis] 节流调用
+     */
+    suspend fun copyFileAtomically(
+        source: File,
+        target: File,
+        progressIntervalMillis: Long = 200L,
+        onProgress: suspend (current: Long, total: Long) -> Unit = { _, _ -> }
+    ) {
+        withContext(Dispatchers.IO) {
+            val total = source.length()
+            val tempFile = createTempFile(target)
+            try {
+                transferFile(source, tempFile, total, progressIntervalMillis, onProgress)
+                if (!tempFile.renameTo(target)) {
+                    throw IOException("Cannot rename ${tempFile.absolutePath} to ${target.absolutePath}")
+                }
+                onProgress(total, total)
+            } catch (e: Throwable) {
+                tempFile.delete()
+                throw e
+            }
+        }
+    }
+
+    /**
+     * 在目标文件所在目录中创建名称唯一的隐藏临时文件, 同时写入同一文件时不会互相覆盖
+     * */
+    private fun createTempFile(target: File): File {
+        // 前缀至少需要 3 个字符
+        return File.createTempFile(".${target.name}.", ".tmp", target.absoluteFile.parentFile)
+    }
+
+    /**
+     * 是否为 [writeAtomically] 与 [copyFileAtomically] 创建的临时文件, 用于在文件监听中忽略
+     * */
+    fun isTempFileName(name: String): Boolean {
+        return TEMP_FILE_NAME_REGEX.matches(name)
+    }
+
+    private fun copyFileMode(source: File, target: File) {
+        if (!source.exists()) {
+            return
+        }
+        runCatching {
+            Os.chmod(target.absolutePath, Os.stat(source.absolutePath).st_mode and 0x0FFF)
+        }.exceptionOrNull()?.printStackTrace()
+    }
+
+    private suspend fun transferFile(
+        source: File,
+        target: File,
+        total: Long,
+        progressIntervalMillis: Long,
+        onProgress: suspend (current: Long, total: Long) -> Unit
+    ) {
+        FileInputStream(source).use { input ->
+            FileOutputStream(target).use { output ->
+                val inputChannel = input.channel
+                val outputChannel = output.channel
+                var position = 0L
+                var lastProgressTime = System.nanoTime() / 1_000_000
+                while (position < total) {
+                    coroutineContext.ensureActive()
+                    val count = inputChannel.transferTo(
+                        position,
+                        minOf(TRANSFER_SLICE_SIZE, total - position),
+                        outputChannel
+                    )
+                    if (count <= 0L) {
+                        break
+                    }
+                    position += count
+
+                    val now = System.nanoTime() / 1_000_000
+                    if (now - lastProgressTime >= progressIntervalMillis) {
+                        lastProgressTime = now
+                        onProgress(position, total)
+                    }
+                }
+                if (position != total) {
+                    throw IOException("Size mismatch: expected $total but was $position")
+                }
+                output.fd.sync()
+            }
+        }
+    }
+
+    /**
+     * 计算输入流的 SHA-256, 计算完成后关闭输入流
+     * @return 小写十六进制字符串
+     */
+    fun sha256(input: InputStream): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        input.use {
+            val buffer = ByteArray(64 * 1024)
+            while (true) {
+                val length = input.read(buffer)
+                if (length == -1) {
+                    break
+                }
+                digest.update(buffer, 0, length)
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
     fun getFileCount(file: File): Int {
         if (!file.exists() || file.isFile) {
             return 0
@@ -0,0 +1,108 @@
+package com.mucheng.web.devops.openapi.view
+
+/**
+ * 预览页面的控制台消息, 只保留最近的 maxEntries 条
+ * 连续重复的消息合并为一条并计数, 循环中报错的页面不会刷屏
+ * */
+class ConsoleLog(
+    private val maxEntries: Int = 500,
+    private val notifyIntervalMillis: Long = 3000L,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    enum class Level {
+        Log, Warning, Error
+    }
+
+    /**
+     * @param time 最后一次出现的时间
+     * @param count 连续出现的次数
+     * */
+    class Entry(
+        val level: Level,
+        val message: String,
+        val sourceId: String,
+        val lineNumber: Int,
+        time: Long
+    ) {
+
+        var time: Long = time
+            internal set
+
+        var count: Int = 1
+            internal set
+
+        internal fun isSameAs(level: Level, message: String, sourceId: String, lineNumber: Int): Boolean {
+            return this.level == level && this.message == message &&
+                    this.sourceId == sourceId && this.lineNumber == lineNumber
+        }
+
+        override fun toString(): String {
+            return buildString {
+                append(message)
+                if (sourceId.isNotEmpty()) {
+                    append(" (${sourceId.substringAfterLast('/')}:$lineNumber)")
+                }
+                if (count > 1) {
+                    append(" ×$count")
+                }
+            }
+        }
+
+    }
+
+    private val entries = ArrayDeque<Entry>()
+
+    private var errorCount = 0L
+
+    private var lastNotifyTime = Long.MIN_VALUE
+
+    /**
+     * 添加一条消息
+     * @return 是否应当提示用户, 只有错误才会提示, 且每 notifyIntervalMillis 最多提示一次
+     * */
+    @Synchronized
+    fun add(level: Level, message: String, sourceId: String, lineNumber: Int): Boolean {
+        val now = clock()
+        val last = entries.lastOrNull()
+        if (last != null && last.isSameAs(level, message, sourceId, lineNumber)) {
+            ++last.count
+            last.time = now
+        } else {
+            if (entries.size == maxEntries) {
+                entries.removeFirst()
+            }
+            entries.addLast(Entry(level, message, sourceId, lineNumber, now))
+        }
+        if (level != Level.Error) {
+            return false
+        }
+        ++errorCount
+        if (lastNotifyTime != Long.MIN_VALUE && now - lastNotifyTime < notifyIntervalMillis) {
+            return false
+        }
+        lastNotifyTime = now
+        return true
+    }
+
+    /**
+     * 自创建或上次清空以来的错误总数, 包括已被淘汰的消息
+     * */
+    @Synchronized
+    fun getErrorCount(): Long {
+        return errorCount
+    }
+
+    @Synchronized
+    fun getEntries(): List<Entry> {
+        return entries.toList()
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        errorCount = 0L
+        lastNotifyTime = Long.MIN_VALUE
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.mucheng.web.devops.openapi.view
+
+import android.webkit.JavascriptInterface
+import android.webkit.WebView
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * 收集预览页面的 Navigation Timing 与 Resource Timing
+ *
+ * 页面加载完成后注入脚本, 脚本在 load 事件之后通过 JS 接口回传导航耗时与已加载的资源,
+ * 之后加载的资源由 PerformanceObserver 继续回传
+ * */
+class PerformanceMonitor(private val webView: WebView) {
+
+    companion object {
+        private const val BRIDGE_NAME = "__webDevOpsPerformance"
+
+        private const val MAX_RESOURCES = 500
+
+        private const val COLLECT_SCRIPT = """
+(function () {
+    var bridge = window.$BRIDGE_NAME;
+    if (!bridge || window.__webDevOpsPerformanceInstalled || !window.performance || !performance.getEntriesByType) {
+        return;
+    }
+    window.__webDevOpsPerformanceInstalled = true;
+    try { performance.setResourceTimingBufferSize($MAX_RESOURCES); } catch (e) {}
+
+    function toResource(entry) {
+        return {
+            name: entry.name, type: entry.initiatorType, start: entry.startTime, duration: entry.duration,
+            transferSize: entry.transferSize || 0, bodySize: entry.encodedBodySize || 0
+        };
+    }
+
+    function toNavigation() {
+        var entry = performance.getEntriesByType('navigation')[0];
+        if (entry) {
+            return {
+                url: entry.name, redirect: entry.redirectEnd - entry.redirectStart,
+                dns: entry.domainLookupEnd - entry.domainLookupStart, connect: entry.connectEnd - entry.connectStart,
+                request: entry.responseStart - entry.requestStart, response: entry.responseEnd - entry.responseStart,
+                domInteractive: entry.domInteractive, domContentLoaded: entry.domContentLoadedEventEnd,
+                load: entry.loadEventEnd, transferSize: entry.transferSize || 0
+            };
+        }
+        // 旧版本 WebView 只支持 performance.timing
+        var timing = performance.timing;
+        var start = timing.navigationStart;
+        return {
+            url: location.href, redirect: timing.redirectEnd - timing.redirectStart,
+            dns: timing.domainLookupEnd - timing.domainLookupStart, connect: timing.connectEnd - timing.connectStart,
+            request: timing.responseStart - timing.requestStart, response: timing.responseEnd - timing.responseStart,
+            domInteractive: timing.domInteractive - start, domContentLoaded: timing.domContentLoadedEventEnd - start,
+            load: timing.loadEventEnd - start, transferSize: 0
+        };
+    }
+
+    function report() {
+        bridge.reportNavigation(JSON.stringify(toNavigation()));
+        bridge.reportResources(JSON.stringify(performance.getEntriesByType('resource').map(toResource)));
+    }
+
+    if (window.PerformanceObserver) {
+        try {
+            new PerformanceObserver(function (list) {
+                bridge.reportResources(JSON.stringify(list.getEntries().map(toResource)));
+            }).observe({ entryTypes: ['resource'] });
+        } catch (e) {}
+    }
+    // loadEventEnd 在 load 事件处理完后才有值
+    if (document.readyState === 'complete') {
+        setTimeout(report, 0);
+    } else {
+        window.addEventListener('load', function () { setTimeout(report, 0); });
+    }
+})();
+"""
+    }
+
+    /**
+     * 导航各阶段的耗时, 单位均为毫秒
+     * @param request 从发出请求到收到第一个字节, 主要是服务器 (例如 PHP) 的处理时间
+     * @param domInteractive 等从导航开始计算的时间点
+     * */
+    class NavigationTiming(
+        val url: String,
+        val redirect: Double,
+        val dns: Double,
+        val connect: Double,
+        val request: Double,
+        val response: Double,
+        val domInteractive: Double,
+        val domContentLoaded: Double,
+        val load: Double,
+        val transferSize: Long
+    )
+
+    /**
+     * @param transferSize 传输的字节数, 来自缓存或跨域资源时为 0
+     * */
+    class ResourceTiming(
+        val name: String,
+        val initiatorType: String,
+        val startTime: Double,
+        val duration: Double,
+        val transferSize: Long,
+        val bodySize: Long
+    )
+
+    class Snapshot(
+        val navigation: NavigationTiming?,
+        val resources: List<ResourceTiming>
+    ) {
+
+        /**
+         * 页面与所有资源传输的总字节数
+         * */
+        val totalTransferSize: Long
+            get() = (navigation?.transferSize ?: 0L) + resources.sumOf { it.transferSize }
+
+        /**
+         * 最后一个请求结束的时间点
+         * */
+        val endTime: Double
+            get() = maxOf(navigation?.load ?: 0.0, resources.maxOfOrNull { it.startTime + it.duration } ?: 0.0)
+
+    }
+
+    private var navigation: NavigationTiming? = null
+
+    private val resources: MutableList<ResourceTiming> = ArrayList()
+
+    // 同一资源可能被首次回传与 PerformanceObserver 各回传一次
+    private val resourceKeys: MutableSet<String> = HashSet()
+
+    private inner class Bridge {
+
+        @JavascriptInterface
+        fun reportNavigation(json: String) {
+            val timing = runCatching { parseNavigation(JSONObject(json)) }.getOrNull() ?: return
+            synchronized(this@PerformanceMonitor) {
+                navigation = timing
+            }
+        }
+
+        @JavascriptInterface
+        fun reportResources(json: String) {
+            val array = try {
+                JSONArray(json)
+            } catch (e: JSONException) {
+                return
+            }
+            synchronized(this@PerformanceMonitor) {
+                for (index in 0 until array.length()) {
+                    if (resources.size >= MAX_RESOURCES) {
+                        break
+                    }
+                    val item = array.optJSONObject(index) ?: continue
+                    val resource = parseResource(item)
+                    if (resourceKeys.add("${resource.name}@${resource.startTime}")) {
+                        resources.add(resource)
+                    }
+                }
+            }
+        }
+
+    }
+
+    init {
+        webView.addJavascriptInterface(Bridge(), BRIDGE_NAME)
+    }
+
+    /**
+     * 开始加载新页面时调用, 清除上一个页面的数据
+     * */
+    @Synchronized
+    fun onPageStarted() {
+        navigation = null
+        resources.clear()
+        resourceKeys.clear()
+    }
+
+    /**
+     * 页面加载完成时调用, 注入收集脚本
+     * */
+    fun onPageFinished() {
+        webView.evaluateJavascript(COLLECT_SCRIPT, null)
+    }
+
+    @Synchronized
+    fun getSnapshot(): Snapshot {
+        return Snapshot(navigation, resources.sortedBy { it.startTime })
+    }
+
+    private fun parseNavigation(json: JSONObject): NavigationTiming {
+        return NavigationTiming(
+            json.optString("url"),
+            json.optDouble("redirect", 0.0),
+            json.optDouble("dns", 0.0),
+            json.optDouble("connect", 0.0),
+            json.optDouble("request", 0.0),
+            json.optDouble("response", 0.0),
+            json.optDouble("domInteractive", 0.0),
+            json.optDouble("domContentLoaded", 0.0),
+            json.optDouble("load", 0.0),
+            json.optLong("transferSize", 0L)
+        )
+    }
+
+    private fun parseResource(json: JSONObject): ResourceTiming {
+        return ResourceTiming(
+            json.optString("name"),
+            json.optString("type"),
+            json.optDouble("start", 0.0),
+            json.optDouble("duration", 0.0),
+            json.optLong("transferSize", 0L),
+            json.optLong("bodySize", 0L)
+        )
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.mucheng.web.devops.openapi.view
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.Typeface
+import android.util.TypedValue
+import android.view.View
+import android.view.ViewGroup
+import android.widget.LinearLayout
+import android.widget.TextView
+import androidx.appcompat.app.AppCompatActivity
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.google.android.material.chip.ChipGroup
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.google.android.material.textview.MaterialTextView
+import com.mucheng.web.devops.openapi.R
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.util.Locale
+
+/**
+ * 预览页面的性能面板
+ * 网络页按开始时间列出页面加载的资源与耗时瀑布图, 控制台页列出 [WebViewX.consoleLog] 中的消息
+ * */
+class PerformancePanel(
+    private val activity: AppCompatActivity,
+    private val scope: CoroutineScope,
+    private val webView: WebViewX
+) {
+
+    companion object {
+        private const val REFRESH_INTERVAL_MILLIS = 1000L
+
+        private val ERROR_COLOR = Color.parseColor("#E53935")
+        private val WARN_COLOR = Color.parseColor("#FB8C00")
+        private val BAR_COLOR = Color.parseColor("#1E88E5")
+
+        private fun formatBytes(bytes: Long): String {
+            return when {
+                bytes >= 1024 * 1024 -> String.format(Locale.ROOT, "%.1f MB", bytes / 1024.0 / 1024.0)
+                bytes >= 1024 -> String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0)
+                else -> "$bytes B"
+            }
+        }
+
+        private fun formatMillis(millis: Double): String {
+            return String.format(Locale.ROOT, "%.1f ms", millis)
+        }
+    }
+
+    private val networkAdapter = NetworkAdapter()
+
+    private val consoleAdapter = ConsoleAdapter()
+
+    private var snapshot = PerformanceMonitor.Snapshot(null, emptyList())
+
+    private var consoleEntries: List<ConsoleLog.Entry> = emptyList()
+
+    private var refreshJob: Job? = null
+
+    fun show() {
+        val view = activity.layoutInflater.inflate(R.layout.layout_performance_panel, null)
+        val summaryView: MaterialTextView = view.findViewById(R.id.performanceSummary)
+        val tabGroup: ChipGroup = view.findViewById(R.id.performanceTabs)
+        val recyclerView: RecyclerView = view.findViewById(R.id.performanceList)
+        recyclerView.layoutManager = LinearLayoutManager(activity)
+        recyclerView.adapter = networkAdapter
+
+        tabGroup.setOnCheckedChangeListener { _, checkedId ->
+            recyclerView.adapter = if (checkedId == R.id.performanceConsole) consoleAdapter else networkAdapter
+        }
+
+        val dialog = MaterialAlertDialogBuilder(activity)
+            .setTitle("性能面板")
+            .setView(view)
+            .setPositiveButton("关闭", null)
+            .setOnDismissListener {
+                refreshJob?.cancel()
+                refreshJob = null
+            }
+            .show()
+
+        // 资源与控制台消息在页面加载后仍会陆续回传
+        refreshJob = scope.launch(CoroutineName("RefreshPerformancePanelCoroutine")) {
+            while (isActive && dialog.isShowing) {
+                snapshot = webView.performanceMonitor.getSnapshot()
+                consoleEntries = webView.consoleLog.getEntries()
+                summaryView.text = buildSummary()
+                networkAdapter.notifyDataSetChanged()
+                consoleAdapter.notifyDataSetChanged()
+                delay(REFRESH_INTERVAL_MILLIS)
+            }
+        }
+    }
+
+    private fun buildSummary(): String {
+        return buildString {
+            val navigation = snapshot.navigation
+            append("请求 ${snapshot.resources.size + if (navigation != null) 1 else 0}")
+            append(" · 传输 ${formatBytes(snapshot.totalTransferSize)}")
+            if (navigation != null) {
+                appendLine()
+                append("首字节 ${formatMillis(navigation.request)}")
+                append(" · DOMContentLoaded ${formatMillis(navigation.domContentLoaded)}")
+                append(" · load ${formatMillis(navigation.load)}")
+            } else {
+                appendLine()
+                append("等待页面加载完成")
+            }
+            appendLine()
+            append("控制台错误 ${webView.consoleLog.getErrorCount()}")
+        }
+    }
+
+    /**
+     * 在 [start, end] 区间内绘制耗时条, 取值为相对于整个时间轴的比例
+     * */
+    private class WaterfallBar(context: Context) : View(context) {
+
+        private val paint = Paint(Paint.ANTI_ALIAS_FLAG).apply { color = BAR_COLOR }
+
+        private var start = 0f
+
+        private var end = 0f
+
+        fun setRange(start: Float, end: Float) {
+            this.start = start.coerceIn(0f, 1f)
+            this.end = end.coerceIn(this.start, 1f)
+            invalidate()
+        }
+
+        override fun onDraw(canvas: Canvas) {
+            super.onDraw(canvas)
+            val left = start * width
+            // 耗时极短的请求也保留可见的宽度
+            val right = maxOf(end * width, left + 2f)
+            canvas.drawRect(left, 0f, right, height.toFloat(), paint)
+        }
+
+    }
+
+    private inner class NetworkAdapter : RecyclerView.Adapter<NetworkAdapter.ViewHolder>() {
+
+        inner class ViewHolder(
+            itemView: View,
+            val textView: TextView,
+            val bar: WaterfallBar
+        ) : RecyclerView.ViewHolder(itemView)
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+            val context = parent.context
+            val density = context.resources.displayMetrics.density
+            val layout = LinearLayout(context)
+            layout.orientation = LinearLayout.VERTICAL
+            layout.layoutParams = RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT
+            )
+            layout.setPadding(0, (3 * density).toInt(), 0, (3 * density).toInt())
+
+            val textView = TextView(context)
+            textView.typeface = Typeface.MONOSPACE
+            textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11f)
+            textView.maxLines = 2
+            layout.addView(textView)
+
+            val bar = WaterfallBar(context)
+            layout.addView(
+                bar,
+                LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, (4 * density).toInt())
+            )
+            return ViewHolder(layout, textView, bar)
+        }
+
+        override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+            val endTime = snapshot.endTime.coerceAtLeast(1.0)
+            val navigation = snapshot.navigation
+            if (navigation != null && position == 0) {
+                // 文档本身从 0 开始, 到收到完整响应结束
+                val duration = navigation.redirect + navigation.dns + navigation.connect +
+                        navigation.request + navigation.response
+                holder.textView.text = "${navigation.url.substringAfterLast('/').ifEmpty { "/" }} [document] " +
+                        "${formatMillis(duration)} · ${formatBytes(navigation.transferSize)}"
+                holder.bar.setRange(0f, (duration / endTime).toFloat())
+                return
+            }
+
+            val resource = snapshot.resources[if (navigation != null) position - 1 else position]
+            val name = resource.name.substringBefore('?').substringAfterLast('/').ifEmpty { resource.name }
+            holder.textView.text = "$name [${resource.initiatorType}] " +
+                    "${formatMillis(resource.duration)} · " +
+                    if (resource.transferSize == 0L && resource.bodySize > 0L) "缓存" else formatBytes(resource.transferSize)
+            holder.bar.setRange(
+                (resource.startTime / endTime).toFloat(),
+                ((resource.startTime + resource.duration) / endTime).toFloat()
+            )
+        }
+
+        override fun getItemCount(): Int {
+            return snapshot.resources.size + if (snapshot.navigation != null) 1 else 0
+        }
+
+    }
+
+    private inner class ConsoleAdapter : RecyclerView.Adapter<ConsoleAdapter.ViewHolder>() {
+
+        inner class ViewHolder(val textView: TextView) : RecyclerView.ViewHolder(textView)
+
+        private var defaultColor = 0
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+            val textView = TextView(parent.context)
+            textView.layoutParams = RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT
+            )
+            textView.typeface = Typeface.MONOSPACE
+            textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11f)
+            defaultColor = textView.currentTextColor
+            return ViewHolder(textView)
+        }
+
+        override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+            val entry = consoleEntries[position]
+            holder.textView.text = entry.toString()
+            holder.textView.setTextColor(
+                when (entry.level) {
+                    ConsoleLog.Level.Error -> ERROR_COLOR
+                    ConsoleLog.Level.Warning -> WARN_COLOR
+                    else -> defaultColor
+                }
+            )
+        }
+
+        override fun getItemCount(): Int {
+            return consoleEntries.size
+        }
+
+    }
+
+}
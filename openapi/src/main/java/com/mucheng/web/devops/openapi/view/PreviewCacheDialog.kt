@@ -0,0 +1,38 @@
+package com.mucheng.web.devops.openapi.view
+
+import android.content.Context
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+
+/**
+ * 选择预览缓存策略或清除预览缓存, 切换后重新加载页面
+ * @param onModeChanged 策略改变后回调, 用于保存到 Workspace
+ * */
+class PreviewCacheDialog(
+    private val context: Context,
+    private val webView: WebViewX,
+    private val onModeChanged: (PreviewCacheMode) -> Unit
+) {
+
+    fun show() {
+        val modes = PreviewCacheMode.values()
+        val items = modes.map { "${it.title}\n${it.description}" }.toTypedArray()
+        MaterialAlertDialogBuilder(context)
+            .setTitle("预览缓存")
+            .setSingleChoiceItems(items, webView.previewCacheMode.ordinal) { dialog, which ->
+                dialog.dismiss()
+                val mode = modes[which]
+                if (mode == webView.previewCacheMode) {
+                    return@setSingleChoiceItems
+                }
+                webView.previewCacheMode = mode
+                onModeChanged(mode)
+                webView.reload()
+            }
+            .setNeutralButton("清除预览缓存") { _, _ ->
+                webView.clearPreviewCache()
+            }
+            .setPositiveButton("关闭", null)
+            .show()
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.mucheng.web.devops.openapi.view
+
+import android.webkit.WebSettings
+
+/**
+ * 预览页面的缓存策略
+ * @param cacheMode 对应的 [WebSettings] 缓存模式
+ * */
+enum class PreviewCacheMode(val cacheMode: Int, val title: String, val description: String) {
+
+    NoCache(
+        WebSettings.LOAD_NO_CACHE,
+        "不使用缓存",
+        "每次都从服务器重新加载, 适合开发"
+    ),
+
+    HttpCache(
+        WebSettings.LOAD_DEFAULT,
+        "遵循 HTTP 缓存",
+        "按响应头缓存, 过期后通过 ETag / Last-Modified 验证, 与真实浏览器一致"
+    ),
+
+    OfflineFirst(
+        WebSettings.LOAD_CACHE_ELSE_NETWORK,
+        "离线优先",
+        "优先使用缓存, 即使已经过期; 修改文件后需要清除预览缓存"
+    );
+
+    companion object {
+        /**
+         * 保存在 Workspace 中的键
+         * */
+        const val WORKSPACE_KEY = "previewCacheMode"
+
+        /**
+         * 按名称查找, 找不到时为 [NoCache]
+         * */
+        fun of(name: String?): PreviewCacheMode {
+            return values().firstOrNull { it.name == name } ?: NoCache
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.mucheng.web.devops.openapi.view
+
+import android.annotation.SuppressLint
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.MutableContextWrapper
+import android.os.Handler
+import android.os.Looper
+import android.view.ViewGroup
+import com.mucheng.web.devops.openapi.R
+
+/**
+ * 预览使用的 WebView 池
+ *
+ * 第一次创建 WebView 时需要初始化 Chromium, 耗时可达数百毫秒,
+ * 因此在启动后的空闲时间预先创建一个, 打开预览时直接取用, 关闭预览时清空状态后放回
+ * 所有方法只能在主线程中调用
+ * */
+@SuppressLint("StaticFieldLeak")
+object WebViewPool {
+
+    private const val MAX_IDLE_COUNT = 1
+
+    private const val PRELOAD_DELAY_MILLIS = 3000L
+
+    private val idleWebViews = ArrayDeque<WebViewX>()
+
+    private var applicationContext: Context? = null
+
+    /**
+     * 启动后等待一段时间, 并在主线程空闲时预先创建 WebView
+     * */
+    fun preloadWhenIdle(context: Context) {
+        val applicationContext = context.applicationContext
+        this.applicationContext = applicationContext
+        Handler(Looper.getMainLooper()).postDelayed({
+            Looper.myQueue().addIdleHandler {
+                if (idleWebViews.isEmpty()) {
+                    runCatching {
+                        idleWebViews.addLast(create(applicationContext))
+                    }.exceptionOrNull()?.printStackTrace()
+                }
+                false
+            }
+        }, PRELOAD_DELAY_MILLIS)
+    }
+
+    /**
+     * 取出一个 WebView 并添加到 container 中, 池中没有时新建
+     * 添加后的 id 为 R.id.webView
+     * */
+    fun obtain(container: ViewGroup): WebViewX {
+        val context = container.context
+        val webView = idleWebViews.removeFirstOrNull() ?: create(context.applicationContext)
+        (webView.context as MutableContextWrapper).baseContext = context
+        webView.id = R.id.webView
+        webView.onObtained()
+        webView.onResume()
+        container.addView(
+            webView,
+            ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT)
+        )
+        return webView
+    }
+
+    /**
+     * 清空 WebView 的页面、历史记录与回调后放回池中, 池已满时销毁
+     * */
+    fun recycle(webView: WebViewX) {
+        (webView.parent as? ViewGroup)?.removeView(webView)
+        if (idleWebViews.size >= MAX_IDLE_COUNT) {
+            // WebChromeClient 通常持有 Activity, 销毁前同样需要清除
+            webView.stopLoading()
+            webView.webChromeClient = null
+            webView.destroy()
+            return
+        }
+        // 不再持有 Activity
+        (webView.context as MutableContextWrapper).baseContext =
+            applicationContext ?: webView.context.applicationContext
+        webView.reset()
+        webView.onPause()
+        idleWebViews.addLast(webView)
+    }
+
+    /**
+     * 内存紧张时销毁空闲的 WebView, 界面隐藏时保留
+     * */
+    fun trimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW &&
+            level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        ) {
+            while (idleWebViews.isNotEmpty()) {
+                idleWebViews.removeFirst().destroy()
+            }
+        }
+    }
+
+    private fun create(applicationContext: Context): WebViewX {
+        // 取用时将 baseContext 替换为 Activity, 弹出框等需要 Activity 的功能才能正常工作
+        return WebViewX(MutableContextWrapper(applicationContext))
+    }
+
+}
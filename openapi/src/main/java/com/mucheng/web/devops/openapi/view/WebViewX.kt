@@ -2,7 +2,11 @@ package com.mucheng.web.devops.openapi.view
 
 import android.annotation.SuppressLint
 import android.content.Context
+import android.graphics.Bitmap
+import android.os.Build
 import android.util.AttributeSet
+import android.webkit.ConsoleMessage
+import android.webkit.ServiceWorkerController
 import android.webkit.WebResourceRequest
 import android.webkit.WebSettings
 import android.webkit.WebView
@@ -14,9 +18,68 @@ open class WebViewX @JvmOverloads constructor(
     context: Context, attrs: AttributeSet? = null
 ) : WebView(context, attrs) {
 
+    companion object {
+        private const val BLANK_URL = "about:blank"
+
+        // 注销当前源的 Service Worker 并清空 CacheStorage, 完成后重新加载
+        private const val CLEAR_SCRIPT = """
+(function () {
+    var tasks = [];
+    if (navigator.serviceWorker && navigator.serviceWorker.getRegistrations) {
+        tasks.push(navigator.serviceWorker.getRegistrations().then(function (registrations) {
+            return Promise.all(registrations.map(function (registration) { return registration.unregister(); }));
+        }));
+    }
+    if (window.caches) {
+        tasks.push(caches.keys().then(function (keys) {
+            return Promise.all(keys.map(function (key) { return caches.delete(key); }));
+        }));
+    }
+    Promise.all(tasks).then(function () { location.reload(); }, function () { location.reload(); });
+})();
+"""
+    }
+
+    /**
+     * 预览页面的缓存策略, 同时作用于页面注册的 Service Worker
+     * */
+    var previewCacheMode: PreviewCacheMode = PreviewCacheMode.NoCache
+        set(value) {
+            field = value
+            applyCacheMode()
+        }
+
+    /**
+     * 当前页面的加载耗时
+     * */
+    val performanceMonitor = PerformanceMonitor(this)
+
+    /**
+     * 页面输出的控制台消息, 由 WebChromeClient 写入
+     * */
+    val consoleLog = ConsoleLog()
+
+    // 从 WebViewPool 取出后, 等待第一个页面加载完成再清除之前的历史记录
+    private var isHistoryClearPending = false
+
     init {
         webViewClient = object : WebViewClient() {
 
+            override fun onPageStarted(view: WebView, url: String?, favicon: Bitmap?) {
+                super.onPageStarted(view, url, favicon)
+                performanceMonitor.onPageStarted()
+            }
+
+            override fun onPageFinished(view: WebView, url: String?) {
+                super.onPageFinished(view, url)
+                // 清除后只保留当前页面, 撤销时不会回到空白页或上一个工程的页面
+                if (isHistoryClearPending && url != BLANK_URL) {
+                    isHistoryClearPending = false
+                    clearHistory()
+                }
+                performanceMonitor.onPageFinished()
+            }
+
             override fun shouldOverrideUrlLoading(
                 view: WebView,
                 request: WebResourceRequest
@@ -33,12 +96,77 @@ open class WebViewX @JvmOverloads constructor(
         webSettings.setSupportZoom(true)
         webSettings.builtInZoomControls = true
         webSettings.displayZoomControls = false
-        webSettings.cacheMode = WebSettings.LOAD_NO_CACHE
         webSettings.domStorageEnabled = true
         webSettings.allowFileAccess = true
         webSettings.javaScriptCanOpenWindowsAutomatically = true
         webSettings.loadsImagesAutomatically = true
         webSettings.defaultTextEncodingName = "UTF-8"
+        applyCacheMode()
+    }
+
+    private fun applyCacheMode() {
+        settings.cacheMode = previewCacheMode.cacheMode
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // Service Worker 发出的请求使用单独的设置, 保持与页面一致
+            runCatching {
+                val serviceWorkerSettings = ServiceWorkerController.getInstance().serviceWorkerWebSettings
+                serviceWorkerSettings.cacheMode = previewCacheMode.cacheMode
+                serviceWorkerSettings.allowContentAccess = true
+                serviceWorkerSettings.allowFileAccess = true
+                serviceWorkerSettings.blockNetworkLoads = false
+            }.exceptionOrNull()?.printStackTrace()
+        }
+    }
+
+    /**
+     * 清除 HTTP 缓存, 以及当前页面注册的 Service Worker 与 CacheStorage, 然后重新加载页面
+     * */
+    fun clearPreviewCache() {
+        clearCache(true)
+        if (url == null) {
+            return
+        }
+        evaluateJavascript(CLEAR_SCRIPT, null)
+    }
+
+    /**
+     * 清空页面、历史记录与回调, 由 [WebViewPool] 在放回时调用
+     * */
+    internal fun reset() {
+        stopLoading()
+        webChromeClient = null
+        previewCacheMode = PreviewCacheMode.NoCache
+        consoleLog.clear()
+        performanceMonitor.onPageStarted()
+        clearFormData()
+        clearMatches()
+        isHistoryClearPending = false
+        loadUrl(BLANK_URL)
+    }
+
+    /**
+     * 由 [WebViewPool] 在取出时调用, 加载的第一个页面完成后清除之前的历史记录
+     * */
+    internal fun onObtained() {
+        isHistoryClearPending = true
+    }
+
+    /**
+     * 将 WebChromeClient 收到的控制台消息写入 [consoleLog]
+     * @return 是否应当提示用户, 见 [ConsoleLog.add]
+     * */
+    fun addConsoleMessage(consoleMessage: ConsoleMessage): Boolean {
+        val level = when (consoleMessage.messageLevel()) {
+            ConsoleMessage.MessageLevel.ERROR -> ConsoleLog.Level.Error
+            ConsoleMessage.MessageLevel.WARNING -> ConsoleLog.Level.Warning
+            else -> ConsoleLog.Level.Log
+        }
+        return consoleLog.add(
+            level,
+            consoleMessage.message(),
+            consoleMessage.sourceId() ?: "",
+            consoleMessage.lineNumber()
+        )
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.mucheng.web.devops.openapi.view
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ConsoleLogTest {
+
+    private var now = 0L
+
+    private val consoleLog = ConsoleLog(maxEntries = 3, notifyIntervalMillis = 1000L) { now }
+
+    @Test
+    fun collapsesConsecutiveDuplicates() {
+        repeat(50) {
+            consoleLog.add(ConsoleLog.Level.Error, "x is undefined", "http://127.0.0.1/main.js", 3)
+        }
+        consoleLog.add(ConsoleLog.Level.Log, "done", "", 0)
+
+        val entries = consoleLog.getEntries()
+        assertEquals(2, entries.size)
+        assertEquals(50, entries[0].count)
+        assertEquals("x is undefined (main.js:3) ×50", entries[0].toString())
+        assertEquals(50L, consoleLog.getErrorCount())
+    }
+
+    @Test
+    fun dropsOldestEntries() {
+        for (index in 0 until 5) {
+            consoleLog.add(ConsoleLog.Level.Warning, "warning $index", "", 0)
+        }
+
+        assertEquals(listOf("warning 2", "warning 3", "warning 4"), consoleLog.getEntries().map { it.message })
+    }
+
+    @Test
+    fun throttlesErrorNotifications() {
+        assertFalse(consoleLog.add(ConsoleLog.Level.Log, "log", "", 0))
+        assertTrue(consoleLog.add(ConsoleLog.Level.Error, "a", "", 0))
+        now = 500L
+        assertFalse(consoleLog.add(ConsoleLog.Level.Error, "b", "", 0))
+        now = 1000L
+        assertTrue(consoleLog.add(ConsoleLog.Level.Error, "c", "", 0))
+
+        consoleLog.clear()
+        assertTrue(consoleLog.add(ConsoleLog.Level.Error, "d", "", 0))
+        assertEquals(1L, consoleLog.getErrorCount())
+    }
+
+}
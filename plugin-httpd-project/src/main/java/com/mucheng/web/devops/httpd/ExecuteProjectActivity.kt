@@ -13,25 +13,39 @@ import android.webkit.ConsoleMessage
 import android.webkit.WebChromeClient
 import android.webkit.WebView
 import com.google.android.material.appbar.MaterialToolbar
-import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.progressindicator.LinearProgressIndicator
 import com.google.android.material.textview.MaterialTextView
 import com.mucheng.web.devops.openapi.R
 import com.mucheng.web.devops.openapi.util.NetworkUtil
+import com.mucheng.web.devops.openapi.view.PerformancePanel
+import com.mucheng.web.devops.openapi.view.PreviewCacheMode
+import com.mucheng.web.devops.openapi.view.WebViewPool
 import com.mucheng.web.devops.openapi.view.WebViewX
 import com.mucheng.webops.plugin.PluginActivity
+import com.mucheng.webops.plugin.data.DeviceProfile
+import com.mucheng.webops.plugin.log.LogViewerDialog
+import com.mucheng.webops.plugin.log.ServerLogs
+import com.mucheng.webops.plugin.server.BenchmarkDialog
+import com.mucheng.webops.plugin.server.LiveReload
 import es.dmoral.toasty.Toasty
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.launch
+import java.io.File
 
-class ExecuteProjectActivity(resources: Resources, val port: Int) :
-    PluginActivity(resources) {
+class ExecuteProjectActivity(
+    resources: Resources,
+    val port: Int,
+    private val projectDir: File,
+    private val serverLogs: ServerLogs?
+) : PluginActivity(resources) {
 
     private val progressStateFlow = MutableStateFlow(0)
 
     private lateinit var webView: WebViewX
 
+    private var liveReload: LiveReload? = null
+
     @SuppressLint("SetTextI18n")
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -58,7 +72,9 @@ class ExecuteProjectActivity(resources: Resources, val port: Int) :
             }
         }
 
-        webView = findViewById(R.id.webView)
+        // 使用预先初始化的 WebView, 避免打开预览时卡顿
+        webView = WebViewPool.obtain(findViewById(R.id.webViewContainer))
+        webView.previewCacheMode = PreviewCacheMode.of(workspace.get(PreviewCacheMode.WORKSPACE_KEY))
         webView.webChromeClient = object : WebChromeClient() {
 
             override fun onProgressChanged(view: WebView?, newProgress: Int) {
@@ -72,25 +88,19 @@ class ExecuteProjectActivity(resources: Resources, val port: Int) :
             }
 
             override fun onConsoleMessage(consoleMessage: ConsoleMessage): Boolean {
-                val level = consoleMessage.messageLevel()
-                val message = consoleMessage.message()
-                if (level == ConsoleMessage.MessageLevel.ERROR) {
-                    MaterialAlertDialogBuilder(activity)
-                        .setTitle("未捕获的 JS 异常")
-                        .setMessage(buildString {
-                            consoleMessage.sourceId()
-                            append("异常: $message").appendLine()
-                            append("在行: ${consoleMessage.lineNumber()}").appendLine()
-                            append("在源文件: ${consoleMessage.sourceId()}")
-                        })
-                        .setPositiveButton("确定", null)
-                        .show()
+                // 消息汇总到性能面板中, 错误只做节流后的提示, 报错频繁的页面不会弹出大量对话框
+                if (webView.addConsoleMessage(consoleMessage)) {
+                    Toasty.error(activity, "JS 异常: ${consoleMessage.message()}, 详见性能面板").show()
                 }
                 return super.onConsoleMessage(consoleMessage)
             }
 
         }
         webView.loadUrl("http://localhost:$port")
+        // 保存文件后自动刷新, 只修改了 CSS 时替换样式表而不重新加载页面
+        liveReload = LiveReload(File(projectDir, workspace.getName())) {
+            LiveReload.apply(webView, it)
+        }
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
@@ -134,10 +144,47 @@ class ExecuteProjectActivity(resources: Resources, val port: Int) :
                 manager.setPrimaryClip(clipData)
                 Toasty.success(activity, "复制成功").show()
             }
+
+            R.id.performance -> {
+                PerformancePanel(activity, mainScope, webView).show()
+            }
+
+            R.id.previewCache -> {
+                showPreviewCacheDialog(
+                    webView,
+                    File(File(projectDir, workspace.getName()), ".WebDevOps/Workspace.xml")
+                )
+            }
+
+            R.id.serverLog -> {
+                if (serverLogs != null) {
+                    LogViewerDialog(activity, mainScope, serverLogs).show()
+                }
+            }
+
+            R.id.benchmark -> {
+                showBenchmarkDialog()
+            }
         }
         return super.onOptionsItemSelected(item)
     }
 
+    private fun showBenchmarkDialog() {
+        val rootDir = File(projectDir, workspace.getName())
+        val workspaceDir = File(rootDir, ".WebDevOps")
+        BenchmarkDialog(
+            activity,
+            mainScope,
+            "http://127.0.0.1:$port/",
+            File(workspaceDir, "benchmark.log"),
+            workspace.get(RuntimeConfig.PROFILE_KEY) ?: RuntimeConfig.PROFILE_DEFAULT
+        ) {
+            RuntimeConfig.write(resources.assets, DeviceProfile.of(activity), rootDir, port, backup = true)
+            workspace.set(RuntimeConfig.PROFILE_KEY, RuntimeConfig.PROFILE_TUNED)
+            workspace.storeTo(File(workspaceDir, "Workspace.xml"))
+        }.show()
+    }
+
     override fun onResume() {
         super.onResume()
         webView.onResume()
@@ -150,7 +197,8 @@ class ExecuteProjectActivity(resources: Resources, val port: Int) :
 
     override fun onDestroy() {
         super.onDestroy()
-        webView.destroy()
+        liveReload?.close()
+        WebViewPool.recycle(webView)
     }
 
 }
\ No newline at end of file
@@ -17,12 +17,18 @@ import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.webops.plugin.PluginActivity
 import com.mucheng.webops.plugin.PluginMain
 import com.mucheng.webops.plugin.check.ProjectCreationChecker
+import com.mucheng.webops.plugin.command.ProcessSupervisor
+import com.mucheng.webops.plugin.command.ServiceLauncher
+import com.mucheng.webops.plugin.command.ServiceProbe
+import com.mucheng.webops.plugin.command.ServiceStartupDialog
 import com.mucheng.webops.plugin.command.ShellExecutor
 import com.mucheng.webops.plugin.data.CreateInfo
+import com.mucheng.webops.plugin.data.DeviceProfile
 import com.mucheng.webops.plugin.data.Files
 import com.mucheng.webops.plugin.data.ObservableValue
 import com.mucheng.webops.plugin.data.Workspace
 import com.mucheng.webops.plugin.data.info.ComponentInfo
+import com.mucheng.webops.plugin.log.ServerLogs
 import es.dmoral.toasty.Toasty
 import io.github.rosemoe.sora.langs.textmate.TextMateColorScheme
 import io.github.rosemoe.sora.langs.textmate.TextMateLanguage
@@ -46,6 +52,16 @@ class Main : PluginMain() {
 
     private lateinit var javaScriptIcon: Drawable
 
+    private var supervisor: ProcessSupervisor? = null
+
+    private var serverLogs: ServerLogs? = null
+
+    private var reapJob: Job? = null
+
+    private var runJob: Job? = null
+
+    private var stopJob: Job? = null
+
     @Suppress("DEPRECATION")
     @SuppressLint("UseCompatLoadingForDrawables")
     override fun onInit(
@@ -56,16 +72,14 @@ class Main : PluginMain() {
     ) {
         super.onInit(applicationContext, resources, appCoroutine, files)
 
-        addProject(
-            "Httpd 工程",
-            httpdProjectId,
-            "稳定级静态 Web 服务器",
-            resources.getDrawable(R.mipmap.httpd_logo)
-        )
-
         this.htmlIcon = resources.getDrawable(R.drawable.ic_file_html)
         this.cssIcon = resources.getDrawable(R.drawable.ic_file_css)
         this.javaScriptIcon = resources.getDrawable(R.drawable.ic_file_js)
+
+        // 结束应用上次被杀死时遗留的进程
+        reapJob = appCoroutine.launch(CoroutineName("ReapHttpdCoroutine")) {
+            ProcessSupervisor.reapOrphans(File("${files.FilesDir}/httpd/run"))
+        }
     }
 
     override fun onOpenProject(
@@ -80,22 +94,63 @@ class Main : PluginMain() {
         val httpdConfPath = "$projectPath/.WebDevOps/httpd.conf"
         val usrDir = File("${files.FilesDir}/httpd/usr")
         val binDir = File("$usrDir/bin")
+        var port = workspace.get("port")?.toIntOrNull()
+        port = if (port != null) {
+            Integer.min(65535, Integer.max(1025, port))
+        } else {
+            8080
+        }
 
-        appCoroutine.launch(CoroutineName("RunHttpdCoroutine")) {
+        val supervisor = ProcessSupervisor(File("${files.FilesDir}/httpd/run/${workspace.getName()}"))
+        this.supervisor = supervisor
+
+        // 跟踪服务器日志, 已有的日志文件只读取末尾的部分
+        val logDir = File("$usrDir/var/log/apache2")
+        val serverLogs = ServerLogs(appCoroutine)
+        serverLogs.addAccessLog("访问日志", File(logDir, "access_log"))
+        serverLogs.addErrorLog("错误日志", File(logDir, "error_log"))
+        serverLogs.addProcessOutput("进程输出", supervisor, "httpd")
+        this.serverLogs = serverLogs
+        val previousStopJob = stopJob
+        val reapJob = reapJob
+        val startupDialog = ServiceStartupDialog(activity, appCoroutine)
+        startupDialog.show()
+        val runJob = appCoroutine.launch(CoroutineName("RunHttpdCoroutine")) {
+            // 等待遗留进程被结束, 避免新启动的 httpd 被误杀或端口被占用
+            reapJob?.join()
+            // 等待上一个工程的进程退出, 释放端口
+            previousStopJob?.join()
+            supervisor.reapOrphans()
             withContext(Dispatchers.IO) {
                 ShellExecutor.execSuspend(files.FilesDir, listOf("chmod", "777", "-R", "httpd"))
                     .waitFor()
             }
             observableProgress.setValue(50)
 
-            withContext(Dispatchers.IO) {
-                ShellExecutor.execSuspend(binDir, listOf("./httpd", "-f", httpdConfPath))
-                    .waitFor()
+            // 以前台模式运行, 由 supervisor 记录 PID 并在崩溃后重启
+            val state = ServiceLauncher(
+                listOf(
+                    ServiceLauncher.Service(
+                        "httpd", binDir, listOf("./httpd", "-f", httpdConfPath, "-D", "FOREGROUND"),
+                        ServiceProbe.tcp(port)
+                    )
+                ),
+                observableStates = startupDialog.observableStates,
+                supervisor = supervisor
+            ).startAll(observableProgress, 50).first()
+
+            if (state.status == ServiceLauncher.Status.Failed) {
+                withContext(Dispatchers.Main) {
+                    Toasty.error(activity, "服务启动失败: httpd (${state.message})").show()
+                }
             }
             observableProgress.setValue(100)
-        }.invokeOnCompletion {
-            if (it != null) {
-                activity.runOnUiThread {
+        }
+        this.runJob = runJob
+        runJob.invokeOnCompletion {
+            activity.runOnUiThread {
+                startupDialog.dismiss()
+                if (it != null) {
                     observableProgress.setValue(100)
                 }
             }
@@ -108,8 +163,22 @@ class Main : PluginMain() {
         editor: CodeEditor
     ) {
         super.onCloseProject(activity, workspace, editor)
-        val binDir = File("${files.FilesDir}/httpd/usr/bin")
-        ShellExecutor.exec(binDir, listOf("./httpd", "-k", "stop"))
+        serverLogs?.close()
+        serverLogs = null
+        val supervisor = supervisor ?: return
+        val runJob = runJob
+        this.supervisor = null
+        this.runJob = null
+        // 只停止本工程启动的进程
+        stopJob = appCoroutine.launch(CoroutineName("StopHttpdCoroutine")) {
+            runJob?.cancelAndJoin()
+            supervisor.stopAll()
+        }
+    }
+
+    override fun onDeactivate(): Boolean {
+        // 工程仍在运行或进程尚未停止时保留插件, 由当前实例继续管理这些进程
+        return supervisor == null && stopJob?.isActive != true
     }
 
     override suspend fun onRenameProject(
@@ -303,17 +372,11 @@ class Main : PluginMain() {
             workspace.setCreationTime(TimeUtil.getFormattedTime())
             workspace.setOpenFile("$rootDir/index.html")
             workspace.set("port", port.toString())
+            workspace.set(RuntimeConfig.PROFILE_KEY, RuntimeConfig.PROFILE_TUNED)
             workspace.storeTo(workspaceFile)
 
-            resources.assets.open("httpd.conf").bufferedReader().use {
-                val httpdFile = File("$workspaceDir/httpd.conf")
-                httpdFile.writeText(
-                    it.readText()
-                        .replace("\$PROJECT_DIR", rootDir.absolutePath)
-                        .replace("\$PORT", port.toString())
-
-                )
-            }
+            // 按设备的核心数与内存生成配置
+            RuntimeConfig.write(resources.assets, DeviceProfile.of(applicationContext), rootDir, port)
 
             val httpdProjectTemplateBufferedInputStream =
                 resources.assets.open("httpd-project-template.zip").buffered()
@@ -345,18 +408,16 @@ class Main : PluginMain() {
         } else {
             8080
         }
-        return ExecuteProjectActivity(resources, port)
+        return ExecuteProjectActivity(resources, port, files.ProjectDir, serverLogs)
     }
 
-    override fun getFileItemIcon(file: File): Drawable? {
-        if (file.isFile) {
-            when (file.extension) {
-                "html", "htm" -> return htmlIcon
-                "css" -> return cssIcon
-                "js" -> return javaScriptIcon
-            }
+    override fun getFileItemIcon(extension: String): Drawable? {
+        when (extension) {
+            "html", "htm" -> return htmlIcon
+            "css" -> return cssIcon
+            "js" -> return javaScriptIcon
         }
-        return super.getFileItemIcon(file)
+        return super.getFileItemIcon(extension)
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.mucheng.web.devops.httpd
+
+import android.content.res.AssetManager
+import com.mucheng.webops.plugin.data.ConfigTemplate
+import com.mucheng.webops.plugin.data.DeviceProfile
+import java.io.File
+
+/**
+ * 根据设备性能生成工程的 httpd.conf
+ * */
+object RuntimeConfig {
+
+    // Workspace 中记录工程配置来源的键, 性能测试结果按此分组
+    const val PROFILE_KEY = "configProfile"
+    const val PROFILE_DEFAULT = "default"
+    const val PROFILE_TUNED = "tuned"
+
+    /**
+     * 写入工程 .WebDevOps 目录下的 httpd.conf, 已存在时覆盖
+     * @param backup 覆盖前是否将原文件备份为 .bak
+     * */
+    fun write(assets: AssetManager, profile: DeviceProfile, rootDir: File, port: Int, backup: Boolean = false) {
+        val values = httpdValues(profile) + mapOf(
+            "PROJECT_DIR" to rootDir.absolutePath,
+            "PORT" to port.toString()
+        )
+        assets.open("httpd.conf").bufferedReader().use {
+            ConfigTemplate.write(File(rootDir, ".WebDevOps/httpd.conf"), ConfigTemplate.render(it.readText(), values), backup)
+        }
+    }
+
+    fun httpdValues(profile: DeviceProfile): Map<String, String> {
+        // 至少两个进程, MaxSpareThreads 才能不小于 MinSpareThreads + ThreadsPerChild
+        val serverLimit = if (profile.isLowRamDevice) 2 else profile.cpuCount.coerceIn(2, 4)
+        val threadsPerChild = if (profile.isLowRamDevice) 8 else 16
+        return mapOf(
+            "SERVER_LIMIT" to serverLimit.toString(),
+            "THREADS_PER_CHILD" to threadsPerChild.toString(),
+            "MAX_REQUEST_WORKERS" to (serverLimit * threadsPerChild).toString(),
+            "DEFLATE_COMPRESSION_LEVEL" to (if (profile.isLowRamDevice) 1 else 5).toString()
+        )
+    }
+
+}
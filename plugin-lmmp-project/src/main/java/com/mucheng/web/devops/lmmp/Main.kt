@@ -18,18 +18,20 @@ import com.mucheng.web.devops.openapi.view.LoadingComponent
 import com.mucheng.webops.plugin.PluginActivity
 import com.mucheng.webops.plugin.PluginMain
 import com.mucheng.webops.plugin.check.ProjectCreationChecker
-import com.mucheng.webops.plugin.command.ShellExecutor
+import com.mucheng.webops.plugin.command.ServiceLauncher
+import com.mucheng.webops.plugin.command.ServiceStartupDialog
 import com.mucheng.webops.plugin.data.CreateInfo
+import com.mucheng.webops.plugin.data.DeviceProfile
 import com.mucheng.webops.plugin.data.Files
 import com.mucheng.webops.plugin.data.ObservableValue
 import com.mucheng.webops.plugin.data.Workspace
 import com.mucheng.webops.plugin.data.info.ComponentInfo
+import com.mucheng.webops.plugin.log.ServerLogs
 import es.dmoral.toasty.Toasty
 import io.github.rosemoe.sora.widget.CodeEditor
 import kotlinx.coroutines.*
 import net.lingala.zip4j.io.inputstream.ZipInputStream
 import java.io.File
-import java.net.URL
 
 class Main : PluginMain() {
 
@@ -47,6 +49,12 @@ class Main : PluginMain() {
 
     private lateinit var phpIcon: Drawable
 
+    private lateinit var servicePool: ServicePool
+
+    private var runJob: Job? = null
+
+    private var serverLogs: ServerLogs? = null
+
     @Suppress("DEPRECATION")
     @SuppressLint("UseCompatLoadingForDrawables")
     override fun onInit(
@@ -57,11 +65,20 @@ class Main : PluginMain() {
     ) {
         super.onInit(applicationContext, resources, appCoroutine, files)
 
-        addProject("LMMP 工程", lmmpProjectId, "即为 Nginx + Php + Mysql 工程")
         this.htmlIcon = resources.getDrawable(R.drawable.ic_file_html)
         this.cssIcon = resources.getDrawable(R.drawable.ic_file_css)
         this.javaScriptIcon = resources.getDrawable(R.drawable.ic_file_js)
         this.phpIcon = resources.getDrawable(R.drawable.ic_file_php)
+
+        // 结束应用上次被杀死时遗留的进程
+        this.servicePool = ServicePool(files.FilesDir, appCoroutine)
+        appCoroutine.launch(CoroutineName("PrepareLmmpCoroutine")) {
+            servicePool.prepare()
+        }
+    }
+
+    override fun onDeactivate(): Boolean {
+        return servicePool.tryClose()
     }
 
     @Suppress("SpellCheckingInspection")
@@ -75,10 +92,8 @@ class Main : PluginMain() {
         this.workspace = workspace
 
         val projectPath = "${files.ProjectDir}/${workspace.getName()}"
-        val nginxConfPath = "$projectPath/.WebDevOps/nginx.conf"
-        val phpIniConfPath = "$projectPath/.WebDevOps/php.ini"
-        val usrDir = File("${files.FilesDir}/lmmp/usr")
-        val binDir = File("$usrDir/bin")
+        val nginxConfFile = File("$projectPath/.WebDevOps/nginx.conf")
+        val phpIniFile = File("$projectPath/.WebDevOps/php.ini")
         var port = workspace.get("port")?.toIntOrNull()
         port = if (port != null) {
             Integer.min(65535, Integer.max(1025, port))
@@ -86,52 +101,38 @@ class Main : PluginMain() {
             8080
         }
 
-        appCoroutine.launch(CoroutineName("RunLmmpCoroutine")) {
-            withContext(Dispatchers.IO) {
-                ShellExecutor.execSuspend(files.FilesDir, listOf("chmod", "777", "-R", "lmmp"))
-                    .waitFor()
-            }
-            observableProgress.setValue(25)
-
-            withContext(Dispatchers.IO) {
-                ShellExecutor.execSuspend(binDir, listOf("./nginx", "-c", nginxConfPath))
-                    .waitFor()
-            }
-            observableProgress.setValue(50)
-
-            withContext(Dispatchers.IO) {
-                ShellExecutor.execSuspend(binDir, listOf("./php-fpm", "-c", phpIniConfPath))
-                    .waitFor()
-            }
-            observableProgress.setValue(75)
+        // 跟踪服务器日志, 已有的日志文件只读取末尾的部分
+        val logDir = File("${files.FilesDir}/lmmp/usr/var/log/nginx")
+        val serverLogs = ServerLogs(appCoroutine)
+        serverLogs.addAccessLog("访问日志", File(logDir, "access.log"))
+        serverLogs.addErrorLog("错误日志", File(logDir, "error.log"))
+        serverLogs.addProcessOutput("进程输出", servicePool.supervisor, "nginx", "php-fpm", "mysqld")
+        this.serverLogs = serverLogs
+
+        val startupDialog = ServiceStartupDialog(activity, appCoroutine)
+        startupDialog.show()
+        val runJob = appCoroutine.launch(CoroutineName("RunLmmpCoroutine")) {
+            // 服务已在运行时只切换配置, 不重新启动
+            val states = servicePool.acquire(
+                nginxConfFile, phpIniFile, port, observableProgress, startupDialog.observableStates
+            )
 
-            launch(Dispatchers.IO) {
-                val process = ShellExecutor.execSuspend(binDir, listOf("./mysqld"))
-                process.waitFor()
-            }
-            withContext(Dispatchers.IO) {
-                while (isActive) {
-                    delay(60)
-                    try {
-                        val url = URL("http://localhost:$port")
-                        val connection = url.openConnection()
-                        connection.connect()
-                        val input = connection.getInputStream().bufferedReader().readText()
-                        if (!((input.contains("Uncaught mysqli_sql_exception:") && input.contains("No such file or directory in")) || (input.contains(
-                                "Uncaught mysqli_sql_exception:"
-                            ) && input.contains("Connection refused in")))
-                        ) {
-                            break
-                        }
-                    } catch (e: Throwable) {
-                        break
-                    }
+            val failedStates = states.filter { it.status == ServiceLauncher.Status.Failed }
+            if (failedStates.isNotEmpty()) {
+                withContext(Dispatchers.Main) {
+                    Toasty.error(
+                        activity,
+                        "服务启动失败: ${failedStates.joinToString { "${it.name} (${it.message})" }}"
+                    ).show()
                 }
             }
             observableProgress.setValue(100)
-        }.invokeOnCompletion {
-            if (it != null) {
-                activity.runOnUiThread {
+        }
+        this.runJob = runJob
+        runJob.invokeOnCompletion {
+            activity.runOnUiThread {
+                startupDialog.dismiss()
+                if (it != null) {
                     observableProgress.setValue(100)
                 }
             }
@@ -145,10 +146,12 @@ class Main : PluginMain() {
         editor: CodeEditor
     ) {
         super.onCloseProject(activity, workspace, editor)
-        val binDir = File("${files.FilesDir}/lmmp/usr/bin")
-        ShellExecutor.exec(binDir, listOf("./nginx", "-s", "stop"))
-        ShellExecutor.killall("php-fpm")
-        ShellExecutor.killall("mysqld")
+        runJob?.cancel()
+        runJob = null
+        serverLogs?.close()
+        serverLogs = null
+        // 服务保持运行, 供下一个打开的工程复用
+        servicePool.release()
     }
 
     override fun onOpenFile(
@@ -302,24 +305,11 @@ class Main : PluginMain() {
             workspace.setCreationTime(TimeUtil.getFormattedTime())
             workspace.setOpenFile("$rootDir/index.php")
             workspace.set("port", port.toString())
+            workspace.set(RuntimeConfig.PROFILE_KEY, RuntimeConfig.PROFILE_TUNED)
             workspace.storeTo(workspaceFile)
 
-            resources.assets.open("nginx.conf").bufferedReader().use {
-                val nginxFile = File("$workspaceDir/nginx.conf")
-                nginxFile.writeText(
-                    it.readText()
-                        .replace("\$PROJECT_DIR", rootDir.absolutePath)
-                        .replace("\$PORT", port.toString())
-
-                )
-            }
-
-            resources.assets.open("php.ini").bufferedReader().use {
-                val phpIniFile = File("$workspaceDir/php.ini")
-                phpIniFile.writeText(
-                    it.readText()
-                )
-            }
+            // 按设备的核心数与内存生成配置
+            RuntimeConfig.write(resources.assets, DeviceProfile.of(applicationContext), rootDir, port)
 
             val lmmpProjectTemplateBufferedInputStream =
                 resources.assets.open("lmmp-project-template.zip").buffered()
@@ -370,19 +360,17 @@ class Main : PluginMain() {
         } else {
             8080
         }
-        return ExecuteProjectActivity(resources, port)
+        return ExecuteProjectActivity(resources, port, files.ProjectDir, serverLogs)
     }
 
-    override fun getFileItemIcon(file: File): Drawable? {
-        if (file.isFile) {
-            when (file.extension) {
-                "html", "htm" -> return htmlIcon
-                "css" -> return cssIcon
-                "js" -> return javaScriptIcon
-                "php" -> phpIcon
-            }
+    override fun getFileItemIcon(extension: String): Drawable? {
+        when (extension) {
+            "html", "htm" -> return htmlIcon
+            "css" -> return cssIcon
+            "js" -> return javaScriptIcon
+            "php" -> return phpIcon
         }
-        return super.getFileItemIcon(file)
+        return super.getFileItemIcon(extension)
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.mucheng.web.devops.lmmp
+
+import android.content.res.AssetManager
+import com.mucheng.webops.plugin.data.ConfigTemplate
+import com.mucheng.webops.plugin.data.DeviceProfile
+import java.io.File
+
+/**
+ * 根据设备性能生成工程的 nginx.conf 与 php.ini
+ * */
+object RuntimeConfig {
+
+    // Workspace 中记录工程配置来源的键, 性能测试结果按此分组
+    const val PROFILE_KEY = "configProfile"
+    const val PROFILE_DEFAULT = "default"
+    const val PROFILE_TUNED = "tuned"
+
+    // php-fpm 默认进程池的 pm.max_children
+    private const val PHP_FPM_MAX_CHILDREN = 5
+
+    /**
+     * 写入工程 .WebDevOps 目录下的配置文件, 已存在时覆盖
+     * @param backup 覆盖前是否将原文件备份为 .bak
+     * */
+    fun write(assets: AssetManager, profile: DeviceProfile, rootDir: File, port: Int, backup: Boolean = false) {
+        val workspaceDir = File(rootDir, ".WebDevOps")
+        val values = nginxValues(profile) + phpValues(profile) + mapOf(
+            "PROJECT_DIR" to rootDir.absolutePath,
+            "PORT" to port.toString()
+        )
+
+        assets.open("nginx.conf").bufferedReader().use {
+            ConfigTemplate.write(File(workspaceDir, "nginx.conf"), ConfigTemplate.render(it.readText(), values), backup)
+        }
+
+        assets.open("php.ini").bufferedReader().use {
+            ConfigTemplate.write(File(workspaceDir, "php.ini"), ConfigTemplate.render(it.readText(), values), backup)
+        }
+    }
+
+    fun nginxValues(profile: DeviceProfile): Map<String, String> {
+        val workerProcesses = profile.cpuCount.coerceAtMost(if (profile.isLowRamDevice) 2 else 4)
+        return mapOf(
+            "WORKER_PROCESSES" to workerProcesses.toString(),
+            "WORKER_CONNECTIONS" to (if (profile.isLowRamDevice) 256 else 1024).toString(),
+            "GZIP_COMP_LEVEL" to (if (profile.isLowRamDevice) 1 else 5).toString(),
+            // 每个 worker 各自保留空闲连接, 总数不能占满 php-fpm 的子进程
+            "FASTCGI_KEEPALIVE" to ((PHP_FPM_MAX_CHILDREN - 1) / workerProcesses).coerceAtLeast(1).toString()
+        )
+    }
+
+    fun phpValues(profile: DeviceProfile): Map<String, String> {
+        val opcacheMemory = when {
+            profile.isLowRamDevice -> 32
+            profile.totalMemoryMb < 4096 -> 64
+            else -> 128
+        }
+        return mapOf(
+            "OPCACHE_MEMORY_CONSUMPTION" to opcacheMemory.toString(),
+            "OPCACHE_INTERNED_STRINGS_BUFFER" to (opcacheMemory / 8).toString(),
+            "OPCACHE_MAX_ACCELERATED_FILES" to (if (profile.isLowRamDevice) 2000 else 10000).toString(),
+            "REALPATH_CACHE_SIZE" to if (profile.isLowRamDevice) "1024k" else "4096k"
+        )
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.mucheng.web.devops.lmmp
+
+import com.mucheng.webops.plugin.command.ProcessSupervisor
+import com.mucheng.webops.plugin.command.ServiceLauncher
+import com.mucheng.webops.plugin.command.ServiceProbe
+import com.mucheng.webops.plugin.command.ShellExecutor
+import com.mucheng.webops.plugin.data.ObservableValue
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * nginx、php-fpm 与 mysqld 的服务池
+ *
+ * 关闭工程后服务继续运行, 打开其他工程时只切换配置而不重启:
+ * nginx 通过 include 加载当前工程的站点配置, 切换后发送 SIGHUP (与 nginx -s reload 相同) 重新加载;
+ * php-fpm 使用共享的 php.ini, 内容变化时发送 SIGUSR2 平滑重启;
+ * mysqld 的数据目录本就由所有工程共享, 一直复用;
+ * 没有工程使用超过 [IDLE_TIMEOUT_MILLIS] 后停止所有服务
+ * */
+class ServicePool(filesDir: File, private val scope: CoroutineScope) {
+
+    companion object {
+        private const val IDLE_TIMEOUT_MILLIS = 5 * 60_000L
+
+        private const val SIGNAL_HUP = 1
+        private const val SIGNAL_USR2 = 12
+
+        // 用于确认 nginx 已加载新站点配置的虚拟主机与响应头
+        private const val PROBE_HOST = "webdevops-probe"
+        private const val PROBE_HEADER = "X-WebDevOps-Site"
+
+        private const val NGINX = "nginx"
+        private const val PHP_FPM = "php-fpm"
+        private const val MYSQLD = "mysqld"
+    }
+
+    private val lmmpDir = File(filesDir, "lmmp")
+
+    private val usrDir = File(lmmpDir, "usr")
+
+    private val binDir = File(usrDir, "bin")
+
+    private val runDir = File(lmmpDir, "run")
+
+    private val nginxConfFile = File(runDir, "nginx.conf")
+
+    private val siteConfFile = File(runDir, "site.conf")
+
+    private val phpIniFile = File(runDir, "php.ini")
+
+    /**
+     * 监管池中所有进程, 可用于收集进程输出
+     * */
+    val supervisor = ProcessSupervisor(runDir)
+
+    private val mutex = Mutex()
+
+    private var isPrepared = false
+
+    private var idleJob: Job? = null
+
+    // 每次切换站点配置递增, 探测到对应的响应头说明 nginx 已完成重新加载
+    private var siteGeneration = 0
+
+    // 当前 nginx 是否直接使用工程的完整配置 (无法拆分出站点配置时)
+    private var isNginxStandalone = false
+
+    /**
+     * 结束上次遗留的进程并设置可执行权限, 只执行一次
+     * */
+    suspend fun prepare() {
+        mutex.withLock {
+            prepareLocked()
+        }
+    }
+
+    private suspend fun prepareLocked() {
+        if (isPrepared) {
+            return
+        }
+        ProcessSupervisor.reapOrphans(runDir)
+        withContext(Dispatchers.IO) {
+            ShellExecutor.execSuspend(lmmpDir.parentFile!!, listOf("chmod", "777", "-R", "lmmp"))
+                .waitFor()
+        }
+        isPrepared = true
+    }
+
+    /**
+     * 为工程准备服务, 已在运行的服务只重新加载配置
+     * @param projectNginxConf 工程的 nginx.conf
+     * @param projectPhpIni 工程的 php.ini
+     * @param port 工程的 HTTP 端口
+     * @param observableStates 每个服务的启动状态
+     * */
+    suspend fun acquire(
+        projectNginxConf: File,
+        projectPhpIni: File,
+        port: Int,
+        observableProgress: ObservableValue<Int>,
+        observableStates: ObservableValue<List<ServiceLauncher.ServiceState>>? = null
+    ): List<ServiceLauncher.ServiceState> {
+        return mutex.withLock {
+            idleJob?.cancel()
+            idleJob = null
+            prepareLocked()
+            observableProgress.setValue(10)
+
+            val services = listOf(
+                withContext(Dispatchers.IO) { nginxService(projectNginxConf, port) },
+                withContext(Dispatchers.IO) { phpFpmService(projectPhpIni) },
+                ServiceLauncher.Service(
+                    MYSQLD, binDir, listOf("./mysqld"),
+                    ServiceProbe.mysql(File(usrDir, "var/run/mysqld.sock")),
+                    timeoutMillis = 30_000L,
+                    reuseRunning = true
+                )
+            )
+            ServiceLauncher(services, observableStates, supervisor).startAll(observableProgress, 10)
+        }
+    }
+
+    /**
+     * 工程关闭后调用, 空闲超时后停止所有服务
+     * */
+    fun release() {
+        idleJob?.cancel()
+        idleJob = scope.launch(CoroutineName("IdleServicePoolCoroutine")) {
+            delay(IDLE_TIMEOUT_MILLIS)
+            mutex.withLock {
+                supervisor.stopAll()
+            }
+        }
+    }
+
+    /**
+     * 插件被释放前调用
+     * 仍有服务运行时返回 false 拒绝释放, 由当前服务池继续管理这些进程直到空闲超时
+     * */
+    fun tryClose(): Boolean {
+        if (listOf(NGINX, PHP_FPM, MYSQLD).any { supervisor.isRunning(it) }) {
+            return false
+        }
+        idleJob?.cancel()
+        idleJob = null
+        return true
+    }
+
+    /**
+     * 立即停止所有服务
+     * */
+    suspend fun stopAll() {
+        idleJob?.cancel()
+        idleJob = null
+        mutex.withLock {
+            supervisor.stopAll()
+        }
+    }
+
+    private fun nginxService(projectNginxConf: File, port: Int): ServiceLauncher.Service {
+        val projectConf = projectNginxConf.readText()
+        val siteConf = extractHttpBlock(projectConf)
+        if (siteConf == null) {
+            // 工程配置无法拆分, 使用完整配置重新启动
+            isNginxStandalone = true
+            return ServiceLauncher.Service(
+                NGINX, binDir,
+                listOf("./nginx", "-c", projectNginxConf.absolutePath, "-g", "daemon off;"),
+                ServiceProbe.tcp(port)
+            )
+        }
+
+        val generation = (++siteGeneration).toString()
+        runDir.mkdirs()
+        siteConfFile.writeText(
+            buildString {
+                append(siteConf).appendLine()
+                appendLine("server {")
+                appendLine("    listen $port;")
+                appendLine("    server_name $PROBE_HOST;")
+                appendLine("    access_log off;")
+                appendLine("    location / {")
+                appendLine("        add_header $PROBE_HEADER $generation;")
+                appendLine("        return 204;")
+                appendLine("    }")
+                appendLine("}")
+            }
+        )
+        // 主配置沿用工程配置中的 worker 参数与错误日志, 变化后同样通过重新加载生效
+        val workerProcesses = findDirective(projectConf, "worker_processes") ?: "1"
+        val workerConnections = findDirective(projectConf, "worker_connections") ?: "1024"
+        val errorLog = findDirective(projectConf, "error_log")
+        val nginxConf = buildString {
+            appendLine("worker_processes  $workerProcesses;")
+            if (errorLog != null) {
+                appendLine("error_log  $errorLog;")
+            }
+            appendLine("pid  ${File(runDir, "nginx.master.pid").absolutePath};")
+            appendLine("events {")
+            appendLine("    worker_connections  $workerConnections;")
+            appendLine("}")
+            appendLine("http {")
+            appendLine("    include  ${siteConfFile.absolutePath};")
+            appendLine("}")
+        }
+        if (!nginxConfFile.exists() || nginxConfFile.readText() != nginxConf) {
+            nginxConfFile.writeText(nginxConf)
+        }
+
+        val reuseRunning = !isNginxStandalone && supervisor.isRunning(NGINX)
+        if (reuseRunning) {
+            supervisor.sendSignal(NGINX, SIGNAL_HUP)
+        }
+        isNginxStandalone = false
+        return ServiceLauncher.Service(
+            NGINX, binDir,
+            listOf("./nginx", "-c", nginxConfFile.absolutePath, "-g", "daemon off;"),
+            ServiceProbe.httpHeader(port, PROBE_HOST, PROBE_HEADER, generation),
+            reuseRunning = reuseRunning
+        )
+    }
+
+    private fun phpFpmService(projectPhpIni: File): ServiceLauncher.Service {
+        val phpIni = projectPhpIni.readText()
+        val isChanged = !phpIniFile.exists() || phpIniFile.readText() != phpIni
+        if (isChanged) {
+            runDir.mkdirs()
+            phpIniFile.writeText(phpIni)
+        }
+        val reuseRunning = supervisor.isRunning(PHP_FPM)
+        if (reuseRunning && isChanged) {
+            // php-fpm 收到 SIGUSR2 后重新执行自身, 监听的端口保持不变
+            supervisor.sendSignal(PHP_FPM, SIGNAL_USR2)
+        }
+        return ServiceLauncher.Service(
+            PHP_FPM, binDir,
+            listOf("./php-fpm", "-F", "-c", phpIniFile.absolutePath),
+            ServiceProbe.fastCgi(9000),
+            reuseRunning = reuseRunning
+        )
+    }
+
+    /**
+     * 查找未被注释的指令的值, 例如 worker_processes
+     * */
+    private fun findDirective(conf: String, name: String): String? {
+        return Regex("(?m)^[^#\\n]*\\b$name\\s+([^;\\s]+)\\s*;").find(conf)?.groupValues?.get(1)
+    }
+
+    /**
+     * 取出配置中 http 块的内容, 作为 include 的站点配置; 找不到或括号不匹配时返回 null
+     * */
+    private fun extractHttpBlock(conf: String): String? {
+        val match = Regex("(^|[\\s;}])http\\s*\\{").find(conf) ?: return null
+        val start = match.range.last + 1
+        var depth = 1
+        var index = start
+        while (index < conf.length) {
+            when (conf[index]) {
+                '#' -> {
+                    // 跳过注释
+                    val end = conf.indexOf('\n', index)
+                    index = if (end == -1) conf.length else end
+                    continue
+                }
+
+                '{' -> ++depth
+                '}' -> {
+                    --depth
+                    if (depth == 0) {
+                        return conf.substring(start, index)
+                    }
+                }
+            }
+            ++index
+        }
+        return null
+    }
+
+}
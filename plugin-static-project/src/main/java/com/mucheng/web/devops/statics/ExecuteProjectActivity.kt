@@ -19,20 +19,42 @@ import com.google.android.material.textview.MaterialTextView
 import com.mucheng.web.devops.openapi.R
 import com.mucheng.web.devops.openapi.R.id
 import com.mucheng.web.devops.openapi.R.layout
+import com.mucheng.web.devops.openapi.util.NetworkUtil
+import com.mucheng.web.devops.openapi.view.PerformancePanel
+import com.mucheng.web.devops.openapi.view.PreviewCacheMode
+import com.mucheng.web.devops.openapi.view.WebViewPool
 import com.mucheng.web.devops.openapi.view.WebViewX
 import com.mucheng.webops.plugin.PluginActivity
+import com.mucheng.webops.plugin.server.LiveReload
+import com.mucheng.webops.plugin.server.StaticFileServer
 import es.dmoral.toasty.Toasty
 import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
 
 
-class ExecuteProjectActivity(resources: Resources) : PluginActivity(resources) {
+class ExecuteProjectActivity(resources: Resources, private val projectDir: File) :
+    PluginActivity(resources) {
+
+    companion object {
+        // 保存在 Workspace 中, 为 "true" 时允许局域网内的设备访问预览服务器
+        private const val LAN_ACCESS_KEY = "lanAccess"
+    }
 
     private val progressStateFlow = MutableStateFlow(0)
 
     private lateinit var webView: WebViewX
 
+    private var server: StaticFileServer? = null
+
+    private var liveReload: LiveReload? = null
+
+    // 首页相对于工程根目录的 URL 路径, 不在工程目录中时为 null
+    private var indexPath: String? = null
+
     @SuppressLint("SetTextI18n")
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -60,7 +82,9 @@ class ExecuteProjectActivity(resources: Resources) : PluginActivity(resources) {
         }
 
 
-        webView = findViewById(id.webView)
+        // 使用预先初始化的 WebView, 避免打开预览时卡顿
+        webView = WebViewPool.obtain(findViewById(id.webViewContainer))
+        webView.previewCacheMode = PreviewCacheMode.of(workspace.get(PreviewCacheMode.WORKSPACE_KEY))
         webView.webChromeClient = object : WebChromeClient() {
 
             override fun onProgressChanged(view: WebView?, newProgress: Int) {
@@ -74,31 +98,49 @@ class ExecuteProjectActivity(resources: Resources) : PluginActivity(resources) {
             }
 
             override fun onConsoleMessage(consoleMessage: ConsoleMessage): Boolean {
-                val level = consoleMessage.messageLevel()
-                val message = consoleMessage.message()
-                if (level == ConsoleMessage.MessageLevel.ERROR) {
-                    MaterialAlertDialogBuilder(activity)
-                        .setTitle("未捕获的 JS 异常")
-                        .setMessage(buildString {
-                            consoleMessage.sourceId()
-                            append("异常: $message").appendLine()
-                            append("在行: ${consoleMessage.lineNumber()}").appendLine()
-                            append("在源文件: ${consoleMessage.sourceId()}")
-                        })
-                        .setPositiveButton("确定", null)
-                        .show()
+                // 消息汇总到性能面板中, 错误只做节流后的提示, 报错频繁的页面不会弹出大量对话框
+                if (webView.addConsoleMessage(consoleMessage)) {
+                    Toasty.error(activity, "JS 异常: ${consoleMessage.message()}, 详见性能面板").show()
                 }
                 return super.onConsoleMessage(consoleMessage)
             }
 
         }
 
-        val filePath = "file://${workspace.get("indexPage")}"
-        webView.loadUrl(filePath)
+        val indexPage = File(workspace.get("indexPage") ?: return)
+        val rootDir = File(projectDir, workspace.getName())
+        indexPath = LiveReload.toUrlPath(rootDir, indexPage)
+        // 在主线程中创建并保存实例, onDestroy 时总能取到; 默认只允许本机访问
+        val host = if (isLanAccessEnabled()) StaticFileServer.ANY_HOST else StaticFileServer.LOCAL_HOST
+        val server = StaticFileServer(rootDir, host = host, liveReload = true)
+        this.server = server
+        mainScope.launch(CoroutineName("StartServerCoroutine")) {
+            // 通过本地 HTTP 服务器访问, 支持 fetch 与 ES Module
+            val port = withContext(Dispatchers.IO) {
+                runCatching { server.start() }.onFailure { it.printStackTrace() }.getOrNull()
+            }
+            val path = indexPath
+            if (port != null && path != null) {
+                // 保存文件后通过 SSE 通知页面, 局域网中打开的页面同样生效
+                liveReload = LiveReload(rootDir) { server.publish(it) }
+                webView.loadUrl("http://127.0.0.1:$port$path")
+            } else {
+                liveReload = LiveReload(rootDir) { LiveReload.apply(webView, it) }
+                webView.loadUrl("file://${indexPage.absolutePath}")
+            }
+        }.invokeOnCompletion {
+            // 启动完成前界面已被销毁, onDestroy 中的 stop 先于 start 执行, 此处再停止一次
+            if (it != null) {
+                server.stop()
+            }
+        }
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
         activity.menuInflater.inflate(R.menu.menu_execute_project, menu)
+        // 内置的静态服务器没有可调整的配置, 也不写日志文件
+        menu.findItem(R.id.benchmark)?.isVisible = false
+        menu.findItem(R.id.serverLog)?.isVisible = false
         return super.onCreateOptionsMenu(menu)
     }
 
@@ -131,12 +173,56 @@ class ExecuteProjectActivity(resources: Resources) : PluginActivity(resources) {
             }
 
             id.copyPrivateLink -> {
-                Toasty.info(activity, "静态工程没有局域网链接").show()
+                val port = server?.localPort ?: -1
+                val path = indexPath
+                if (port == -1 || path == null) {
+                    Toasty.info(activity, "本地服务器未启动").show()
+                } else if (!isLanAccessEnabled()) {
+                    showLanAccessDialog()
+                } else {
+                    val manager =
+                        activity.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
+                    val clipData =
+                        ClipData.newPlainText("链接", "http://${NetworkUtil.localIPAddress}:$port$path")
+                    manager.setPrimaryClip(clipData)
+                    Toasty.success(activity, "复制成功").show()
+                }
+            }
+
+            id.performance -> {
+                PerformancePanel(activity, mainScope, webView).show()
+            }
+
+            id.previewCache -> {
+                showPreviewCacheDialog(
+                    webView,
+                    File(File(projectDir, workspace.getName()), ".WebDevOps/Workspace.xml")
+                )
             }
         }
         return super.onOptionsItemSelected(item)
     }
 
+    private fun isLanAccessEnabled(): Boolean {
+        return workspace.get(LAN_ACCESS_KEY) == "true"
+    }
+
+    /**
+     * 局域网访问需要用户确认, 开启后重新打开预览时生效
+     * */
+    private fun showLanAccessDialog() {
+        MaterialAlertDialogBuilder(activity)
+            .setTitle("允许局域网访问")
+            .setMessage("预览服务器当前只允许本机访问. 开启后, 同一局域网内的设备都可以访问此工程中的文件, 重新打开预览后生效.")
+            .setNeutralButton("取消", null)
+            .setPositiveButton("开启") { _, _ ->
+                workspace.set(LAN_ACCESS_KEY, "true")
+                storeWorkspace(File(File(projectDir, workspace.getName()), ".WebDevOps/Workspace.xml"))
+                Toasty.success(activity, "已开启, 请重新打开预览").show()
+            }
+            .show()
+    }
+
     override fun onResume() {
         super.onResume()
         webView.onResume()
@@ -149,7 +235,9 @@ class ExecuteProjectActivity(resources: Resources) : PluginActivity(resources) {
 
     override fun onDestroy() {
         super.onDestroy()
-        webView.destroy()
+        liveReload?.close()
+        WebViewPool.recycle(webView)
+        server?.stop()
     }
 
 }
\ No newline at end of file
@@ -64,8 +64,6 @@ class Main : PluginMain() {
         FrameworkDir = File("$StoreDir/frameworks")
         FrameworkDir.mkdirs()
 
-        addProjects()
-
         this.htmlIcon = resources.getDrawable(R.drawable.ic_file_html)
         this.cssIcon = resources.getDrawable(R.drawable.ic_file_css)
         this.javaScriptIcon = resources.getDrawable(R.drawable.ic_file_js)
@@ -117,7 +115,7 @@ class Main : PluginMain() {
     }
 
     override fun onCreateExecuteActivity(): PluginActivity {
-        return ExecuteProjectActivity(resources)
+        return ExecuteProjectActivity(resources, files.ProjectDir)
     }
 
     override suspend fun onCreateInfo(createInfo: CreateInfo) {
@@ -260,26 +258,13 @@ class Main : PluginMain() {
         }
     }
 
-    @Suppress("DEPRECATION")
-    @SuppressLint("UseCompatLoadingForDrawables")
-    private fun addProjects() {
-        addProject(
-            "静态工程",
-            staticProjectId,
-            "包含 Html + Css + JavaScript 的 Web 静态工程",
-            resources.getDrawable(R.drawable.ic_static_project)
-        )
-    }
-
-    override fun getFileItemIcon(file: File): Drawable? {
-        if (file.isFile) {
-            when (file.extension) {
-                "html", "htm" -> return htmlIcon
-                "css" -> return cssIcon
-                "js" -> return javaScriptIcon
-            }
+    override fun getFileItemIcon(extension: String): Drawable? {
+        when (extension) {
+            "html", "htm" -> return htmlIcon
+            "css" -> return cssIcon
+            "js" -> return javaScriptIcon
         }
-        return super.getFileItemIcon(file)
+        return super.getFileItemIcon(extension)
     }
 
 }
\ No newline at end of file
@@ -11,8 +11,18 @@ import androidx.annotation.IdRes
 import androidx.annotation.Keep
 import androidx.annotation.LayoutRes
 import androidx.appcompat.app.AppCompatActivity
+import com.mucheng.web.devops.openapi.view.PreviewCacheDialog
+import com.mucheng.web.devops.openapi.view.PreviewCacheMode
+import com.mucheng.web.devops.openapi.view.WebViewX
 import com.mucheng.webops.plugin.data.Workspace
+import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
 
 @Keep
 abstract class PluginActivity(open val resources: Resources) {
@@ -26,6 +36,9 @@ abstract class PluginActivity(open val resources: Resources) {
     lateinit var workspace: Workspace
         private set
 
+    // 保证 Workspace 按修改顺序写入
+    private val workspaceStoreLock = Mutex()
+
     val layoutInflater: LayoutInflater
         get() {
             return LayoutInflater.from(activity)
@@ -73,6 +86,33 @@ abstract class PluginActivity(open val resources: Resources) {
         return activity.findViewById(id)
     }
 
+    /**
+     * 显示预览缓存对话框, 切换后的策略保存到 Workspace, 写入在 IO 线程中进行
+     * @param workspaceFile 工程的 .WebDevOps/Workspace.xml
+     * */
+    fun showPreviewCacheDialog(webView: WebViewX, workspaceFile: File) {
+        PreviewCacheDialog(activity, webView) {
+            workspace.set(PreviewCacheMode.WORKSPACE_KEY, it.name)
+            storeWorkspace(workspaceFile)
+        }.show()
+    }
+
+    /**
+     * 在 IO 线程中按修改顺序写入 Workspace
+     * @param workspaceFile 工程的 .WebDevOps/Workspace.xml
+     * */
+    fun storeWorkspace(workspaceFile: File) {
+        mainScope.launch(CoroutineName("StoreWorkspaceCoroutine")) {
+            workspaceStoreLock.withLock {
+                withContext(Dispatchers.IO) {
+                    runCatching {
+                        workspace.storeTo(workspaceFile)
+                    }.exceptionOrNull()?.printStackTrace()
+                }
+            }
+        }
+    }
+
     open fun onCreateOptionsMenu(menu: Menu): Boolean {
         return false
     }
@@ -88,6 +88,14 @@ abstract class PluginMain {
 
     }
 
+    /**
+     * 宿主在内存不足时释放未被使用的插件前调用
+     * @return 是否允许释放, 插件仍有后台服务 (例如服务器进程) 运行时应返回 false
+     * */
+    open fun onDeactivate(): Boolean {
+        return true
+    }
+
     open fun onOpenFile(
         activity: AppCompatActivity,
         file: File,
@@ -147,6 +155,18 @@ abstract class PluginMain {
         return false
     }
 
+    /**
+     * 按扩展名获取文件图标, 结果会被按扩展名缓存, 返回 null 时使用默认图标
+     * @param extension 不含 "." 的扩展名, 没有扩展名时为空字符串
+     * */
+    open fun getFileItemIcon(extension: String): Drawable? {
+        return null
+    }
+
+    /**
+     * 每个文件都会调用一次, 请改为重写 getFileItemIcon(extension)
+     * */
+    @Deprecated("Use getFileItemIcon(extension) instead")
     open fun getFileItemIcon(file: File): Drawable? {
         return null
     }
@@ -0,0 +1,48 @@
+package com.mucheng.webops.plugin.command
+
+/**
+ * 保存进程最近输出的环形缓冲区, 占用的内存有上限
+ * @param maxLines 最多保留的行数
+ * @param maxLineLength 单行的最大长度, 超出部分被截断
+ * */
+class OutputBuffer(
+    private val maxLines: Int = 200,
+    private val maxLineLength: Int = 1024
+) {
+
+    private val lines = arrayOfNulls<String>(maxLines)
+
+    private var nextIndex = 0
+
+    private var size = 0
+
+    @Synchronized
+    fun append(line: String) {
+        lines[nextIndex] = if (line.length > maxLineLength) line.substring(0, maxLineLength) else line
+        nextIndex = (nextIndex + 1) % maxLines
+        if (size < maxLines) {
+            ++size
+        }
+    }
+
+    /**
+     * 按输出顺序返回保留的行
+     * */
+    @Synchronized
+    fun getLines(): List<String> {
+        val result: MutableList<String> = ArrayList(size)
+        val start = (nextIndex - size + maxLines) % maxLines
+        for (offset in 0 until size) {
+            result.add(lines[(start + offset) % maxLines]!!)
+        }
+        return result
+    }
+
+    @Synchronized
+    fun clear() {
+        lines.fill(null)
+        nextIndex = 0
+        size = 0
+    }
+
+}
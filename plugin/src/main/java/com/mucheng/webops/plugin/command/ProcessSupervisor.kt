@@ -0,0 +1,356 @@
+package com.mucheng.webops.plugin.command
+
+import android.os.SystemClock
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 插件守护进程的监管
+ *
+ * 每个进程的 PID 记录在 runDir 中, 应用被杀死后遗留的进程可在下次启动时通过 [reapOrphans] 结束;
+ * 进程的标准输出与错误输出被持续读取到有界的 [OutputBuffer] 中并转发给 [OutputListener], 避免管道写满后进程阻塞;
+ * 进程异常退出后按指数退避重启, 停止时先发送 SIGTERM, 超时后发送 SIGKILL
+ *
+ * 被监管的进程需要在前台运行, 例如 nginx -g "daemon off;"、php-fpm -F、httpd -D FOREGROUND
+ * @param runDir 存放 PID 文件的目录
+ * */
+class ProcessSupervisor(private val runDir: File) {
+
+    companion object {
+        private const val SIGNAL_TERM = 15
+        private const val STOP_TIMEOUT_MILLIS = 3000L
+        private const val POLL_INTERVAL_MILLIS = 20L
+        private const val MIN_RESTART_DELAY_MILLIS = 500L
+        private const val MAX_RESTART_DELAY_MILLIS = 30_000L
+        private const val MAX_RESTART_COUNT = 5
+
+        // 运行超过该时间后再退出, 重新开始计算退避
+        private const val STABLE_RUN_MILLIS = 60_000L
+
+        private const val PID_FILE_SUFFIX = ".pid"
+
+        /**
+         * 结束 runDir (包括子目录) 中 PID 文件记录的遗留进程
+         * 只有进程的命令行仍与记录的可执行文件一致时才会结束, 防止 PID 被复用后误杀;
+         * 当前应用进程启动的子进程 (例如插件被释放前启动的服务) 不是遗留进程, 不会被结束
+         * @return 结束的进程数
+         * */
+        suspend fun reapOrphans(runDir: File): Int {
+            return withContext(Dispatchers.IO) {
+                var count = 0
+                val pidFiles = runDir.walk().filter { it.isFile && it.name.endsWith(PID_FILE_SUFFIX) }
+                for (pidFile in pidFiles.toList()) {
+                    val lines = runCatching { pidFile.readLines() }.getOrNull() ?: emptyList()
+                    val pid = lines.getOrNull(0)?.toIntOrNull()
+                    val executable = lines.getOrNull(1)
+                    if (pid != null && parentOf(pid) == android.os.Process.myPid()) {
+                        continue
+                    }
+                    if (pid != null && executable != null && isSameProcess(pid, executable)) {
+                        terminate(pid) { isProcessAlive(pid) }
+                        ++count
+                    }
+                    pidFile.delete()
+                }
+                count
+            }
+        }
+
+        private fun isProcessAlive(pid: Int): Boolean {
+            return File("/proc/$pid").exists()
+        }
+
+        private fun isSameProcess(pid: Int, executable: String): Boolean {
+            val cmdline = runCatching {
+                File("/proc/$pid/cmdline").readText().replace('\u0000', ' ')
+            }.getOrNull() ?: return false
+            return cmdline.contains(File(executable).name)
+        }
+
+        private fun parentOf(pid: Int): Int {
+            val stat = runCatching { File("/proc/$pid/stat").readText() }.getOrNull() ?: return -1
+            return stat.substring(stat.lastIndexOf(')') + 1).trim().split(' ').getOrNull(1)?.toIntOrNull() ?: -1
+        }
+
+        /**
+         * 直接子进程的 PID, 例如 nginx 的 worker 进程
+         * */
+        private fun childrenOf(pid: Int): List<Int> {
+            val result: MutableList<Int> = ArrayList()
+            val processDirs = File("/proc").listFiles() ?: return result
+            for (processDir in processDirs) {
+                val childPid = processDir.name.toIntOrNull() ?: continue
+                // 格式为 "pid (comm) state ppid ...", comm 中可能包含空格
+                val stat = runCatching { File(processDir, "stat").readText() }.getOrNull() ?: continue
+                val fields = stat.substring(stat.lastIndexOf(')') + 1).trim().split(' ')
+                if (fields.getOrNull(1)?.toIntOrNull() == pid) {
+                    result.add(childPid)
+                }
+            }
+            return result
+        }
+
+        private suspend fun terminate(pid: Int, isAlive: () -> Boolean) {
+            val children = childrenOf(pid)
+            android.os.Process.sendSignal(pid, SIGNAL_TERM)
+            val deadline = SystemClock.elapsedRealtime() + STOP_TIMEOUT_MILLIS
+            while (isAlive() && SystemClock.elapsedRealtime() < deadline) {
+                delay(POLL_INTERVAL_MILLIS)
+            }
+            if (isAlive()) {
+                android.os.Process.sendSignal(pid, android.os.Process.SIGNAL_KILL)
+            }
+            // 主进程被强制结束时子进程不会自动退出
+            for (child in children) {
+                if (isProcessAlive(child)) {
+                    android.os.Process.sendSignal(child, android.os.Process.SIGNAL_KILL)
+                }
+            }
+        }
+    }
+
+    /**
+     * 进程输出的监听器, 在读取输出的 IO 线程中回调
+     * */
+    fun interface OutputListener {
+        fun onOutput(name: String, line: String)
+    }
+
+    private class Supervised(
+        val name: String,
+        val workDir: File,
+        val command: List<String>,
+        val restartOnCrash: Boolean
+    ) {
+        val output = OutputBuffer()
+
+        @Volatile
+        var process: Process? = null
+
+        @Volatile
+        var pid = -1
+
+        @Volatile
+        var isFailed = false
+
+        var restartCount = 0
+
+        var job: Job? = null
+    }
+
+    private val scope = CoroutineScope(
+        CoroutineName("ProcessSupervisorCoroutine") + Dispatchers.IO + SupervisorJob()
+    )
+
+    private val services: MutableMap<String, Supervised> = ConcurrentHashMap()
+
+    private val outputListeners: MutableList<OutputListener> = CopyOnWriteArrayList()
+
+    /**
+     * 结束 runDir 中上次遗留的进程
+     * */
+    suspend fun reapOrphans(): Int {
+        return reapOrphans(runDir)
+    }
+
+    /**
+     * 启动并监管进程, 同名进程正在运行时先将其停止
+     * @param name 进程名称, 同时用作 PID 文件名
+     * @param restartOnCrash 进程退出后是否自动重启
+     * */
+    suspend fun start(
+        name: String,
+        workDir: File,
+        command: List<String>,
+        restartOnCrash: Boolean = true
+    ): Process {
+        stop(name)
+        val service = Supervised(name, workDir, command, restartOnCrash)
+        val process = withContext(Dispatchers.IO) {
+            launchProcess(service)
+        }
+        services[name] = service
+        service.job = scope.launch(CoroutineName("MonitorProcessCoroutine")) {
+            monitor(service)
+        }
+        return process
+    }
+
+    private fun launchProcess(service: Supervised): Process {
+        val process = ShellExecutor.exec(
+            ProcessBuilder()
+                .directory(service.workDir)
+                .command(service.command)
+                .redirectErrorStream(true)
+        )
+        service.process = process
+        service.pid = ShellExecutor.getPid(process)
+        writePidFile(service)
+        scope.launch(CoroutineName("DrainOutputCoroutine")) {
+            runCatching {
+                process.inputStream.bufferedReader().useLines { lines ->
+                    lines.forEach { appendOutput(service, it) }
+                }
+            }
+        }
+        return process
+    }
+
+    private suspend fun monitor(service: Supervised) {
+        while (true) {
+            val process = service.process ?: return
+            val startTime = SystemClock.elapsedRealtime()
+            val exitValue = runInterruptible { process.waitFor() }
+            appendOutput(service, "[进程已退出, 退出码: $exitValue]")
+
+            if (SystemClock.elapsedRealtime() - startTime >= STABLE_RUN_MILLIS) {
+                service.restartCount = 0
+            }
+            if (!service.restartOnCrash || service.restartCount >= MAX_RESTART_COUNT) {
+                service.isFailed = true
+                pidFileOf(service.name).delete()
+                return
+            }
+
+            delay((MIN_RESTART_DELAY_MILLIS shl service.restartCount).coerceAtMost(MAX_RESTART_DELAY_MILLIS))
+            ++service.restartCount
+            appendOutput(service, "[第 ${service.restartCount} 次重启]")
+            try {
+                launchProcess(service)
+            } catch (e: IOException) {
+                appendOutput(service, "[重启失败: ${e.message}]")
+                service.isFailed = true
+                pidFileOf(service.name).delete()
+                return
+            }
+        }
+    }
+
+    /**
+     * 停止进程, 不再自动重启
+     * */
+    suspend fun stop(name: String) {
+        val service = services.remove(name) ?: return
+        service.job?.cancelAndJoin()
+        withContext(Dispatchers.IO) {
+            val process = service.process
+            if (process != null) {
+                if (service.pid != -1) {
+                    terminate(service.pid) { isAlive(process) }
+                } else {
+                    process.destroy()
+                }
+            }
+            pidFileOf(name).delete()
+        }
+    }
+
+    /**
+     * 并行停止所有进程
+     * */
+    suspend fun stopAll() {
+        coroutineScope {
+            services.keys.toList().map { async { stop(it) } }.awaitAll()
+        }
+    }
+
+    /**
+     * 进程是否由本实例监管且仍在运行
+     * */
+    fun isRunning(name: String): Boolean {
+        val service = services[name] ?: return false
+        val process = service.process ?: return false
+        return !service.isFailed && isAlive(process)
+    }
+
+    /**
+     * 向进程发送信号, 例如 SIGHUP 使 nginx 重新加载配置
+     * @return 进程未运行时返回 false
+     * */
+    fun sendSignal(name: String, signal: Int): Boolean {
+        val service = services[name] ?: return false
+        if (service.pid == -1 || !isRunning(name)) {
+            return false
+        }
+        android.os.Process.sendSignal(service.pid, signal)
+        return true
+    }
+
+    /**
+     * 进程多次重启失败或不允许重启时返回 true
+     * */
+    fun isFailed(name: String): Boolean {
+        return services[name]?.isFailed ?: false
+    }
+
+    fun getPid(name: String): Int {
+        return services[name]?.pid ?: -1
+    }
+
+    /**
+     * 进程最近的输出
+     * */
+    fun getOutput(name: String): List<String> {
+        return services[name]?.output?.getLines() ?: emptyList()
+    }
+
+    fun addOutputListener(listener: OutputListener) {
+        outputListeners.add(listener)
+    }
+
+    fun removeOutputListener(listener: OutputListener) {
+        outputListeners.remove(listener)
+    }
+
+    private fun appendOutput(service: Supervised, line: String) {
+        service.output.append(line)
+        for (listener in outputListeners) {
+            listener.onOutput(service.name, line)
+        }
+    }
+
+    private fun isAlive(process: Process): Boolean {
+        return try {
+            process.exitValue()
+            false
+        } catch (e: IllegalThreadStateException) {
+            true
+        }
+    }
+
+    private fun pidFileOf(name: String): File {
+        return File(runDir, "$name$PID_FILE_SUFFIX")
+    }
+
+    private fun writePidFile(service: Supervised) {
+        if (service.pid == -1) {
+            return
+        }
+        runCatching {
+            runDir.mkdirs()
+            val executable = File(service.command.first())
+            val executablePath = if (executable.isAbsolute) {
+                executable.path
+            } else {
+                File(service.workDir, executable.path).canonicalPath
+            }
+            pidFileOf(service.name).writeText("${service.pid}\n$executablePath\n")
+        }.exceptionOrNull()?.printStackTrace()
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.mucheng.webops.plugin.command
+
+import android.os.SystemClock
+import com.mucheng.webops.plugin.data.ObservableValue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+
+/**
+ * 并行启动互不依赖的服务进程, 并通过 [ServiceProbe] 确认每个服务真正可用
+ * @param observableStates 每个服务的状态与耗时, 状态变化时更新
+ * @param supervisor 不为 null 时由其启动并监管进程, 此时服务需要在前台运行
+ * */
+class ServiceLauncher(
+    private val services: List<Service>,
+    private val observableStates: ObservableValue<List<ServiceState>>? = null,
+    private val supervisor: ProcessSupervisor? = null
+) {
+
+    companion object {
+        private const val MIN_PROBE_INTERVAL_MILLIS = 10L
+        private const val MAX_PROBE_INTERVAL_MILLIS = 200L
+        private const val PROBE_TIMEOUT_MILLIS = 500
+    }
+
+    /**
+     * @param name 服务名称, 用于展示
+     * @param command 启动命令, 可以是会自行转入后台的守护进程
+     * @param probe 就绪探测
+     * @param timeoutMillis 超过该时间仍未就绪视为启动失败
+     * @param reuseRunning supervisor 中同名进程仍在运行时不重新启动, 只等待探测通过
+     * */
+    class Service(
+        val name: String,
+        val workDir: File,
+        val command: List<String>,
+        val probe: ServiceProbe,
+        val timeoutMillis: Long = 15_000L,
+        val reuseRunning: Boolean = false
+    )
+
+    enum class Status {
+        Starting, Ready, Failed
+    }
+
+    /**
+     * @param elapsedMillis 从启动到就绪 (或失败) 的耗时
+     * @param message 失败原因
+     * */
+    class ServiceState(
+        val name: String,
+        val status: Status,
+        val elapsedMillis: Long,
+        val message: String? = null
+    )
+
+    private val states: MutableList<ServiceState> =
+        services.mapTo(ArrayList()) { ServiceState(it.name, Status.Starting, 0L) }
+
+    /**
+     * 启动全部服务, 等待所有服务就绪或失败后返回
+     * @param observableProgress 按已完成的服务数更新进度, 从 initialProgress 增长到 100
+     * @return 每个服务的最终状态
+     * */
+    suspend fun startAll(
+        observableProgress: ObservableValue<Int>? = null,
+        initialProgress: Int = 0
+    ): List<ServiceState> {
+        publishStates()
+        var finished = 0
+        return coroutineScope {
+            services.mapIndexed { index, service ->
+                async {
+                    val state = start(service)
+                    val finishedCount = synchronized(states) {
+                        states[index] = state
+                        ++finished
+                    }
+                    publishStates()
+                    observableProgress?.setValue(
+                        initialProgress + (100 - initialProgress) * finishedCount / services.size
+                    )
+                    state
+                }
+            }.awaitAll()
+        }
+    }
+
+    private suspend fun start(service: Service): ServiceState {
+        val startTime = SystemClock.elapsedRealtime()
+        val process = try {
+            when {
+                supervisor == null -> ShellExecutor.execSuspend(service.workDir, service.command)
+                service.reuseRunning && supervisor.isRunning(service.name) -> null
+                else -> supervisor.start(service.name, service.workDir, service.command)
+            }
+        } catch (e: IOException) {
+            return ServiceState(service.name, Status.Failed, 0L, e.message)
+        }
+
+        var interval = MIN_PROBE_INTERVAL_MILLIS
+        while (true) {
+            val isReady = withContext(Dispatchers.IO) {
+                service.probe.isReady(PROBE_TIMEOUT_MILLIS)
+            }
+            val elapsed = SystemClock.elapsedRealtime() - startTime
+            if (isReady) {
+                return ServiceState(service.name, Status.Ready, elapsed)
+            }
+
+            if (supervisor != null) {
+                // 崩溃后由 supervisor 重启, 重启次数用尽才视为失败
+                if (supervisor.isFailed(service.name)) {
+                    return ServiceState(service.name, Status.Failed, elapsed, "进程多次退出")
+                }
+            } else {
+                // 守护进程转入后台后启动命令会正常退出, 只有异常退出才说明启动失败
+                val exitValue = exitValueOf(process!!)
+                if (exitValue != null && exitValue != 0) {
+                    return ServiceState(service.name, Status.Failed, elapsed, "进程退出, 退出码: $exitValue")
+                }
+            }
+            if (elapsed >= service.timeoutMillis) {
+                return ServiceState(service.name, Status.Failed, elapsed, "等待服务就绪超时")
+            }
+
+            delay(interval)
+            interval = (interval * 2).coerceAtMost(MAX_PROBE_INTERVAL_MILLIS)
+        }
+    }
+
+    private fun exitValueOf(process: Process): Int? {
+        return try {
+            process.exitValue()
+        } catch (e: IllegalThreadStateException) {
+            null
+        }
+    }
+
+    private fun publishStates() {
+        val observableStates = observableStates ?: return
+        observableStates.setValue(synchronized(states) { ArrayList(states) })
+    }
+
+}
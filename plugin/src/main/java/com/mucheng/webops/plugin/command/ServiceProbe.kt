@@ -0,0 +1,161 @@
+package com.mucheng.webops.plugin.command
+
+import android.net.LocalSocket
+import android.net.LocalSocketAddress
+import java.io.DataInputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+
+/**
+ * 服务就绪探测
+ * 只建立连接或读取握手包, 不请求页面, 避免在服务启动期间产生额外负载
+ * */
+fun interface ServiceProbe {
+
+    /**
+     * 探测一次, 在 IO 线程中调用
+     * @return 服务是否已可以处理请求
+     * */
+    fun isReady(timeoutMillis: Int): Boolean
+
+    companion object {
+
+        private const val LOCALHOST = "127.0.0.1"
+
+        /**
+         * 端口可以建立 TCP 连接即视为就绪, 适用于 Nginx、Apache 等 HTTP 服务器
+         * */
+        fun tcp(port: Int, host: String = LOCALHOST): ServiceProbe {
+            return ServiceProbe { timeoutMillis ->
+                connect(host, port, timeoutMillis) { true }
+            }
+        }
+
+        /**
+         * 发送 HEAD 请求, 响应头中 headerName 的值等于 expectedValue 时视为就绪
+         * 可用于确认服务器已经加载了新的配置
+         * @param virtualHost 请求的 Host, 用于匹配专门的 server 配置
+         * */
+        fun httpHeader(
+            port: Int,
+            virtualHost: String,
+            headerName: String,
+            expectedValue: String,
+            host: String = LOCALHOST
+        ): ServiceProbe {
+            return ServiceProbe { timeoutMillis ->
+                connect(host, port, timeoutMillis) { socket ->
+                    socket.getOutputStream().apply {
+                        write("HEAD / HTTP/1.0\r\nHost: $virtualHost\r\n\r\n".toByteArray(Charsets.US_ASCII))
+                        flush()
+                    }
+                    val reader = socket.getInputStream().bufferedReader(Charsets.ISO_8859_1)
+                    val prefix = "$headerName:"
+                    generateSequence { reader.readLine() }
+                        .takeWhile { it.isNotEmpty() }
+                        .any { it.startsWith(prefix, ignoreCase = true) && it.substring(prefix.length).trim() == expectedValue }
+                }
+            }
+        }
+
+        /**
+         * 发送 FCGI_GET_VALUES 管理记录, 适用于 php-fpm
+         * 部分实现不回复管理记录而直接关闭连接, 此时连接成功同样视为就绪
+         * */
+        fun fastCgi(port: Int = 9000, host: String = LOCALHOST): ServiceProbe {
+            return ServiceProbe { timeoutMillis ->
+                connect(host, port, timeoutMillis) { socket ->
+                    socket.getOutputStream().apply {
+                        write(FAST_CGI_GET_VALUES)
+                        flush()
+                    }
+                    val version = socket.getInputStream().read()
+                    version == -1 || version == FAST_CGI_VERSION
+                }
+            }
+        }
+
+        /**
+         * 读取 MySQL 服务器的初始握手包
+         * */
+        fun mysql(port: Int = 3306, host: String = LOCALHOST): ServiceProbe {
+            return ServiceProbe { timeoutMillis ->
+                connect(host, port, timeoutMillis) { readMysqlHandshake(it.getInputStream()) }
+            }
+        }
+
+        /**
+         * 通过 Unix 域套接字读取 MySQL 服务器的初始握手包
+         * */
+        fun mysql(socketFile: File): ServiceProbe {
+            return ServiceProbe { timeoutMillis ->
+                if (!socketFile.exists()) {
+                    return@ServiceProbe false
+                }
+                val socket = LocalSocket()
+                try {
+                    socket.connect(
+                        LocalSocketAddress(socketFile.absolutePath, LocalSocketAddress.Namespace.FILESYSTEM)
+                    )
+                    socket.soTimeout = timeoutMillis
+                    readMysqlHandshake(socket.inputStream)
+                } catch (e: IOException) {
+                    false
+                } finally {
+                    runCatching { socket.close() }
+                }
+            }
+        }
+
+        private const val FAST_CGI_VERSION = 1
+
+        // version, type = FCGI_GET_VALUES, requestId = 0, contentLength = 17, padding, reserved
+        // 内容为名称 FCGI_MPXS_CONNS, 值为空
+        private val FAST_CGI_GET_VALUES: ByteArray =
+            byteArrayOf(FAST_CGI_VERSION.toByte(), 9, 0, 0, 0, 17, 0, 0, 15, 0) +
+                    "FCGI_MPXS_CONNS".toByteArray(Charsets.US_ASCII)
+
+        private const val MYSQL_PROTOCOL_VERSION = 10
+
+        private const val MYSQL_ERROR_PACKET = 0xFF
+
+        private inline fun connect(
+            host: String,
+            port: Int,
+            timeoutMillis: Int,
+            block: (Socket) -> Boolean
+        ): Boolean {
+            val socket = Socket()
+            return try {
+                socket.connect(InetSocketAddress(host, port), timeoutMillis)
+                socket.soTimeout = timeoutMillis
+                block(socket)
+            } catch (e: IOException) {
+                false
+            } finally {
+                runCatching { socket.close() }
+            }
+        }
+
+        /**
+         * 握手包或错误包 (例如连接数已满) 都说明服务器已经在处理连接
+         * */
+        private fun readMysqlHandshake(input: InputStream): Boolean {
+            val header = ByteArray(4)
+            DataInputStream(input).readFully(header)
+            val payloadLength = (header[0].toInt() and 0xFF) or
+                    ((header[1].toInt() and 0xFF) shl 8) or
+                    ((header[2].toInt() and 0xFF) shl 16)
+            if (payloadLength == 0) {
+                return false
+            }
+            val first = input.read()
+            return first == MYSQL_PROTOCOL_VERSION || first == MYSQL_ERROR_PACKET
+        }
+
+    }
+
+}
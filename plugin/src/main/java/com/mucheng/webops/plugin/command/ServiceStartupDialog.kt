@@ -0,0 +1,56 @@
+package com.mucheng.webops.plugin.command
+
+import androidx.appcompat.app.AppCompatActivity
+import com.mucheng.web.devops.openapi.view.LoadingComponent
+import com.mucheng.webops.plugin.data.ObservableValue
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.launch
+
+/**
+ * 启动服务时显示的进度框, 列出每个服务的状态与耗时
+ * 将 [observableStates] 传给 [ServiceLauncher], 所有方法只能在主线程中调用
+ * @param scope 用于刷新界面, 需使用主线程调度器
+ * */
+class ServiceStartupDialog(
+    activity: AppCompatActivity,
+    private val scope: CoroutineScope
+) {
+
+    private val statesStateFlow = MutableStateFlow<List<ServiceLauncher.ServiceState>>(emptyList())
+
+    private val loadingComponent = LoadingComponent(activity)
+
+    private var observeJob: Job? = null
+
+    val observableStates = ObservableValue(statesStateFlow)
+
+    fun show() {
+        loadingComponent.setContent("正在启动服务....")
+        loadingComponent.show()
+        observeJob = scope.launch(CoroutineName("ServiceStatesObserverCoroutine")) {
+            statesStateFlow.collect { states ->
+                if (states.isNotEmpty()) {
+                    loadingComponent.setContent(states.joinToString("\n") { describe(it) })
+                }
+            }
+        }
+    }
+
+    fun dismiss() {
+        observeJob?.cancel()
+        observeJob = null
+        loadingComponent.dismiss()
+    }
+
+    private fun describe(state: ServiceLauncher.ServiceState): String {
+        return when (state.status) {
+            ServiceLauncher.Status.Starting -> "${state.name}: 正在启动...."
+            ServiceLauncher.Status.Ready -> "${state.name}: 已就绪 (${state.elapsedMillis} ms)"
+            ServiceLauncher.Status.Failed -> "${state.name}: 启动失败 (${state.message})"
+        }
+    }
+
+}
@@ -8,8 +8,25 @@ import java.lang.reflect.Field
 
 object ShellExecutor {
 
+    /**
+     * 子进程启动监听, 由宿主设置, 用于统计插件启动的进程
+     * */
+    fun interface ProcessListener {
+        fun onProcessStarted(command: List<String>, process: Process)
+    }
+
+    @Volatile
+    var processListener: ProcessListener? = null
+
     private var pidField: Field? = null
 
+    private fun notifyStarted(command: List<String>, process: Process): Process {
+        runCatching {
+            processListener?.onProcessStarted(command, process)
+        }.exceptionOrNull()?.printStackTrace()
+        return process
+    }
+
     @SuppressLint("DiscouragedPrivateApi")
     @Synchronized
     fun getPid(process: Process): Int {
@@ -20,7 +37,8 @@ object ShellExecutor {
             }
             pidField!!.getInt(process)
         } catch (e: Throwable) {
-            -1
+            // 不同版本的实现类不同, toString 的格式为 "Process[pid=123, ...]"
+            Regex("pid=(\\d+)").find(process.toString())?.groupValues?.get(1)?.toIntOrNull() ?: -1
         }
     }
 
@@ -40,27 +58,36 @@ object ShellExecutor {
                 .directory(workDir)
                 .command(cmd)
                 .start()
-            process
+            notifyStarted(cmd, process)
         }
     }
 
     suspend fun newExec(workDir: File): Process {
         return withContext(Dispatchers.IO) {
-            ProcessBuilder()
+            val builder = ProcessBuilder()
                 .directory(workDir)
-                .start()
+            notifyStarted(builder.command(), builder.start())
         }
     }
 
+    /**
+     * 结束所有同名进程, 包括其他工作区启动的进程; 插件的守护进程应使用 [ProcessSupervisor] 管理
+     * */
     fun killall(processName: String): Process? {
-        return Runtime.getRuntime().exec("killall $processName")
+        val process = Runtime.getRuntime().exec("killall $processName")
+        return notifyStarted(listOf("killall", processName), process)
+    }
+
+    fun exec(builder: ProcessBuilder): Process {
+        return notifyStarted(builder.command(), builder.start())
     }
 
     fun exec(workDir: File, cmd: List<String>): Process? {
-        return ProcessBuilder()
+        val process = ProcessBuilder()
             .directory(workDir)
             .command(cmd)
             .start()
+        return notifyStarted(cmd, process)
     }
 
 }
\ No newline at end of file
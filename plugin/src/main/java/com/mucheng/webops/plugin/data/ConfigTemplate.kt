@@ -0,0 +1,31 @@
+package com.mucheng.webops.plugin.data
+
+import java.io.File
+
+/**
+ * 配置文件模板, 将 $NAME 形式的占位符替换为对应的值
+ * 占位符只由大写字母、数字与下划线组成, 未提供值的占位符保持原样,
+ * 因此 nginx 的 $fastcgi_script_name 等小写变量不受影响
+ * */
+object ConfigTemplate {
+
+    private val placeholderRegex = Regex("\\$([A-Z][A-Z0-9_]*)")
+
+    fun render(template: String, values: Map<String, String>): String {
+        return placeholderRegex.replace(template) {
+            values[it.groupValues[1]] ?: it.value
+        }
+    }
+
+    /**
+     * 写入配置文件
+     * @param backup 文件已存在时是否先复制为同目录下的 .bak 文件, 用于覆盖用户可能修改过的配置
+     * */
+    fun write(file: File, content: String, backup: Boolean) {
+        if (backup && file.exists()) {
+            file.copyTo(File(file.parentFile, "${file.name}.bak"), overwrite = true)
+        }
+        file.writeText(content)
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.mucheng.webops.plugin.data
+
+import android.app.ActivityManager
+import android.content.Context
+
+/**
+ * 设备性能概况, 用于生成服务器配置
+ * @param cpuCount 可用的 CPU 核心数
+ * @param totalMemoryMb 总内存 (MB)
+ * @param isLowRamDevice 系统标记的低内存设备或总内存小于 2 GB
+ * */
+class DeviceProfile(
+    val cpuCount: Int,
+    val totalMemoryMb: Long,
+    val isLowRamDevice: Boolean
+) {
+
+    companion object {
+
+        fun of(context: Context): DeviceProfile {
+            val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+            val memoryInfo = ActivityManager.MemoryInfo()
+            activityManager.getMemoryInfo(memoryInfo)
+            return DeviceProfile(
+                Runtime.getRuntime().availableProcessors().coerceAtLeast(1),
+                memoryInfo.totalMem / (1024 * 1024),
+                activityManager.isLowRamDevice || memoryInfo.totalMem < 2048L * 1024 * 1024
+            )
+        }
+
+    }
+
+    override fun toString(): String {
+        return "DeviceProfile(cpuCount=$cpuCount, totalMemoryMb=$totalMemoryMb, " +
+                "isLowRamDevice=$isLowRamDevice)"
+    }
+
+}
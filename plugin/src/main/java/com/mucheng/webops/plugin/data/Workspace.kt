@@ -1,6 +1,10 @@
 package com.mucheng.webops.plugin.data
 
+import com.mucheng.web.devops.openapi.util.FileUtil
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.io.File
+import java.io.IOException
 import java.util.Properties
 
 class Workspace {
@@ -10,6 +14,36 @@ class Workspace {
         private const val PROJECT_ID = "ProjectId"
         private const val CREATION_TIME = "CreationTime"
         private const val OPEN_FILE = "OpenFile"
+
+        private const val MAGIC = 0x57445753 // "WDWS"
+        private const val VERSION = 1
+
+        private const val STORE_FILE_NAME = "Workspace.bin"
+
+        /**
+         * 获取实际的存储文件
+         * 旧版本的 Workspace.xml 与新的二进制文件位于同一目录下
+         * @param file Workspace.xml 或 Workspace.bin
+         * */
+        fun getStoreFile(file: File): File {
+            if (file.name == STORE_FILE_NAME) {
+                return file
+            }
+            return File(file.parentFile, STORE_FILE_NAME)
+        }
+
+        /**
+         * 获取 Workspace 的修改时间, 不存在时为 0
+         * @param file Workspace.xml 或 Workspace.bin
+         * */
+        fun lastModified(file: File): Long {
+            val storeFile = getStoreFile(file)
+            val lastModified = storeFile.lastModified()
+            if (lastModified != 0L || storeFile == file) {
+                return lastModified
+            }
+            return file.lastModified()
+        }
     }
 
     private val props = Properties()
@@ -54,16 +88,61 @@ class Workspace {
         return props.getProperty(key)
     }
 
+    /**
+     * 读取 Workspace
+     * 优先读取二进制文件, 不存在时读取旧版本的 XML 文件
+     * */
     fun loadFrom(file: File) {
-        props.loadFromXML(file.inputStream().buffered())
+        val storeFile = getStoreFile(file)
+        if (storeFile.isFile) {
+            loadBinary(storeFile)
+            return
+        }
+        file.inputStream().buffered().use {
+            props.loadFromXML(it)
+        }
     }
 
+    /**
+     * 原子写入二进制文件, 写入成功后移除旧版本的 XML 文件
+     * */
     fun storeTo(file: File) {
-        props.storeToXML(file.outputStream().buffered(), "UTF-8")
+        val storeFile = getStoreFile(file)
+        FileUtil.writeAtomically(storeFile) { output ->
+            val dataOutput = DataOutputStream(output)
+            val keys = props.stringPropertyNames()
+            dataOutput.writeInt(MAGIC)
+            dataOutput.writeInt(VERSION)
+            dataOutput.writeInt(keys.size)
+            for (key in keys) {
+                dataOutput.writeUTF(key)
+                dataOutput.writeUTF(props.getProperty(key))
+            }
+            dataOutput.flush()
+        }
+        if (storeFile != file && file.isFile) {
+            file.delete()
+        }
     }
 
     fun getMap(): Properties {
         return props
     }
 
-}
\ No newline at end of file
+    private fun loadBinary(storeFile: File) {
+        DataInputStream(storeFile.inputStream().buffered()).use { input ->
+            if (input.readInt() != MAGIC) {
+                throw IOException("Invalid workspace file: ${storeFile.absolutePath}")
+            }
+            val version = input.readInt()
+            if (version > VERSION) {
+                throw IOException("Unsupported workspace version $version: ${storeFile.absolutePath}")
+            }
+            val count = input.readInt()
+            repeat(count) {
+                props.setProperty(input.readUTF(), input.readUTF())
+            }
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.mucheng.webops.plugin.event
+
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 编辑器保存文件的进程内事件总线
+ * 编辑器在文件写入完成后发布事件, 预览页等订阅者据此刷新
+ * */
+object FileSaveBus {
+
+    fun interface Listener {
+
+        /**
+         * 在发布者所在的线程 (通常是 IO 线程) 中回调, 不要执行耗时操作
+         * */
+        fun onFileSaved(file: File)
+
+    }
+
+    private val listeners: MutableList<Listener> = CopyOnWriteArrayList()
+
+    fun subscribe(listener: Listener) {
+        listeners.add(listener)
+    }
+
+    fun unsubscribe(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    fun publish(file: File) {
+        for (listener in listeners) {
+            runCatching {
+                listener.onFileSaved(file)
+            }.exceptionOrNull()?.printStackTrace()
+        }
+    }
+
+}
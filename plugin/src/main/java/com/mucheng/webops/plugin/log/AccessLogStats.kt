@@ -0,0 +1,227 @@
+package com.mucheng.webops.plugin.log
+
+import java.util.Locale
+
+/**
+ * 访问日志的增量统计, 每行只解析一次, 占用的内存不随日志增长
+ *
+ * 支持 common 与 combined 格式, 行末附加的请求耗时也会被统计:
+ * nginx 的 $request_time (秒, 带小数) 或 Apache 的 %D (微秒)
+ * */
+class AccessLogStats {
+
+    companion object {
+        // 第 i 个桶统计耗时在 [2^i, 2^(i+1)) 微秒内的请求
+        private const val BUCKET_COUNT = 32
+
+        private const val MAX_PATHS = 64
+
+        /**
+         * 解析一行访问日志, 格式不符时返回 null
+         * */
+        fun parse(line: String): Entry? {
+            val requestStart = line.indexOf('"')
+            if (requestStart == -1) {
+                return null
+            }
+            // 请求行中可能含有转义的引号, 以后面紧跟状态码且未被转义的引号作为结束
+            var requestEnd = line.indexOf("\" ", requestStart + 1)
+            while (requestEnd != -1 && (line[requestEnd - 1] == '\\' || !isStatusAt(line, requestEnd + 2))) {
+                requestEnd = line.indexOf("\" ", requestEnd + 1)
+            }
+            if (requestEnd == -1) {
+                return null
+            }
+
+            val request = line.substring(requestStart + 1, requestEnd)
+            val pathStart = request.indexOf(' ') + 1
+            val pathEnd = request.indexOf(' ', pathStart).let { if (it == -1) request.length else it }
+            val path = request.substring(pathStart, pathEnd).substringBefore('?').ifEmpty { "-" }
+
+            val fields = line.substring(requestEnd + 2).split(' ')
+            val status = fields[0].toInt()
+            val bytes = fields.getOrNull(1)?.toLongOrNull() ?: 0L
+            // 耗时位于行末, 且不能是字节数本身
+            val timeMicros = if (fields.size > 2) parseTime(fields.last()) else -1L
+            return Entry(status, bytes, path, timeMicros)
+        }
+
+        private fun isStatusAt(line: String, index: Int): Boolean {
+            return index + 3 <= line.length &&
+                    (index until index + 3).all { line[it].isDigit() } &&
+                    (index + 3 == line.length || line[index + 3] == ' ')
+        }
+
+        private fun parseTime(field: String): Long {
+            if (field.isEmpty() || !field[0].isDigit()) {
+                return -1L
+            }
+            return if (field.contains('.')) {
+                field.toDoubleOrNull()?.let { Math.round(it * 1_000_000) } ?: -1L
+            } else {
+                field.toLongOrNull() ?: -1L
+            }
+        }
+    }
+
+    /**
+     * @param timeMicros 请求耗时 (微秒), 日志中没有记录时为 -1
+     * */
+    class Entry(val status: Int, val bytes: Long, val path: String, val timeMicros: Long)
+
+    private class PathStats {
+        var requests = 0L
+        var totalMicros = 0L
+    }
+
+    /**
+     * @param statusCounts 下标 1 至 5 分别为 1xx 至 5xx 的请求数
+     * @param slowestPaths 平均耗时最长的路径与其平均耗时 (微秒)
+     * */
+    class Snapshot(
+        val requests: Long,
+        val statusCounts: LongArray,
+        val bytes: Long,
+        val timedRequests: Long,
+        val averageMicros: Long,
+        val p50Micros: Long,
+        val p95Micros: Long,
+        val slowestPaths: List<Pair<String, Long>>
+    ) {
+
+        override fun toString(): String {
+            return buildString {
+                append("请求 $requests")
+                for (statusClass in 2..5) {
+                    append(" · ${statusClass}xx ${statusCounts[statusClass]}")
+                }
+                append(" · ${formatBytes(bytes)}")
+                if (timedRequests == 0L) {
+                    if (requests > 0) {
+                        appendLine()
+                        append("访问日志中没有记录请求耗时")
+                    }
+                    return@buildString
+                }
+                appendLine()
+                append(
+                    String.format(
+                        Locale.ROOT, "平均 %.2f ms · P50 ≤ %.2f ms · P95 ≤ %.2f ms",
+                        averageMicros / 1000.0, p50Micros / 1000.0, p95Micros / 1000.0
+                    )
+                )
+                if (slowestPaths.isNotEmpty()) {
+                    appendLine()
+                    append("最慢: ")
+                    append(slowestPaths.joinToString {
+                        String.format(Locale.ROOT, "%s %.2f ms", it.first, it.second / 1000.0)
+                    })
+                }
+            }
+        }
+
+        private fun formatBytes(bytes: Long): String {
+            return when {
+                bytes >= 1024 * 1024 -> String.format(Locale.ROOT, "%.1f MB", bytes / 1024.0 / 1024.0)
+                bytes >= 1024 -> String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0)
+                else -> "$bytes B"
+            }
+        }
+
+    }
+
+    private var requests = 0L
+
+    private val statusCounts = LongArray(6)
+
+    private var bytes = 0L
+
+    private var timedRequests = 0L
+
+    private var totalMicros = 0L
+
+    private val buckets = LongArray(BUCKET_COUNT)
+
+    // 按访问顺序淘汰, 只保留最近访问的路径
+    private val paths = object : LinkedHashMap<String, PathStats>(MAX_PATHS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, PathStats>?): Boolean {
+            return size > MAX_PATHS
+        }
+    }
+
+    /**
+     * 统计一行访问日志
+     * @return 解析结果, 格式不符时返回 null
+     * */
+    @Synchronized
+    fun accept(line: String): Entry? {
+        val entry = parse(line) ?: return null
+        ++requests
+        statusCounts[(entry.status / 100).coerceIn(0, 5)]++
+        bytes += entry.bytes
+        if (entry.timeMicros >= 0) {
+            ++timedRequests
+            totalMicros += entry.timeMicros
+            buckets[bucketOf(entry.timeMicros)]++
+            val pathStats = paths.getOrPut(entry.path) { PathStats() }
+            ++pathStats.requests
+            pathStats.totalMicros += entry.timeMicros
+        }
+        return entry
+    }
+
+    @Synchronized
+    fun snapshot(): Snapshot {
+        val slowestPaths = paths.entries
+            .map { it.key to it.value.totalMicros / it.value.requests }
+            .sortedByDescending { it.second }
+            .take(3)
+        return Snapshot(
+            requests,
+            statusCounts.copyOf(),
+            bytes,
+            timedRequests,
+            if (timedRequests == 0L) 0L else totalMicros / timedRequests,
+            percentile(50),
+            percentile(95),
+            slowestPaths
+        )
+    }
+
+    @Synchronized
+    fun clear() {
+        requests = 0L
+        statusCounts.fill(0L)
+        bytes = 0L
+        timedRequests = 0L
+        totalMicros = 0L
+        buckets.fill(0L)
+        paths.clear()
+    }
+
+    private fun bucketOf(micros: Long): Int {
+        if (micros <= 1L) {
+            return 0
+        }
+        return (63 - java.lang.Long.numberOfLeadingZeros(micros)).coerceAtMost(BUCKET_COUNT - 1)
+    }
+
+    /**
+     * 返回所在桶的上界, 因此是一个不低于实际值的估计
+     * */
+    private fun percentile(percent: Int): Long {
+        if (timedRequests == 0L) {
+            return 0L
+        }
+        val target = (timedRequests * percent + 99) / 100
+        var count = 0L
+        for (index in buckets.indices) {
+            count += buckets[index]
+            if (count >= target) {
+                return 1L shl (index + 1)
+            }
+        }
+        return 1L shl BUCKET_COUNT
+    }
+
+}
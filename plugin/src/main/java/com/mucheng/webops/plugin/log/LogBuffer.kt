@@ -0,0 +1,144 @@
+package com.mucheng.webops.plugin.log
+
+/**
+ * 分块的环形日志缓冲区, 占用的内存有固定上限
+ *
+ * 日志行按块存放, 总字符数超过 maxChars 时整块丢弃最旧的行, 被丢弃的块留作下次复用;
+ * 每行有一个自增的序号, 界面通过序号访问, 旧行被丢弃后序号不变
+ * @param maxChars 保留的最大字符数
+ * @param maxLineLength 单行的最大长度, 超出部分被截断
+ * @param chunkLines 每块的行数
+ * */
+class LogBuffer(
+    private val maxChars: Int = 256 * 1024,
+    private val maxLineLength: Int = 1024,
+    private val chunkLines: Int = 256
+) {
+
+    companion object {
+        private val levels = LogLevel.values()
+    }
+
+    private class Chunk(size: Int) {
+        val lines = arrayOfNulls<String>(size)
+        val levels = ByteArray(size)
+        var startIndex = 0L
+        var count = 0
+        var chars = 0
+
+        fun reset(startIndex: Long) {
+            lines.fill(null)
+            this.startIndex = startIndex
+            count = 0
+            chars = 0
+        }
+    }
+
+    private val chunks = ArrayDeque<Chunk>()
+
+    private var spareChunk: Chunk? = null
+
+    private var totalChars = 0
+
+    private var firstIndex = 0L
+
+    private var nextIndex = 0L
+
+    @Synchronized
+    fun append(line: String, level: LogLevel) {
+        val text = if (line.length > maxLineLength) line.substring(0, maxLineLength) else line
+        var chunk = chunks.lastOrNull()
+        if (chunk == null || chunk.count == chunkLines) {
+            chunk = spareChunk ?: Chunk(chunkLines)
+            spareChunk = null
+            chunk.reset(nextIndex)
+            chunks.addLast(chunk)
+        }
+        chunk.lines[chunk.count] = text
+        chunk.levels[chunk.count] = level.ordinal.toByte()
+        ++chunk.count
+        chunk.chars += text.length
+        totalChars += text.length
+        ++nextIndex
+
+        // 至少保留当前正在写入的块
+        while (totalChars > maxChars && chunks.size > 1) {
+            val oldest = chunks.removeFirst()
+            totalChars -= oldest.chars
+            firstIndex = chunks.first().startIndex
+            oldest.reset(0L)
+            spareChunk = oldest
+        }
+    }
+
+    /**
+     * 最旧的保留行的序号
+     * */
+    @Synchronized
+    fun getFirstIndex(): Long {
+        return firstIndex
+    }
+
+    /**
+     * 下一行的序号, 同时可作为缓冲区的版本号
+     * */
+    @Synchronized
+    fun getNextIndex(): Long {
+        return nextIndex
+    }
+
+    /**
+     * @return 序号对应的行, 已被丢弃时返回 null
+     * */
+    @Synchronized
+    fun getLine(index: Long): String? {
+        val chunk = chunkOf(index) ?: return null
+        return chunk.lines[(index - chunk.startIndex).toInt()]
+    }
+
+    @Synchronized
+    fun getLevel(index: Long): LogLevel? {
+        val chunk = chunkOf(index) ?: return null
+        return levels[chunk.levels[(index - chunk.startIndex).toInt()].toInt()]
+    }
+
+    /**
+     * 依次回调从 fromIndex 开始、级别不低于 minLevel 的行的序号
+     * @return 下一次调用使用的 fromIndex
+     * */
+    @Synchronized
+    fun scan(fromIndex: Long, minLevel: LogLevel, block: (Long) -> Unit): Long {
+        val minOrdinal = minLevel.ordinal
+        for (chunk in chunks) {
+            val chunkEnd = chunk.startIndex + chunk.count
+            if (chunkEnd <= fromIndex) {
+                continue
+            }
+            val start = (fromIndex - chunk.startIndex).coerceAtLeast(0L).toInt()
+            for (offset in start until chunk.count) {
+                if (chunk.levels[offset] >= minOrdinal) {
+                    block(chunk.startIndex + offset)
+                }
+            }
+        }
+        return nextIndex
+    }
+
+    @Synchronized
+    fun clear() {
+        chunks.clear()
+        spareChunk = null
+        totalChars = 0
+        firstIndex = nextIndex
+    }
+
+    private fun chunkOf(index: Long): Chunk? {
+        if (index < firstIndex || index >= nextIndex) {
+            return null
+        }
+        // 块的行数固定, 可以直接计算所在的块
+        val first = chunks.first()
+        return chunks[((index - first.startIndex) / chunkLines).toInt()]
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.mucheng.webops.plugin.log
+
+/**
+ * 日志级别, 按严重程度递增排列
+ * */
+enum class LogLevel {
+    Info, Warn, Error;
+
+    companion object {
+
+        private val errorTokens = arrayOf(
+            "[error]", ":error]", "[crit]", ":crit]", "[alert]", ":alert]", "[emerg]", ":emerg]",
+            "error:", "fatal", "[重启失败"
+        )
+
+        private val warnTokens = arrayOf("[warn]", ":warn]", "[warning]", "warning:", "notice:", "[进程已退出")
+
+        /**
+         * 根据 nginx、Apache、php-fpm 与 mysqld 日志中常见的级别标记判断级别
+         * */
+        fun detect(line: String): LogLevel {
+            val lowerCaseLine = line.lowercase()
+            return when {
+                errorTokens.any { lowerCaseLine.contains(it) } -> Error
+                warnTokens.any { lowerCaseLine.contains(it) } -> Warn
+                else -> Info
+            }
+        }
+
+        /**
+         * 访问日志按响应状态码判断级别: 5xx 为错误, 4xx 为警告
+         * */
+        fun ofStatus(status: Int): LogLevel {
+            return when {
+                status >= 500 -> Error
+                status >= 400 -> Warn
+                else -> Info
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.mucheng.webops.plugin.log
+
+import android.annotation.SuppressLint
+import android.system.Os
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * 跟踪日志文件新写入的内容, 与 tail -F 类似
+ *
+ * 打开时只读取文件末尾的 initialBytes 字节, 之后每次轮询只读取新增的部分,
+ * 因此日志文件的大小不影响读取开销; 文件被截断或轮转 (路径指向了另一个文件) 后从头开始读取
+ * @param maxLineLength 每行最多保留的字节数, 超出时在字符边界处截断
+ * @param onLine 在 IO 线程中按行回调, 不包括换行符
+ * */
+class LogTailer(
+    private val file: File,
+    scope: CoroutineScope,
+    private val pollIntervalMillis: Long = 500L,
+    private val initialBytes: Long = 64 * 1024L,
+    private val maxLineLength: Int = 1024,
+    private val onLine: (String) -> Unit
+) : Closeable {
+
+    private val buffer = ByteBuffer.allocate(16 * 1024)
+
+    private val lineBuffer = ByteArrayOutputStream(256)
+
+    // 当前行超出 maxLineLength 后丢弃剩余部分, 直到遇到换行符
+    private var isSkippingLine = false
+
+    private var channel: FileChannel? = null
+
+    // 打开的文件的标识 (设备号与 inode), 路径上的标识变化说明日志已轮转
+    private var channelFileKey: Any? = null
+
+    private var position = 0L
+
+    // 文件被截断、重新创建或打开时尚不存在, 内容需要全部读取
+    private var isRecreated = false
+
+    private val job = scope.launch(CoroutineName("LogTailerCoroutine") + Dispatchers.IO) {
+        while (isActive) {
+            runCatching { poll() }.exceptionOrNull()?.printStackTrace()
+            delay(pollIntervalMillis)
+        }
+    }
+
+    private fun poll() {
+        var channel = channel
+        if (channel == null) {
+            if (!file.exists()) {
+                // 文件创建后的内容都是新写入的
+                isRecreated = true
+                return
+            }
+            val fileKey = fileKeyOf(file)
+            channel = FileInputStream(file).channel
+            this.channel = channel
+            channelFileKey = fileKey
+            position = if (isRecreated) 0L else (channel.size() - initialBytes).coerceAtLeast(0L)
+            isRecreated = false
+            // 从文件中间开始时跳过不完整的第一行
+            isSkippingLine = position > 0L
+            lineBuffer.reset()
+        }
+
+        if (channel.size() < position) {
+            // 日志被截断, 重新打开
+            closeChannel()
+            isRecreated = true
+            return
+        }
+
+        val size = channel.size()
+        while (position < size) {
+            buffer.clear()
+            val count = channel.read(buffer, position)
+            if (count <= 0) {
+                break
+            }
+            position += count
+            consume(buffer.array(), count)
+        }
+
+        // 轮转前写入旧文件的内容已在上面读完, 之后改为读取新文件
+        if (isRotated()) {
+            closeChannel()
+            isRecreated = true
+        }
+    }
+
+    private fun isRotated(): Boolean {
+        if (!file.exists()) {
+            return true
+        }
+        val openedFileKey = channelFileKey ?: return file.length() < position
+        val fileKey = fileKeyOf(file) ?: return file.length() < position
+        return fileKey != openedFileKey
+    }
+
+    /**
+     * 文件的唯一标识, 无法获取时返回 null
+     * */
+    @SuppressLint("NewApi")
+    private fun fileKeyOf(file: File): Any? {
+        // Android 上使用 stat, 单元测试 (JVM) 中回退到 NIO
+        return runCatching {
+            val stat = Os.stat(file.path)
+            stat.st_dev to stat.st_ino
+        }.recoverCatching {
+            Files.readAttributes(file.toPath(), BasicFileAttributes::class.java).fileKey()
+        }.getOrNull()
+    }
+
+    private fun consume(bytes: ByteArray, count: Int) {
+        var lineStart = 0
+        for (index in 0 until count) {
+            if (bytes[index] != '\n'.code.toByte()) {
+                continue
+            }
+            appendToLine(bytes, lineStart, index - lineStart)
+            if (!isSkippingLine) {
+                emitLine()
+            }
+            lineBuffer.reset()
+            isSkippingLine = false
+            lineStart = index + 1
+        }
+        appendToLine(bytes, lineStart, count - lineStart)
+    }
+
+    private fun appendToLine(bytes: ByteArray, offset: Int, length: Int) {
+        if (isSkippingLine || length == 0) {
+            return
+        }
+        val remaining = maxLineLength - lineBuffer.size()
+        if (length > remaining) {
+            lineBuffer.write(bytes, offset, remaining)
+            emitLine(isTruncated = true)
+            lineBuffer.reset()
+            isSkippingLine = true
+            return
+        }
+        lineBuffer.write(bytes, offset, length)
+    }
+
+    private fun emitLine(isTruncated: Boolean = false) {
+        var line = if (isTruncated) {
+            val bytes = lineBuffer.toByteArray()
+            String(bytes, 0, utf8Boundary(bytes), Charsets.UTF_8)
+        } else {
+            lineBuffer.toString(Charsets.UTF_8.name())
+        }
+        if (line.endsWith('\r')) {
+            line = line.substring(0, line.length - 1)
+        }
+        onLine(line)
+    }
+
+    /**
+     * 截断位置落在多字节字符中间时, 去掉末尾不完整的字符
+     * @return 可以完整解码的字节数
+     * */
+    private fun utf8Boundary(bytes: ByteArray): Int {
+        val length = bytes.size
+        var start = length - 1
+        while (start > 0 && length - start < 4 && bytes[start].toInt() and 0xC0 == 0x80) {
+            --start
+        }
+        if (start < 0) {
+            return length
+        }
+        val lead = bytes[start].toInt() and 0xFF
+        val charLength = when {
+            lead >= 0xF0 -> 4
+            lead >= 0xE0 -> 3
+            lead >= 0xC0 -> 2
+            else -> 1
+        }
+        return if (length - start < charLength) start else length
+    }
+
+    private fun closeChannel() {
+        runCatching { channel?.close() }
+        channel = null
+        channelFileKey = null
+    }
+
+    override fun close() {
+        job.cancel()
+        job.invokeOnCompletion { closeChannel() }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.mucheng.webops.plugin.log
+
+import android.graphics.Color
+import android.graphics.Typeface
+import android.util.TypedValue
+import android.view.View
+import android.view.ViewGroup
+import android.widget.TextView
+import androidx.appcompat.app.AppCompatActivity
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.google.android.material.chip.Chip
+import com.google.android.material.chip.ChipGroup
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.google.android.material.textview.MaterialTextView
+import com.mucheng.web.devops.openapi.R
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * 服务器日志面板
+ * 列表只为可见的行创建视图, 每次刷新只扫描新增的行, 日志再多也不会阻塞界面
+ * */
+class LogViewerDialog(
+    private val activity: AppCompatActivity,
+    private val scope: CoroutineScope,
+    private val serverLogs: ServerLogs
+) {
+
+    companion object {
+        private const val REFRESH_INTERVAL_MILLIS = 500L
+
+        private val ERROR_COLOR = Color.parseColor("#E53935")
+        private val WARN_COLOR = Color.parseColor("#FB8C00")
+    }
+
+    private val adapter = LogAdapter()
+
+    private lateinit var recyclerView: RecyclerView
+
+    private lateinit var layoutManager: LinearLayoutManager
+
+    private var source: ServerLogs.Source? = null
+
+    private var minLevel = LogLevel.Info
+
+    // 当前来源中满足级别的行的序号
+    private var indices = LongArray(256)
+
+    private var indexCount = 0
+
+    private var scannedIndex = 0L
+
+    private var refreshJob: Job? = null
+
+    fun show() {
+        val view = activity.layoutInflater.inflate(R.layout.layout_log_viewer, null)
+        val statsView: MaterialTextView = view.findViewById(R.id.logStats)
+        val sourceGroup: ChipGroup = view.findViewById(R.id.logSources)
+        val levelGroup: ChipGroup = view.findViewById(R.id.logLevels)
+        recyclerView = view.findViewById(R.id.logList)
+        layoutManager = LinearLayoutManager(activity)
+        recyclerView.layoutManager = layoutManager
+        recyclerView.adapter = adapter
+
+        val sources = serverLogs.getSources()
+        sources.forEachIndexed { index, source ->
+            val chip = Chip(activity)
+            chip.id = View.generateViewId()
+            chip.text = source.title
+            chip.isCheckable = true
+            chip.setOnCheckedChangeListener { _, isChecked ->
+                if (isChecked) {
+                    selectSource(source)
+                }
+            }
+            sourceGroup.addView(chip)
+            if (index == 0) {
+                chip.isChecked = true
+            }
+        }
+
+        levelGroup.setOnCheckedChangeListener { _, checkedId ->
+            minLevel = when (checkedId) {
+                R.id.levelWarn -> LogLevel.Warn
+                R.id.levelError -> LogLevel.Error
+                else -> LogLevel.Info
+            }
+            resetIndices()
+            refresh(true)
+        }
+
+        val dialog = MaterialAlertDialogBuilder(activity)
+            .setTitle("服务器日志")
+            .setView(view)
+            .setPositiveButton("关闭", null)
+            .setOnDismissListener {
+                refreshJob?.cancel()
+                refreshJob = null
+            }
+            .show()
+
+        refreshJob = scope.launch(CoroutineName("RefreshLogViewerCoroutine")) {
+            refresh(true)
+            while (isActive && dialog.isShowing) {
+                statsView.text = serverLogs.accessStats.snapshot().toString()
+                delay(REFRESH_INTERVAL_MILLIS)
+                refresh(false)
+            }
+        }
+    }
+
+    private fun selectSource(source: ServerLogs.Source) {
+        this.source = source
+        resetIndices()
+        refresh(true)
+    }
+
+    private fun resetIndices() {
+        indexCount = 0
+        scannedIndex = 0L
+    }
+
+    /**
+     * 丢弃已被缓冲区淘汰的行, 并追加新增的行
+     * @param forceScroll 是否滚动到底部, 否则只有列表原本位于底部时才跟随
+     * */
+    private fun refresh(forceScroll: Boolean) {
+        val buffer = source?.buffer ?: return
+        val firstIndex = buffer.getFirstIndex()
+        val isUnchanged = scannedIndex == buffer.getNextIndex() && (indexCount == 0 || indices[0] >= firstIndex)
+        if (!forceScroll && isUnchanged) {
+            return
+        }
+        val isAtBottom = layoutManager.findLastVisibleItemPosition() >= indexCount - 1
+
+        var dropCount = 0
+        while (dropCount < indexCount && indices[dropCount] < firstIndex) {
+            ++dropCount
+        }
+        if (dropCount > 0) {
+            System.arraycopy(indices, dropCount, indices, 0, indexCount - dropCount)
+            indexCount -= dropCount
+        }
+        scannedIndex = buffer.scan(scannedIndex.coerceAtLeast(firstIndex), minLevel) { index ->
+            if (indexCount == indices.size) {
+                indices = indices.copyOf(indices.size * 2)
+            }
+            indices[indexCount++] = index
+        }
+
+        adapter.notifyDataSetChanged()
+        if ((forceScroll || isAtBottom) && indexCount > 0) {
+            recyclerView.scrollToPosition(indexCount - 1)
+        }
+    }
+
+    private inner class LogAdapter : RecyclerView.Adapter<LogAdapter.ViewHolder>() {
+
+        inner class ViewHolder(val textView: TextView) : RecyclerView.ViewHolder(textView)
+
+        private var defaultColor = 0
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+            val textView = TextView(parent.context)
+            textView.layoutParams = RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT
+            )
+            textView.typeface = Typeface.MONOSPACE
+            textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11f)
+            defaultColor = textView.currentTextColor
+            return ViewHolder(textView)
+        }
+
+        override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+            val buffer = source?.buffer
+            val index = indices[position]
+            holder.textView.text = buffer?.getLine(index) ?: ""
+            holder.textView.setTextColor(
+                when (buffer?.getLevel(index)) {
+                    LogLevel.Error -> ERROR_COLOR
+                    LogLevel.Warn -> WARN_COLOR
+                    else -> defaultColor
+                }
+            )
+        }
+
+        override fun getItemCount(): Int {
+            return indexCount
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.mucheng.webops.plugin.log
+
+import com.mucheng.webops.plugin.command.ProcessSupervisor
+import kotlinx.coroutines.CoroutineScope
+import java.io.Closeable
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 工程运行期间的服务器日志
+ * 访问日志、错误日志与进程输出分别保存在各自的 [LogBuffer] 中, 访问日志同时计入 [accessStats]
+ * */
+class ServerLogs(private val scope: CoroutineScope) : Closeable {
+
+    /**
+     * @param title 在日志面板中显示的名称
+     * */
+    class Source(val title: String, val buffer: LogBuffer)
+
+    val accessStats = AccessLogStats()
+
+    private val sources: MutableList<Source> = CopyOnWriteArrayList()
+
+    private val closeables: MutableList<Closeable> = CopyOnWriteArrayList()
+
+    /**
+     * 跟踪访问日志, 按状态码区分级别
+     * */
+    fun addAccessLog(title: String, file: File) {
+        val buffer = LogBuffer()
+        sources.add(Source(title, buffer))
+        closeables.add(LogTailer(file, scope) { line ->
+            val entry = accessStats.accept(line)
+            buffer.append(line, if (entry != null) LogLevel.ofStatus(entry.status) else LogLevel.Info)
+        })
+    }
+
+    /**
+     * 跟踪错误日志, 按行中的级别标记区分级别
+     * */
+    fun addErrorLog(title: String, file: File) {
+        val buffer = LogBuffer()
+        sources.add(Source(title, buffer))
+        closeables.add(LogTailer(file, scope) { buffer.append(it, LogLevel.detect(it)) })
+    }
+
+    /**
+     * 收集 supervisor 监管的进程的输出, 已有的输出同样被加入
+     * @param names 进程名称, 为空时收集所有进程
+     * */
+    fun addProcessOutput(title: String, supervisor: ProcessSupervisor, vararg names: String) {
+        val buffer = LogBuffer()
+        sources.add(Source(title, buffer))
+        for (name in names) {
+            supervisor.getOutput(name).forEach { buffer.append("[$name] $it", LogLevel.detect(it)) }
+        }
+        val listener = ProcessSupervisor.OutputListener { name, line ->
+            if (names.isEmpty() || name in names) {
+                buffer.append("[$name] $line", LogLevel.detect(line))
+            }
+        }
+        supervisor.addOutputListener(listener)
+        closeables.add(Closeable { supervisor.removeOutputListener(listener) })
+    }
+
+    fun getSources(): List<Source> {
+        return sources
+    }
+
+    override fun close() {
+        closeables.forEach { it.close() }
+        closeables.clear()
+    }
+
+}
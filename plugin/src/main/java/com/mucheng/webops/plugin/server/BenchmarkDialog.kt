@@ -0,0 +1,129 @@
+package com.mucheng.webops.plugin.server
+
+import androidx.appcompat.app.AppCompatActivity
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.mucheng.web.devops.openapi.view.LoadingComponent
+import es.dmoral.toasty.Toasty
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.net.URL
+import java.util.Locale
+
+/**
+ * 预览页面的性能测试面板
+ * 显示每种配置最近一次的结果与历史记录, 便于对比应用优化配置前后的每秒请求数
+ * @param label 当前使用的配置名称
+ * @param onApplyTunedConfig 重新生成优化配置, 覆盖前应备份原文件, 为 null 时不显示该按钮
+ * */
+class BenchmarkDialog(
+    private val activity: AppCompatActivity,
+    private val scope: CoroutineScope,
+    private val url: String,
+    private val logFile: File,
+    private val label: String,
+    private val onApplyTunedConfig: (suspend () -> Unit)? = null
+) {
+
+    companion object {
+        private const val MAX_HISTORY = 10
+    }
+
+    fun show() {
+        scope.launch(CoroutineName("ShowBenchmarkCoroutine")) {
+            val records = withContext(Dispatchers.IO) { HttpBenchmark.readLog(logFile) }
+            val builder = MaterialAlertDialogBuilder(activity)
+                .setTitle("性能测试")
+                .setMessage(buildMessage(records))
+                .setPositiveButton("开始测试") { _, _ -> runBenchmark() }
+                .setNegativeButton("关闭", null)
+            val onApply = onApplyTunedConfig
+            if (onApply != null) {
+                builder.setNeutralButton("应用优化配置") { _, _ -> confirmApplyTunedConfig(onApply) }
+            }
+            builder.show()
+        }
+    }
+
+    private fun buildMessage(records: List<HttpBenchmark.Record>): String {
+        return buildString {
+            append("测试地址: $url").appendLine()
+            append("当前配置: $label").appendLine()
+            if (records.isEmpty()) {
+                appendLine()
+                append("暂无测试记录")
+                return@buildString
+            }
+
+            appendLine()
+            val latestByLabel = records.associateBy { it.label }
+            for ((recordLabel, record) in latestByLabel) {
+                append("$recordLabel: ${record.result}").appendLine()
+            }
+            val baseline = latestByLabel.values.first().result.requestsPerSecond
+            val current = latestByLabel[label]?.result?.requestsPerSecond
+            if (latestByLabel.size > 1 && current != null && baseline > 0.0) {
+                append(
+                    String.format(Locale.ROOT, "与 %s 相比: %+.1f%%", latestByLabel.keys.first(), (current / baseline - 1) * 100)
+                ).appendLine()
+            }
+
+            appendLine()
+            append("历史记录:").appendLine()
+            for (record in records.takeLast(MAX_HISTORY).asReversed()) {
+                append("${record.time} [${record.label}]").appendLine()
+                append("  ${record.result}").appendLine()
+            }
+        }.trimEnd()
+    }
+
+    private fun runBenchmark() {
+        val loadingComponent = LoadingComponent(activity)
+        loadingComponent.setContent("正在测试, 请稍候....")
+        loadingComponent.show()
+        scope.launch(CoroutineName("RunBenchmarkCoroutine")) {
+            val result = runCatching {
+                val result = HttpBenchmark(URL(url)).run()
+                withContext(Dispatchers.IO) {
+                    HttpBenchmark.appendLog(logFile, label, result)
+                }
+                result
+            }
+            loadingComponent.dismiss()
+            result.exceptionOrNull()?.let {
+                it.printStackTrace()
+                Toasty.error(activity, "测试失败: ${it.message}").show()
+                return@launch
+            }
+            show()
+        }
+    }
+
+    private fun confirmApplyTunedConfig(onApply: suspend () -> Unit) {
+        // 配置文件可能被用户修改过
+        MaterialAlertDialogBuilder(activity)
+            .setTitle("应用优化配置")
+            .setMessage("将按设备性能重新生成 .WebDevOps 中的服务器配置文件并覆盖现有配置, 原文件会备份为同名的 .bak 文件, 是否继续?")
+            .setPositiveButton("继续") { _, _ -> applyTunedConfig(onApply) }
+            .setNegativeButton("取消", null)
+            .show()
+    }
+
+    private fun applyTunedConfig(onApply: suspend () -> Unit) {
+        scope.launch(CoroutineName("ApplyTunedConfigCoroutine")) {
+            val exception = runCatching {
+                withContext(Dispatchers.IO) { onApply() }
+            }.exceptionOrNull()
+            if (exception != null) {
+                exception.printStackTrace()
+                Toasty.error(activity, "应用失败: ${exception.message}").show()
+                return@launch
+            }
+            Toasty.success(activity, "已生成优化配置, 重新打开工程后生效").show()
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.mucheng.webops.plugin.server
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.zip.GZIPOutputStream
+
+/**
+ * 小文件的内存缓存, 同时缓存 gzip 压缩后的内容
+ * 文件的大小或修改时间变化后缓存失效; 只在服务器线程中访问, 不需要同步
+ * @param maxSize 缓存内容的最大总字节数
+ * */
+internal class HotFileCache(private val maxSize: Long) {
+
+    private class Entry(
+        val length: Long,
+        val lastModified: Long,
+        var raw: ByteBuffer?,
+        var gzip: ByteBuffer?
+    ) {
+        val size: Long
+            get() = (raw?.capacity() ?: 0).toLong() + (gzip?.capacity() ?: 0).toLong()
+    }
+
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    private var size = 0L
+
+    /**
+     * 获取文件内容, 返回的缓冲区可以直接写出
+     * */
+    fun getRaw(file: File, length: Long, lastModified: Long): ByteBuffer {
+        val entry = entryOf(file, length, lastModified)
+        val raw = entry.raw ?: ByteBuffer.wrap(file.readBytes()).also {
+            entry.raw = it
+            grow(it.capacity().toLong())
+        }
+        return raw.duplicate()
+    }
+
+    /**
+     * 获取 gzip 压缩后的文件内容
+     * */
+    fun getGzip(file: File, length: Long, lastModified: Long): ByteBuffer {
+        val entry = entryOf(file, length, lastModified)
+        val gzip = entry.gzip ?: ByteBuffer.wrap(compress(file)).also {
+            entry.gzip = it
+            grow(it.capacity().toLong())
+        }
+        return gzip.duplicate()
+    }
+
+    fun clear() {
+        entries.clear()
+        size = 0L
+    }
+
+    private fun entryOf(file: File, length: Long, lastModified: Long): Entry {
+        val path = file.path
+        val entry = entries[path]
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            return entry
+        }
+        if (entry != null) {
+            size -= entry.size
+        }
+        return Entry(length, lastModified, null, null).also { entries[path] = it }
+    }
+
+    private fun grow(bytes: Long) {
+        size += bytes
+        // 按最近最少使用淘汰, 刚写入的条目位于末尾
+        val iterator = entries.values.iterator()
+        while (size > maxSize && entries.size > 1 && iterator.hasNext()) {
+            val entry = iterator.next()
+            size -= entry.size
+            iterator.remove()
+        }
+    }
+
+    private fun compress(file: File): ByteArray {
+        val output = ByteArrayOutputStream((file.length() / 3).toInt().coerceAtLeast(64))
+        GZIPOutputStream(output).use { gzip ->
+            file.inputStream().use { it.copyTo(gzip) }
+        }
+        return output.toByteArray()
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.mucheng.webops.plugin.server
+
+import com.mucheng.web.devops.openapi.util.TimeUtil
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.Locale
+
+/**
+ * 本地 HTTP 服务器的简单压力测试
+ * 多个并发连接在给定时间内 (或按给定次数) 循环请求同一地址, 连接保持复用, 统计每秒请求数与延迟
+ * @param concurrency 并发连接数
+ * @param durationMillis 测试时长, 不包括预热
+ * @param warmupRequests 每个连接正式计时前的请求数, 用于建立连接与填充服务器缓存
+ * @param requestsPerConnection 大于 0 时每个连接只发送该数量的请求, 忽略 [durationMillis]
+ * */
+class HttpBenchmark(
+    private val url: URL,
+    private val concurrency: Int = 4,
+    private val durationMillis: Long = 5000L,
+    private val warmupRequests: Int = 10,
+    private val requestsPerConnection: Int = 0
+) {
+
+    companion object {
+        private const val TIMEOUT_MILLIS = 5000
+
+        private const val SEPARATOR = '\t'
+
+        /**
+         * 追加一条测试记录
+         * @param label 配置名称, 用于对比不同配置下的结果
+         * */
+        fun appendLog(logFile: File, label: String, result: Result) {
+            runCatching {
+                logFile.parentFile?.mkdirs()
+                logFile.appendText(
+                    listOf(
+                        TimeUtil.getFormattedTime(),
+                        label,
+                        result.requests,
+                        result.errors,
+                        result.elapsedMillis,
+                        result.bytes,
+                        result.averageMicros,
+                        result.p95Micros
+                    ).joinToString(SEPARATOR.toString()) + "\n"
+                )
+            }.exceptionOrNull()?.printStackTrace()
+        }
+
+        /**
+         * 读取测试记录, 按时间先后排列, 无法解析的行被忽略
+         * */
+        fun readLog(logFile: File): List<Record> {
+            if (!logFile.exists()) {
+                return emptyList()
+            }
+            return logFile.readLines().mapNotNull { line ->
+                val fields = line.split(SEPARATOR)
+                if (fields.size < 8) {
+                    return@mapNotNull null
+                }
+                val result = Result(
+                    fields[2].toLongOrNull() ?: return@mapNotNull null,
+                    fields[3].toLongOrNull() ?: return@mapNotNull null,
+                    fields[4].toLongOrNull() ?: return@mapNotNull null,
+                    fields[5].toLongOrNull() ?: return@mapNotNull null,
+                    fields[6].toLongOrNull() ?: return@mapNotNull null,
+                    fields[7].toLongOrNull() ?: return@mapNotNull null
+                )
+                Record(fields[0], fields[1], result)
+            }
+        }
+    }
+
+    /**
+     * @param requests 成功的请求数
+     * @param errors 失败的请求数, 包括非 2xx/3xx 的响应
+     * @param elapsedMillis 实际的测试时长
+     * @param bytes 读取的响应体字节数
+     * @param averageMicros 平均延迟 (微秒)
+     * @param p95Micros 95% 的请求不超过该延迟 (微秒)
+     * */
+    class Result(
+        val requests: Long,
+        val errors: Long,
+        val elapsedMillis: Long,
+        val bytes: Long,
+        val averageMicros: Long,
+        val p95Micros: Long
+    ) {
+
+        val requestsPerSecond: Double
+            get() = if (elapsedMillis == 0L) 0.0 else requests * 1000.0 / elapsedMillis
+
+        override fun toString(): String {
+            return String.format(
+                Locale.ROOT,
+                "%.1f req/s, 平均 %.2f ms, P95 %.2f ms, 失败 %d",
+                requestsPerSecond,
+                averageMicros / 1000.0,
+                p95Micros / 1000.0,
+                errors
+            )
+        }
+
+    }
+
+    class Record(val time: String, val label: String, val result: Result)
+
+    private class WorkerStats {
+        var requests = 0L
+        var errors = 0L
+        var bytes = 0L
+        var latencies = LongArray(1024)
+        var latencyCount = 0
+
+        fun addLatency(micros: Long) {
+            if (latencyCount == latencies.size) {
+                latencies = latencies.copyOf(latencies.size * 2)
+            }
+            latencies[latencyCount++] = micros
+        }
+    }
+
+    suspend fun run(): Result {
+        return withContext(Dispatchers.IO) {
+            // 预热阶段建立的连接保留在 HttpURLConnection 的连接池中, 正式阶段直接复用
+            coroutineScope {
+                (0 until concurrency).map {
+                    async(CoroutineName("HttpBenchmarkWarmupCoroutine")) {
+                        val buffer = ByteArray(8192)
+                        repeat(warmupRequests) {
+                            ensureActive()
+                            request(buffer)
+                        }
+                    }
+                }.awaitAll()
+            }
+
+            val startTime = System.nanoTime()
+            val deadline = startTime + durationMillis * 1_000_000L
+            val stats = coroutineScope {
+                (0 until concurrency).map {
+                    async(CoroutineName("HttpBenchmarkCoroutine")) {
+                        val stats = WorkerStats()
+                        val buffer = ByteArray(8192)
+                        var remaining = requestsPerConnection
+                        while (if (requestsPerConnection > 0) remaining-- > 0 else System.nanoTime() < deadline) {
+                            ensureActive()
+                            val requestStart = System.nanoTime()
+                            val bytes = request(buffer)
+                            if (bytes < 0) {
+                                ++stats.errors
+                                continue
+                            }
+                            ++stats.requests
+                            stats.bytes += bytes
+                            stats.addLatency((System.nanoTime() - requestStart) / 1000L)
+                        }
+                        stats
+                    }
+                }.awaitAll()
+            }
+            val elapsedMillis = (System.nanoTime() - startTime) / 1_000_000L
+            summarize(stats, elapsedMillis.coerceAtLeast(1L))
+        }
+    }
+
+    /**
+     * 完整读取响应体以便连接被复用
+     * @return 响应体字节数, 失败时返回 -1
+     * */
+    private fun request(buffer: ByteArray): Long {
+        val connection = url.openConnection() as HttpURLConnection
+        return try {
+            connection.connectTimeout = TIMEOUT_MILLIS
+            connection.readTimeout = TIMEOUT_MILLIS
+            connection.useCaches = false
+            val code = connection.responseCode
+            val input = if (code >= 400) connection.errorStream else connection.inputStream
+            var total = 0L
+            input?.use {
+                while (true) {
+                    val count = it.read(buffer)
+                    if (count == -1) {
+                        break
+                    }
+                    total += count
+                }
+            }
+            if (code in 200..399) total else -1L
+        } catch (e: IOException) {
+            // 出错的连接不能再复用
+            connection.disconnect()
+            -1L
+        }
+    }
+
+    private fun summarize(stats: List<WorkerStats>, elapsedMillis: Long): Result {
+        val latencyCount = stats.sumOf { it.latencyCount }
+        val latencies = LongArray(latencyCount)
+        var offset = 0
+        for (worker in stats) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.latencyCount)
+            offset += worker.latencyCount
+        }
+        latencies.sort()
+        val average = if (latencyCount == 0) 0L else latencies.sum() / latencyCount
+        val p95 = if (latencyCount == 0) 0L else latencies[((latencyCount - 1) * 95) / 100]
+        return Result(
+            stats.sumOf { it.requests },
+            stats.sumOf { it.errors },
+            elapsedMillis,
+            stats.sumOf { it.bytes },
+            average,
+            p95
+        )
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.mucheng.webops.plugin.server
+
+import android.webkit.WebView
+import com.mucheng.webops.plugin.event.FileSaveBus
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.Closeable
+import java.io.File
+import java.net.URLEncoder
+
+/**
+ * 实时预览
+ *
+ * 订阅编辑器的保存事件, 合并短时间内的连续保存后回调 onChange;
+ * 只修改了 CSS 时仅替换对应的样式表, 其他文件则重新加载页面, 未修改的资源不会重新请求
+ * @param rootDir 站点根目录, 只处理其中的文件
+ * @param delayMillis 合并保存事件的时间窗口
+ * @param onChange 在 IO 线程中回调
+ * */
+class LiveReload(
+    rootDir: File,
+    private val delayMillis: Long = 80L,
+    private val onChange: (Change) -> Unit
+) : Closeable {
+
+    companion object {
+
+        /**
+         * StaticFileServer 提供的 SSE 地址
+         * */
+        const val ENDPOINT = "/__livereload"
+
+        /**
+         * StaticFileServer 提供的客户端脚本地址, 会自动注入到 HTML 页面中
+         * */
+        const val CLIENT_PATH = "/__livereload.js"
+
+        // 应用一次变更: (type, paths), 找不到匹配的样式表时重新加载页面
+        private const val APPLY_FUNCTION = """function (type, paths) {
+  if (type !== 'css') {
+    location.reload();
+    return;
+  }
+  function swap(link) {
+    var href = link.href.replace(/([?&])livereload=\d+(&|$)/, function (match, prefix, suffix) {
+      return suffix ? prefix : '';
+    });
+    var clone = link.cloneNode(false);
+    clone.href = href + (href.indexOf('?') === -1 ? '?' : '&') + 'livereload=' + Date.now();
+    clone.onload = clone.onerror = function () {
+      if (link.parentNode) {
+        link.parentNode.removeChild(link);
+      }
+    };
+    link.parentNode.insertBefore(clone, link.nextSibling);
+  }
+  var links = document.querySelectorAll('link[rel~="stylesheet"]');
+  var anchor = document.createElement('a');
+  var swapped = 0;
+  for (var i = 0; i < links.length; i++) {
+    anchor.href = links[i].href;
+    var pathname = decodeURIComponent(anchor.pathname);
+    for (var j = 0; j < paths.length; j++) {
+      var path = paths[j];
+      if (pathname.length >= path.length && pathname.slice(-path.length) === path) {
+        swap(links[i]);
+        swapped++;
+        break;
+      }
+    }
+  }
+  if (swapped === 0) {
+    location.reload();
+  }
+}"""
+
+        internal val CLIENT_SCRIPT = """(function () {
+  if (window.__webDevOpsLiveReload) {
+    return;
+  }
+  var apply = window.__webDevOpsLiveReload = $APPLY_FUNCTION;
+  if (!window.EventSource) {
+    return;
+  }
+  var source = new EventSource('$ENDPOINT');
+  source.addEventListener('change', function (event) {
+    var change = JSON.parse(event.data);
+    apply(change.type, change.paths);
+  });
+})();
+"""
+
+        /**
+         * 在 WebView 中应用变更, 适用于无法注入客户端脚本的服务器 (Apache、Nginx)
+         * */
+        fun apply(webView: WebView, change: Change) {
+            val script = "($APPLY_FUNCTION)('${change.type}', ${change.pathsToJson()});"
+            webView.post {
+                webView.evaluateJavascript(script, null)
+            }
+        }
+
+        /**
+         * 文件相对于 rootDir 的 URL 路径 (已编码), 不在 rootDir 中时返回 null
+         * */
+        fun toUrlPath(rootDir: File, file: File): String? {
+            val relativePath = toRelativePath(rootDir.canonicalFile, file) ?: return null
+            return relativePath.split('/').joinToString("/") {
+                URLEncoder.encode(it, "UTF-8").replace("+", "%20")
+            }
+        }
+
+        private fun toRelativePath(rootDir: File, file: File): String? {
+            val canonicalFile = runCatching { file.canonicalFile }.getOrNull() ?: return null
+            if (!canonicalFile.path.startsWith(rootDir.path + File.separator)) {
+                return null
+            }
+            return "/" + canonicalFile.relativeTo(rootDir).invariantSeparatorsPath
+        }
+
+        private fun escapeJson(text: String): String {
+            val builder = StringBuilder(text.length + 2)
+            builder.append('"')
+            for (char in text) {
+                when {
+                    char == '"' -> builder.append("\\\"")
+                    char == '\\' -> builder.append("\\\\")
+                    // U+2028 与 U+2029 在旧版 JS 字符串中不合法
+                    char < ' ' || char == '\u2028' || char == '\u2029' ->
+                        builder.append(String.format("\\u%04x", char.code))
+
+                    else -> builder.append(char)
+                }
+            }
+            builder.append('"')
+            return builder.toString()
+        }
+    }
+
+    /**
+     * 一次合并后的变更
+     * @param paths 相对于站点根目录的路径 (未编码), 以 "/" 开头
+     * */
+    class Change(val isStyleOnly: Boolean, val paths: List<String>) {
+
+        val type: String
+            get() = if (isStyleOnly) "css" else "reload"
+
+        internal fun pathsToJson(): String {
+            return paths.joinToString(",", prefix = "[", postfix = "]") { escapeJson(it) }
+        }
+
+        fun toJson(): String {
+            return "{\"type\":\"$type\",\"paths\":${pathsToJson()}}"
+        }
+
+    }
+
+    private val rootDir: File = rootDir.canonicalFile
+
+    private val scope = CoroutineScope(CoroutineName("LiveReloadCoroutine") + Dispatchers.IO)
+
+    private val pendingPaths: MutableSet<String> = LinkedHashSet()
+
+    private var job: Job? = null
+
+    private val listener = FileSaveBus.Listener { onFileSaved(it) }
+
+    init {
+        FileSaveBus.subscribe(listener)
+    }
+
+    private fun onFileSaved(file: File) {
+        val path = toRelativePath(rootDir, file) ?: return
+        synchronized(pendingPaths) {
+            pendingPaths.add(path)
+            if (job != null) {
+                return
+            }
+            job = scope.launch {
+                delay(delayMillis)
+                flush()
+            }
+        }
+    }
+
+    private fun flush() {
+        val paths = synchronized(pendingPaths) {
+            job = null
+            ArrayList(pendingPaths).also { pendingPaths.clear() }
+        }
+        if (paths.isEmpty()) {
+            return
+        }
+        val isStyleOnly = paths.all { it.endsWith(".css", ignoreCase = true) }
+        runCatching {
+            onChange(Change(isStyleOnly, paths))
+        }.exceptionOrNull()?.printStackTrace()
+    }
+
+    override fun close() {
+        FileSaveBus.unsubscribe(listener)
+        scope.cancel()
+    }
+
+}
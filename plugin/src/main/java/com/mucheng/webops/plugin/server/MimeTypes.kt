@@ -0,0 +1,59 @@
+package com.mucheng.webops.plugin.server
+
+/**
+ * 常见静态资源的 Content-Type
+ * */
+internal object MimeTypes {
+
+    private const val DEFAULT = "application/octet-stream"
+
+    private val types: Map<String, String> = hashMapOf(
+        "html" to "text/html; charset=utf-8",
+        "htm" to "text/html; charset=utf-8",
+        "css" to "text/css; charset=utf-8",
+        "js" to "text/javascript; charset=utf-8",
+        "mjs" to "text/javascript; charset=utf-8",
+        "json" to "application/json; charset=utf-8",
+        "map" to "application/json; charset=utf-8",
+        "xml" to "application/xml; charset=utf-8",
+        "txt" to "text/plain; charset=utf-8",
+        "md" to "text/markdown; charset=utf-8",
+        "csv" to "text/csv; charset=utf-8",
+        "svg" to "image/svg+xml",
+        "png" to "image/png",
+        "jpg" to "image/jpeg",
+        "jpeg" to "image/jpeg",
+        "gif" to "image/gif",
+        "webp" to "image/webp",
+        "ico" to "image/x-icon",
+        "bmp" to "image/bmp",
+        "woff" to "font/woff",
+        "woff2" to "font/woff2",
+        "ttf" to "font/ttf",
+        "otf" to "font/otf",
+        "wasm" to "application/wasm",
+        "mp3" to "audio/mpeg",
+        "wav" to "audio/wav",
+        "ogg" to "audio/ogg",
+        "mp4" to "video/mp4",
+        "webm" to "video/webm",
+        "pdf" to "application/pdf",
+        "zip" to "application/zip"
+    )
+
+    fun get(extension: String): String {
+        return types[extension.lowercase()] ?: DEFAULT
+    }
+
+    /**
+     * 文本类资源, 压缩收益明显
+     * */
+    fun isCompressible(contentType: String): Boolean {
+        return contentType.startsWith("text/") ||
+                contentType.startsWith("application/json") ||
+                contentType.startsWith("application/xml") ||
+                contentType.startsWith("image/svg+xml") ||
+                contentType.startsWith("application/wasm")
+    }
+
+}
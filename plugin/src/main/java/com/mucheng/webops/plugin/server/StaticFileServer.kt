@@ -0,0 +1,661 @@
+package com.mucheng.webops.plugin.server
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.Queue
+import java.util.TimeZone
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * 轻量的 HTTP/1.1 静态文件服务器
+ *
+ * 单线程 NIO Selector 处理所有连接, 支持 GET / HEAD、keep-alive 与管线化请求,
+ * ETag / Last-Modified 条件请求 (304), 文本资源 gzip 压缩, 小文件内存缓存,
+ * 大文件通过 FileChannel.transferTo 零拷贝发送; 所有响应允许跨域访问
+ * @param rootDir 网站根目录
+ * @param port 监听端口, 为 0 时由系统分配
+ * @param host 监听地址, 默认只允许本机访问; 传入 [ANY_HOST] 时局域网内的设备也可访问
+ * @param cacheSize 内存缓存的最大字节数
+ * @param liveReload 是否在 HTML 页面中注入实时预览脚本, 通过 [publish] 推送变更
+ * */
+class StaticFileServer(
+    rootDir: File,
+    private val port: Int = 0,
+    private val host: String = LOCAL_HOST,
+    cacheSize: Long = DEFAULT_CACHE_SIZE,
+    private val liveReload: Boolean = false
+) : Closeable {
+
+    companion object {
+        const val LOCAL_HOST = "127.0.0.1"
+        const val ANY_HOST = "0.0.0.0"
+
+        private const val DEFAULT_CACHE_SIZE = 8L * 1024 * 1024
+        private const val MAX_CACHED_FILE_SIZE = 256L * 1024
+        private const val MIN_COMPRESS_SIZE = 1024L
+        private const val MAX_COMPRESS_SIZE = 2L * 1024 * 1024
+        private const val MAX_HEADER_SIZE = 16 * 1024
+        private const val TRANSFER_SLICE_SIZE = 1024L * 1024
+        private const val KEEP_ALIVE_TIMEOUT_MILLIS = 15_000L
+        private const val SELECT_TIMEOUT_MILLIS = 1000L
+        private const val INDEX_FILE = "index.html"
+        private const val SERVER_NAME = "WebDevOps"
+        private const val MAX_PENDING_EVENTS = 64
+
+        private val HEARTBEAT_EVENT = ": ping\n\n".toByteArray()
+        private val CLIENT_SCRIPT_TAG = "\n<script src=\"${LiveReload.CLIENT_PATH}\"></script>\n".toByteArray()
+
+        private val HEADER_END = byteArrayOf('\r'.code.toByte(), '\n'.code.toByte(), '\r'.code.toByte(), '\n'.code.toByte())
+    }
+
+    private class Request(
+        val method: String,
+        val path: String,
+        val isHttp11: Boolean,
+        val headers: Map<String, String>
+    )
+
+    private val rootDir: File = rootDir.canonicalFile
+
+    private val cache = HotFileCache(cacheSize)
+
+    private val dateFormat = SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("GMT")
+    }
+
+    private var selector: Selector? = null
+
+    private var serverChannel: ServerSocketChannel? = null
+
+    private var thread: Thread? = null
+
+    // 其他线程发布的实时预览事件, 由服务器线程转发给所有 SSE 连接
+    private val pendingEvents: Queue<ByteBuffer> = ConcurrentLinkedQueue()
+
+    private val clientScript: ByteArray by lazy { LiveReload.CLIENT_SCRIPT.toByteArray() }
+
+    @Volatile
+    var isRunning = false
+        private set
+
+    /**
+     * 实际监听的端口, 未启动时为 -1
+     * */
+    val localPort: Int
+        get() = serverChannel?.socket()?.localPort ?: -1
+
+    /**
+     * 启动服务器, 绑定端口失败时抛出 IOException
+     * @return 实际监听的端口
+     * */
+    @Synchronized
+    fun start(): Int {
+        if (isRunning) {
+            return localPort
+        }
+
+        val selector = Selector.open()
+        val serverChannel = ServerSocketChannel.open()
+        try {
+            serverChannel.socket().reuseAddress = true
+            serverChannel.socket().bind(InetSocketAddress(host, port), 128)
+            serverChannel.configureBlocking(false)
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT)
+        } catch (e: IOException) {
+            serverChannel.close()
+            selector.close()
+            throw e
+        }
+
+        this.selector = selector
+        this.serverChannel = serverChannel
+        isRunning = true
+        thread = Thread({ loop(selector, serverChannel) }, "StaticFileServer").also {
+            it.isDaemon = true
+            it.start()
+        }
+        return serverChannel.socket().localPort
+    }
+
+    /**
+     * 停止服务器并关闭所有连接
+     * */
+    @Synchronized
+    fun stop() {
+        if (!isRunning) {
+            return
+        }
+        isRunning = false
+        // 不等待线程结束, 避免阻塞主线程; 连接与端口由 loop 退出时关闭
+        selector?.wakeup()
+        thread = null
+        selector = null
+        serverChannel = null
+    }
+
+    override fun close() {
+        stop()
+    }
+
+    /**
+     * 向所有订阅了实时预览的页面推送变更, 可在任意线程调用
+     * */
+    fun publish(change: LiveReload.Change) {
+        if (!isRunning) {
+            return
+        }
+        pendingEvents.offer(ByteBuffer.wrap("event: change\ndata: ${change.toJson()}\n\n".toByteArray()))
+        selector?.wakeup()
+    }
+
+    private fun loop(selector: Selector, serverChannel: ServerSocketChannel) {
+        var lastIdleCheck = System.currentTimeMillis()
+        try {
+            while (isRunning) {
+                selector.select(SELECT_TIMEOUT_MILLIS)
+                val iterator = selector.selectedKeys().iterator()
+                while (iterator.hasNext()) {
+                    val key = iterator.next()
+                    iterator.remove()
+                    if (!key.isValid) {
+                        continue
+                    }
+                    try {
+                        if (key.isAcceptable) {
+                            accept(selector, serverChannel)
+                            continue
+                        }
+                        val connection = key.attachment() as Connection
+                        if (key.isReadable) {
+                            connection.onReadable()
+                        } else if (key.isWritable) {
+                            connection.drive()
+                        }
+                    } catch (e: IOException) {
+                        (key.attachment() as? Connection)?.close()
+                    }
+                }
+
+                dispatchEvents(selector)
+
+                val now = System.currentTimeMillis()
+                if (now - lastIdleCheck >= SELECT_TIMEOUT_MILLIS) {
+                    lastIdleCheck = now
+                    closeIdleConnections(selector, now)
+                }
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        } finally {
+            for (key in selector.keys()) {
+                (key.attachment() as? Connection)?.close()
+            }
+            runCatching { serverChannel.close() }
+            runCatching { selector.close() }
+            cache.clear()
+            isRunning = false
+        }
+    }
+
+    private fun accept(selector: Selector, serverChannel: ServerSocketChannel) {
+        while (true) {
+            val channel = serverChannel.accept() ?: return
+            channel.configureBlocking(false)
+            channel.socket().tcpNoDelay = true
+            val key = channel.register(selector, SelectionKey.OP_READ)
+            key.attach(Connection(channel, key))
+        }
+    }
+
+    private fun closeIdleConnections(selector: Selector, now: Long) {
+        for (key in selector.keys()) {
+            val connection = key.attachment() as? Connection ?: continue
+            if (now - connection.lastActive <= KEEP_ALIVE_TIMEOUT_MILLIS) {
+                continue
+            }
+            if (connection.isEventStream) {
+                // SSE 连接不会超时, 定期发送心跳以发现已断开的客户端
+                connection.sendEvent(ByteBuffer.wrap(HEARTBEAT_EVENT))
+            } else {
+                connection.close()
+            }
+        }
+    }
+
+    private fun dispatchEvents(selector: Selector) {
+        while (true) {
+            val event = pendingEvents.poll() ?: return
+            for (key in selector.keys()) {
+                val connection = key.attachment() as? Connection ?: continue
+                if (connection.isEventStream) {
+                    connection.sendEvent(event.duplicate())
+                }
+            }
+        }
+    }
+
+    private inner class Connection(
+        private val channel: SocketChannel,
+        private val key: SelectionKey
+    ) {
+
+        private val readBuffer: ByteBuffer = ByteBuffer.allocate(MAX_HEADER_SIZE)
+
+        private var response: Response? = null
+
+        private val events: ArrayDeque<ByteBuffer> = ArrayDeque()
+
+        var lastActive: Long = System.currentTimeMillis()
+            private set
+
+        /**
+         * 已切换为 SSE 事件流, 不再处理后续请求
+         * */
+        var isEventStream = false
+            private set
+
+        fun onReadable() {
+            val count = channel.read(readBuffer)
+            if (count == -1) {
+                close()
+                return
+            }
+            lastActive = System.currentTimeMillis()
+            if (isEventStream) {
+                // 事件流中客户端不会再发送请求, 丢弃收到的数据
+                readBuffer.clear()
+                return
+            }
+            drive()
+        }
+
+        fun sendEvent(event: ByteBuffer) {
+            if (!key.isValid) {
+                return
+            }
+            if (events.size >= MAX_PENDING_EVENTS) {
+                // 客户端长时间不读取, 断开连接, EventSource 会自动重连
+                close()
+                return
+            }
+            events.addLast(event)
+            try {
+                flushEvents()
+            } catch (e: IOException) {
+                close()
+            }
+        }
+
+        private fun flushEvents() {
+            lastActive = System.currentTimeMillis()
+            while (events.isNotEmpty()) {
+                val event = events.first()
+                channel.write(event)
+                if (event.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+                    return
+                }
+                events.removeFirst()
+            }
+            key.interestOps(SelectionKey.OP_READ)
+        }
+
+        /**
+         * 依次处理缓冲区中的请求, 直到需要等待更多数据或 socket 写缓冲区已满
+         * */
+        fun drive() {
+            if (isEventStream) {
+                flushEvents()
+                return
+            }
+            while (true) {
+                var current = response
+                if (current == null) {
+                    val request = parseRequest()
+                    current = when {
+                        request != null -> handle(request)
+                        // 请求头超出缓冲区大小
+                        !readBuffer.hasRemaining() -> errorResponse(431, "Request Header Fields Too Large", false)
+                        else -> break
+                    }
+                    response = current
+                }
+
+                if (!current.writeTo(channel)) {
+                    key.interestOps(SelectionKey.OP_WRITE)
+                    return
+                }
+                current.close()
+                response = null
+                lastActive = System.currentTimeMillis()
+                if (current.isEventStream) {
+                    isEventStream = true
+                    readBuffer.clear()
+                    flushEvents()
+                    return
+                }
+                if (!current.keepAlive) {
+                    close()
+                    return
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ)
+        }
+
+        private fun parseRequest(): Request? {
+            val end = indexOfHeaderEnd()
+            if (end == -1) {
+                return null
+            }
+            val headerText = String(readBuffer.array(), 0, end, Charsets.ISO_8859_1)
+            // 移除已处理的请求, 保留管线化的后续请求
+            readBuffer.flip()
+            readBuffer.position(end + HEADER_END.size)
+            readBuffer.compact()
+
+            val lines = headerText.split("\r\n")
+            val requestLine = lines[0].split(' ')
+            if (requestLine.size != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                return Request("", "", false, emptyMap())
+            }
+            val headers = HashMap<String, String>()
+            for (index in 1 until lines.size) {
+                val line = lines[index]
+                val colon = line.indexOf(':')
+                if (colon > 0) {
+                    headers[line.substring(0, colon).trim().lowercase()] = line.substring(colon + 1).trim()
+                }
+            }
+            return Request(requestLine[0], requestLine[1], requestLine[2] == "HTTP/1.1", headers)
+        }
+
+        private fun indexOfHeaderEnd(): Int {
+            val array = readBuffer.array()
+            val limit = readBuffer.position() - HEADER_END.size
+            var index = 0
+            while (index <= limit) {
+                if (array[index] == HEADER_END[0] && array[index + 1] == HEADER_END[1] &&
+                    array[index + 2] == HEADER_END[2] && array[index + 3] == HEADER_END[3]
+                ) {
+                    return index
+                }
+                ++index
+            }
+            return -1
+        }
+
+        fun close() {
+            response?.close()
+            response = null
+            key.cancel()
+            runCatching { channel.close() }
+        }
+
+    }
+
+    /**
+     * 待发送的响应, 由响应头、内存中的响应体或文件区间组成
+     * */
+    private class Response(
+        private val header: ByteBuffer,
+        private val body: ByteBuffer?,
+        private val file: FileChannel?,
+        private var filePosition: Long,
+        private val fileEnd: Long,
+        val keepAlive: Boolean,
+        val isEventStream: Boolean = false
+    ) {
+
+        private val buffers: Array<ByteBuffer> = if (body != null) arrayOf(header, body) else arrayOf(header)
+
+        /**
+         * @return 是否已全部写出
+         * @throws IOException 文件被截短时抛出, 调用方应关闭连接
+         * */
+        fun writeTo(channel: SocketChannel): Boolean {
+            if (header.hasRemaining() || body?.hasRemaining() == true) {
+                channel.write(buffers)
+                if (header.hasRemaining() || body?.hasRemaining() == true) {
+                    return false
+                }
+            }
+            if (file != null) {
+                while (filePosition < fileEnd) {
+                    val count = file.transferTo(
+                        filePosition,
+                        minOf(TRANSFER_SLICE_SIZE, fileEnd - filePosition),
+                        channel
+                    )
+                    if (count <= 0L) {
+                        if (filePosition >= file.size()) {
+                            // 文件在发送过程中被截短, 无法发送声明的长度, 只能关闭连接
+                            throw IOException("File truncated while sending")
+                        }
+                        return false
+                    }
+                    filePosition += count
+                }
+            }
+            return true
+        }
+
+        fun close() {
+            runCatching { file?.close() }
+        }
+
+    }
+
+    private fun handle(request: Request): Response {
+        if (request.method.isEmpty()) {
+            return errorResponse(400, "Bad Request", false)
+        }
+
+        val connection = request.headers["connection"]?.lowercase()
+        val keepAlive = if (request.isHttp11) connection != "close" else connection == "keep-alive"
+        val isHead = request.method == "HEAD"
+        if (request.method != "GET" && !isHead) {
+            // 不读取请求体, 无法确定下一个请求的起始位置, 只能关闭连接
+            return errorResponse(405, "Method Not Allowed", false, "Allow: GET, HEAD\r\n")
+        }
+
+        val path = try {
+            URLDecoder.decode(
+                request.path.substringBefore('?').substringBefore('#').replace("+", "%2B"),
+                "UTF-8"
+            )
+        } catch (e: IllegalArgumentException) {
+            return errorResponse(400, "Bad Request", false)
+        }
+        if (!path.startsWith("/")) {
+            return errorResponse(400, "Bad Request", false)
+        }
+        if (liveReload) {
+            when (path) {
+                LiveReload.ENDPOINT -> return eventStreamResponse()
+                LiveReload.CLIENT_PATH -> return clientScriptResponse(keepAlive, isHead)
+            }
+        }
+
+        var file = File(rootDir, path).canonicalFile
+        if (file != rootDir && !file.path.startsWith(rootDir.path + File.separator)) {
+            return errorResponse(403, "Forbidden", keepAlive)
+        }
+        if (file.isDirectory) {
+            if (!path.endsWith("/")) {
+                // 保证页面中的相对路径基于该目录解析
+                return errorResponse(
+                    301, "Moved Permanently", keepAlive,
+                    "Location: ${request.path.substringBefore('?')}/\r\n"
+                )
+            }
+            file = File(file, INDEX_FILE)
+        }
+        if (!file.isFile) {
+            return errorResponse(404, "Not Found", keepAlive)
+        }
+
+        val length = file.length()
+        val lastModified = file.lastModified()
+        val lastModifiedText = formatDate(lastModified)
+        val contentType = MimeTypes.get(file.extension)
+        val isCompressible = MimeTypes.isCompressible(contentType)
+
+        // 注入脚本的页面直接从缓存拼接, 不压缩
+        val injectScript = liveReload && contentType.startsWith("text/html") && length <= MAX_CACHED_FILE_SIZE
+        val acceptsGzip = request.headers["accept-encoding"]?.contains("gzip") == true
+        val useGzip = !injectScript && acceptsGzip && isCompressible &&
+                length in MIN_COMPRESS_SIZE..MAX_COMPRESS_SIZE
+        // 压缩后的内容与原文件不同, 强 ETag 需要区分
+        val eTag = "\"${length.toString(16)}-${lastModified.toString(16)}${if (useGzip) "-gz" else ""}\""
+
+        if (isNotModified(request, eTag, lastModified)) {
+            val header = buildHeader(304, "Not Modified", keepAlive) {
+                append("ETag: ").append(eTag).append("\r\n")
+                append("Last-Modified: ").append(lastModifiedText).append("\r\n")
+                if (isCompressible) {
+                    append("Vary: Accept-Encoding\r\n")
+                }
+            }
+            return Response(header, null, null, 0L, 0L, keepAlive)
+        }
+
+        var body: ByteBuffer? = null
+        var fileChannel: FileChannel? = null
+        var contentLength = 0L
+        try {
+            when {
+                injectScript -> {
+                    val raw = cache.getRaw(file, length, lastModified)
+                    body = ByteBuffer.allocate(raw.remaining() + CLIENT_SCRIPT_TAG.size)
+                        .put(raw)
+                        .put(CLIENT_SCRIPT_TAG)
+                        .apply { flip() }
+                    contentLength = body.remaining().toLong()
+                }
+
+                useGzip -> {
+                    body = cache.getGzip(file, length, lastModified)
+                    contentLength = body.remaining().toLong()
+                }
+
+                length <= MAX_CACHED_FILE_SIZE -> {
+                    body = cache.getRaw(file, length, lastModified)
+                    contentLength = body.remaining().toLong()
+                }
+
+                else -> {
+                    contentLength = length
+                    if (!isHead) {
+                        fileChannel = RandomAccessFile(file, "r").channel
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            return errorResponse(500, "Internal Server Error", keepAlive)
+        }
+
+        val header = buildHeader(200, "OK", keepAlive) {
+            append("Content-Type: ").append(contentType).append("\r\n")
+            append("Content-Length: ").append(contentLength).append("\r\n")
+            append("ETag: ").append(eTag).append("\r\n")
+            append("Last-Modified: ").append(lastModifiedText).append("\r\n")
+            // 开发服务器: 允许缓存但每次都向服务器校验
+            append("Cache-Control: no-cache\r\n")
+            if (isCompressible) {
+                append("Vary: Accept-Encoding\r\n")
+            }
+            if (useGzip) {
+                append("Content-Encoding: gzip\r\n")
+            }
+        }
+        if (isHead) {
+            return Response(header, null, null, 0L, 0L, keepAlive)
+        }
+        return Response(header, body, fileChannel, 0L, if (fileChannel != null) length else 0L, keepAlive)
+    }
+
+    private fun eventStreamResponse(): Response {
+        val header = buildHeader(200, "OK", true) {
+            append("Content-Type: text/event-stream; charset=utf-8\r\n")
+            append("Cache-Control: no-store\r\n")
+        }
+        return Response(header, null, null, 0L, 0L, keepAlive = true, isEventStream = true)
+    }
+
+    private fun clientScriptResponse(keepAlive: Boolean, isHead: Boolean): Response {
+        val body = ByteBuffer.wrap(clientScript)
+        val header = buildHeader(200, "OK", keepAlive) {
+            append("Content-Type: text/javascript; charset=utf-8\r\n")
+            append("Content-Length: ").append(body.remaining()).append("\r\n")
+            append("Cache-Control: no-cache\r\n")
+        }
+        return Response(header, if (isHead) null else body, null, 0L, 0L, keepAlive)
+    }
+
+    private fun isNotModified(request: Request, eTag: String, lastModified: Long): Boolean {
+        val ifNoneMatch = request.headers["if-none-match"]
+        if (ifNoneMatch != null) {
+            return ifNoneMatch == "*" || ifNoneMatch.split(',').any {
+                it.trim().removePrefix("W/") == eTag
+            }
+        }
+        val ifModifiedSince = request.headers["if-modified-since"] ?: return false
+        val since = try {
+            dateFormat.parse(ifModifiedSince)?.time ?: return false
+        } catch (e: Exception) {
+            return false
+        }
+        // HTTP 日期精确到秒
+        return lastModified / 1000 <= since / 1000
+    }
+
+    private fun errorResponse(
+        code: Int,
+        reason: String,
+        keepAlive: Boolean,
+        extraHeaders: String = ""
+    ): Response {
+        val body = ByteBuffer.wrap("$code $reason".toByteArray())
+        val header = buildHeader(code, reason, keepAlive) {
+            append(extraHeaders)
+            append("Content-Type: text/plain; charset=utf-8\r\n")
+            append("Content-Length: ").append(body.remaining()).append("\r\n")
+        }
+        return Response(header, body, null, 0L, 0L, keepAlive)
+    }
+
+    private inline fun buildHeader(
+        code: Int,
+        reason: String,
+        keepAlive: Boolean,
+        block: StringBuilder.() -> Unit
+    ): ByteBuffer {
+        val builder = StringBuilder(256)
+        builder.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n")
+        builder.append("Server: ").append(SERVER_NAME).append("\r\n")
+        builder.append("Date: ").append(formatDate(System.currentTimeMillis())).append("\r\n")
+        builder.append("Access-Control-Allow-Origin: *\r\n")
+        builder.append("Connection: ").append(if (keepAlive) "keep-alive" else "close").append("\r\n")
+        builder.block()
+        builder.append("\r\n")
+        return ByteBuffer.wrap(builder.toString().toByteArray(Charsets.ISO_8859_1))
+    }
+
+    private fun formatDate(time: Long): String {
+        return dateFormat.format(Date(time))
+    }
+
+}
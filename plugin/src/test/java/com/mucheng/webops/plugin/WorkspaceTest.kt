@@ -0,0 +1,106 @@
+package com.mucheng.webops.plugin
+
+import com.mucheng.webops.plugin.data.Workspace
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.Properties
+
+class WorkspaceTest {
+
+    companion object {
+        private const val WARMUP = 200
+        private const val ITERATIONS = 2000
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun createWorkspace(): Workspace {
+        val workspace = Workspace()
+        workspace.setName("Benchmark")
+        workspace.setProjectId("com.mucheng.web.devops.statics.Main/StaticProject")
+        workspace.setCreationTime("2022-10-01 12:00:00")
+        workspace.setOpenFile("/storage/emulated/0/WebDevOps/Project/Benchmark/index.html")
+        workspace.set("indexPage", "/storage/emulated/0/WebDevOps/Project/Benchmark/index.html")
+        return workspace
+    }
+
+    private fun writeXml(file: File, props: Properties) {
+        file.outputStream().buffered().use {
+            props.storeToXML(it, null, "UTF-8")
+        }
+    }
+
+    private inline fun measure(name: String, block: () -> Unit) {
+        repeat(WARMUP) { block() }
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { block() }
+        val costs = (System.nanoTime() - start) / ITERATIONS / 1000.0
+        println("$name: ${"%.2f".format(costs)} us/op")
+    }
+
+    @Test
+    fun migratesXmlOnFirstStore() {
+        val dir = folder.newFolder(".WebDevOps")
+        val xmlFile = File(dir, "Workspace.xml")
+        val source = createWorkspace()
+        writeXml(xmlFile, source.getMap())
+
+        val workspace = Workspace()
+        workspace.loadFrom(xmlFile)
+        assertEquals(source.getMap(), workspace.getMap())
+
+        workspace.storeTo(xmlFile)
+        assertFalse(xmlFile.exists())
+        assertTrue(Workspace.getStoreFile(xmlFile).isFile)
+
+        val reloaded = Workspace()
+        reloaded.loadFrom(xmlFile)
+        assertEquals(source.getMap(), reloaded.getMap())
+    }
+
+    @Test
+    fun keepsValuesAcrossStoreAndLoad() {
+        val file = File(folder.newFolder(".WebDevOps"), "Workspace.xml")
+        val source = createWorkspace()
+        source.set("previewCacheMode", "Default")
+        source.storeTo(file)
+        // 再次写入时覆盖旧文件
+        source.setOpenFile("/storage/emulated/0/WebDevOps/Project/Benchmark/main.js")
+        source.storeTo(file)
+
+        val workspace = Workspace()
+        workspace.loadFrom(file)
+        assertEquals(source.getMap(), workspace.getMap())
+        assertEquals("Default", workspace.get("previewCacheMode"))
+    }
+
+    /**
+     * 二进制格式与旧版 XML 格式的读写耗时对比, 需要时手动运行
+     * */
+    @Ignore("基准测试, 不随单元测试运行")
+    @Test
+    fun benchmarkLoadAndStore() {
+        val workspace = createWorkspace()
+        val xmlDir = folder.newFolder("xml")
+        val binaryDir = folder.newFolder("binary")
+        val xmlFile = File(xmlDir, "Workspace.xml")
+        val binaryFile = File(binaryDir, "Workspace.xml")
+
+        measure("XML store") { writeXml(xmlFile, workspace.getMap()) }
+        measure("XML load") {
+            val props = Properties()
+            xmlFile.inputStream().buffered().use { props.loadFromXML(it) }
+        }
+
+        measure("Binary store (fsync)") { workspace.storeTo(binaryFile) }
+        measure("Binary load") { Workspace().loadFrom(binaryFile) }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.mucheng.webops.plugin.data
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ConfigTemplateTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun replacesKnownPlaceholders() {
+        val template = "listen \$PORT;\nroot \$PROJECT_DIR;\nworker_processes \$WORKER_PROCESSES;"
+        val result = ConfigTemplate.render(
+            template,
+            mapOf("PORT" to "8080", "PROJECT_DIR" to "/sdcard/site", "WORKER_PROCESSES" to "4")
+        )
+        assertEquals("listen 8080;\nroot /sdcard/site;\nworker_processes 4;", result)
+    }
+
+    @Test
+    fun keepsServerVariables() {
+        val template = "fastcgi_param SCRIPT_FILENAME \$PROJECT_DIR/\$fastcgi_script_name; # \$MYSQL_TCP_PORT"
+        val result = ConfigTemplate.render(template, mapOf("PROJECT_DIR" to "/site"))
+        assertEquals("fastcgi_param SCRIPT_FILENAME /site/\$fastcgi_script_name; # \$MYSQL_TCP_PORT", result)
+    }
+
+    @Test
+    fun doesNotMatchPrefixOfLongerName() {
+        val result = ConfigTemplate.render("\$PORT \$PORT_RANGE", mapOf("PORT" to "80"))
+        assertEquals("80 \$PORT_RANGE", result)
+    }
+
+    @Test
+    fun backsUpExistingFileBeforeOverwrite() {
+        val file = temporaryFolder.newFile("nginx.conf")
+        file.writeText("user edited")
+
+        ConfigTemplate.write(file, "generated", backup = true)
+
+        assertEquals("generated", file.readText())
+        assertEquals("user edited", File(file.parentFile, "nginx.conf.bak").readText())
+    }
+
+    @Test
+    fun skipsBackupForNewFile() {
+        val file = File(temporaryFolder.root, "php.ini")
+
+        ConfigTemplate.write(file, "generated", backup = true)
+
+        assertEquals("generated", file.readText())
+        assertFalse(File(temporaryFolder.root, "php.ini.bak").exists())
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.mucheng.webops.plugin.log
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AccessLogStatsTest {
+
+    @Test
+    fun parsesNginxTimedFormat() {
+        val entry = AccessLogStats.parse(
+            "127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET /index.php?id=1 HTTP/1.1\" 200 512 \"-\" \"Mozilla/5.0 Chrome/100.0\" 0.012"
+        )!!
+        assertEquals(200, entry.status)
+        assertEquals(512L, entry.bytes)
+        assertEquals("/index.php", entry.path)
+        assertEquals(12_000L, entry.timeMicros)
+    }
+
+    @Test
+    fun parsesApacheTimedFormat() {
+        val entry = AccessLogStats.parse(
+            "127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET /style.css HTTP/1.1\" 304 - 850"
+        )!!
+        assertEquals(304, entry.status)
+        assertEquals(0L, entry.bytes)
+        assertEquals(850L, entry.timeMicros)
+    }
+
+    @Test
+    fun ignoresMissingTime() {
+        val common = AccessLogStats.parse("127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET / HTTP/1.1\" 404 196")!!
+        assertEquals(-1L, common.timeMicros)
+        val combined = AccessLogStats.parse(
+            "127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET / HTTP/1.1\" 200 10 \"-\" \"curl/7.1\""
+        )!!
+        assertEquals(-1L, combined.timeMicros)
+        assertNull(AccessLogStats.parse("AH00558: httpd: Could not reliably determine the server's name"))
+    }
+
+    @Test
+    fun handlesEscapedQuotesInRequest() {
+        val entry = AccessLogStats.parse(
+            "127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET /a\\\" 200 b HTTP/1.1\" 400 0 100"
+        )!!
+        assertEquals(400, entry.status)
+        assertEquals(100L, entry.timeMicros)
+    }
+
+    @Test
+    fun aggregatesRequests() {
+        val stats = AccessLogStats()
+        for (index in 0 until 100) {
+            val status = if (index < 90) 200 else 500
+            val micros = if (index < 95) 1000 else 50_000
+            stats.accept("127.0.0.1 - - [19/Oct/2026:10:00:00 +0800] \"GET /p$index HTTP/1.1\" $status 100 $micros")
+        }
+        val snapshot = stats.snapshot()
+        assertEquals(100L, snapshot.requests)
+        assertEquals(90L, snapshot.statusCounts[2])
+        assertEquals(10L, snapshot.statusCounts[5])
+        assertEquals(10_000L, snapshot.bytes)
+        assertEquals((95 * 1000L + 5 * 50_000L) / 100, snapshot.averageMicros)
+        // 估计值是所在桶的上界
+        assertTrue(snapshot.p50Micros in 1000L..2048L)
+        assertTrue(snapshot.p95Micros in 1000L..2048L)
+        assertEquals(50_000L, snapshot.slowestPaths.first().second)
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.mucheng.webops.plugin.log
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogBufferTest {
+
+    @Test
+    fun keepsLinesInOrder() {
+        val buffer = LogBuffer()
+        buffer.append("first", LogLevel.Info)
+        buffer.append("second", LogLevel.Error)
+        assertEquals(0L, buffer.getFirstIndex())
+        assertEquals(2L, buffer.getNextIndex())
+        assertEquals("first", buffer.getLine(0))
+        assertEquals(LogLevel.Error, buffer.getLevel(1))
+        assertNull(buffer.getLine(2))
+    }
+
+    @Test
+    fun dropsOldestChunksWhenFull() {
+        val buffer = LogBuffer(maxChars = 1000, chunkLines = 10)
+        repeat(1000) { buffer.append("line-${it.toString().padStart(4, '0')}", LogLevel.Info) }
+        // 每行 9 个字符, 总字符数不超过上限加一块
+        val retained = buffer.getNextIndex() - buffer.getFirstIndex()
+        assertTrue(retained * 9 <= 1000 + 10 * 9)
+        assertEquals(0L, buffer.getFirstIndex() % 10)
+        assertNull(buffer.getLine(0))
+        assertEquals("line-0999", buffer.getLine(999))
+        assertEquals("line-${buffer.getFirstIndex().toString().padStart(4, '0')}", buffer.getLine(buffer.getFirstIndex()))
+    }
+
+    @Test
+    fun truncatesLongLines() {
+        val buffer = LogBuffer(maxLineLength = 8)
+        buffer.append("0123456789", LogLevel.Info)
+        assertEquals("01234567", buffer.getLine(0))
+    }
+
+    @Test
+    fun scansByLevel() {
+        val buffer = LogBuffer(chunkLines = 4)
+        val levels = listOf(LogLevel.Info, LogLevel.Warn, LogLevel.Error, LogLevel.Info, LogLevel.Error, LogLevel.Warn)
+        levels.forEachIndexed { index, level -> buffer.append("line $index", level) }
+
+        val warnings = ArrayList<Long>()
+        var next = buffer.scan(0L, LogLevel.Warn) { warnings.add(it) }
+        assertEquals(listOf(1L, 2L, 4L, 5L), warnings)
+        assertEquals(6L, next)
+
+        buffer.append("line 6", LogLevel.Error)
+        val errors = ArrayList<Long>()
+        next = buffer.scan(next, LogLevel.Error) { errors.add(it) }
+        assertEquals(listOf(6L), errors)
+        assertEquals(7L, next)
+    }
+
+    @Test
+    fun clearKeepsIndices() {
+        val buffer = LogBuffer()
+        buffer.append("a", LogLevel.Info)
+        buffer.clear()
+        buffer.append("b", LogLevel.Info)
+        assertEquals(1L, buffer.getFirstIndex())
+        assertEquals("b", buffer.getLine(1))
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.mucheng.webops.plugin.log
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+
+class LogTailerTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000L
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L)
+        }
+    }
+
+    @Test
+    fun readsOnlyTailOfLargeFile() {
+        val file = File(folder.root, "access.log")
+        file.bufferedWriter().use { writer ->
+            for (index in 0 until 200_000) {
+                writer.write("line $index\n")
+            }
+        }
+        val lines = CopyOnWriteArrayList<String>()
+        val tailer = LogTailer(file, scope, pollIntervalMillis = 20L, initialBytes = 1024L) { lines.add(it) }
+        waitUntil { lines.isNotEmpty() && lines.last() == "line 199999" }
+        tailer.close()
+
+        assertEquals("line 199999", lines.last())
+        // 只读取末尾 1 KB, 且跳过了不完整的第一行
+        assertTrue(lines.size < 120)
+        assertTrue(lines.all { it.startsWith("line ") })
+    }
+
+    @Test
+    fun followsAppendsAndTruncation() {
+        val file = File(folder.root, "error.log")
+        file.writeText("old\n")
+        val lines = CopyOnWriteArrayList<String>()
+        val tailer = LogTailer(file, scope, pollIntervalMillis = 20L, maxLineLength = 16) { lines.add(it) }
+        waitUntil { lines.contains("old") }
+
+        file.appendText("partial")
+        Thread.sleep(100L)
+        file.appendText(" done\r\n${"x".repeat(40)}\n")
+        waitUntil { lines.size >= 3 }
+        assertEquals(listOf("old", "partial done", "x".repeat(16)), lines.toList())
+
+        file.writeText("new\n")
+        waitUntil { lines.contains("new") }
+        tailer.close()
+        assertEquals("new", lines.last())
+    }
+
+    @Test
+    fun followsRotatedFile() {
+        val file = File(folder.root, "access.log")
+        file.writeText("first\n")
+        val lines = CopyOnWriteArrayList<String>()
+        val tailer = LogTailer(file, scope, pollIntervalMillis = 20L) { lines.add(it) }
+        waitUntil { lines.contains("first") }
+
+        // 轮转后的新文件比旧文件的读取位置更大, 只比较大小无法发现
+        assertTrue(file.renameTo(File(folder.root, "access.log.1")))
+        file.writeText("rotated ${"y".repeat(40)}\n")
+        waitUntil { lines.size >= 2 }
+        tailer.close()
+        assertEquals(listOf("first", "rotated ${"y".repeat(40)}"), lines.toList())
+    }
+
+    @Test
+    fun truncatesLongLineOnCharacterBoundary() {
+        val file = File(folder.root, "error.log")
+        file.writeText("")
+        val lines = CopyOnWriteArrayList<String>()
+        val tailer = LogTailer(file, scope, pollIntervalMillis = 20L, maxLineLength = 8) { lines.add(it) }
+        Thread.sleep(100L)
+
+        // 每个汉字 3 字节, 8 字节处位于第三个字中间
+        file.appendText("日志日志日志\n")
+        waitUntil { lines.isNotEmpty() }
+        tailer.close()
+        assertEquals(listOf("日志"), lines.toList())
+    }
+
+}
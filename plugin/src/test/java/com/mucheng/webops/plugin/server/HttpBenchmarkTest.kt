@@ -0,0 +1,76 @@
+package com.mucheng.webops.plugin.server
+
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.net.URL
+
+class HttpBenchmarkTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var server: StaticFileServer
+
+    private var port = 0
+
+    @Before
+    fun setUp() {
+        val rootDir = folder.newFolder("site")
+        File(rootDir, "index.html").writeText("<html><body>Hello</body></html>")
+        server = StaticFileServer(rootDir, host = "127.0.0.1")
+        port = server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop()
+    }
+
+    @Test
+    fun measuresRequestsPerSecond() = runBlocking {
+        // 按次数运行, 结果与耗时不受机器快慢影响
+        val result = HttpBenchmark(
+            URL("http://127.0.0.1:$port/"),
+            concurrency = 2,
+            warmupRequests = 1,
+            requestsPerConnection = 20
+        ).run()
+        assertEquals(40L, result.requests)
+        assertEquals(0L, result.errors)
+        assertTrue(result.requestsPerSecond > 0.0)
+        assertTrue(result.bytes > 0)
+    }
+
+    @Test
+    fun countsFailedRequests() = runBlocking {
+        val result = HttpBenchmark(
+            URL("http://127.0.0.1:$port/missing.html"),
+            concurrency = 1,
+            warmupRequests = 0,
+            requestsPerConnection = 5
+        ).run()
+        assertEquals(0L, result.requests)
+        assertEquals(5L, result.errors)
+    }
+
+    @Test
+    fun readsBackLog() {
+        val logFile = File(folder.root, ".WebDevOps/benchmark.log")
+        HttpBenchmark.appendLog(logFile, "default", HttpBenchmark.Result(1000, 0, 1000, 4096, 900, 2000))
+        HttpBenchmark.appendLog(logFile, "tuned", HttpBenchmark.Result(3000, 1, 1000, 12288, 300, 800))
+        logFile.appendText("broken line\n")
+
+        val records = HttpBenchmark.readLog(logFile)
+        assertEquals(listOf("default", "tuned"), records.map { it.label })
+        assertEquals(3000.0, records[1].result.requestsPerSecond, 0.001)
+        assertEquals(800L, records[1].result.p95Micros)
+    }
+
+}
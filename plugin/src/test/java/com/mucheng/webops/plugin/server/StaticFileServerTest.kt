@@ -0,0 +1,252 @@
+package com.mucheng.webops.plugin.server
+
+import com.mucheng.webops.plugin.event.FileSaveBus
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.Socket
+import java.net.URL
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+
+class StaticFileServerTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var rootDir: File
+
+    private lateinit var server: StaticFileServer
+
+    private var port = 0
+
+    @Before
+    fun setUp() {
+        rootDir = folder.newFolder("site")
+        File(rootDir, "index.html").writeText("<html><body>${"Hello ".repeat(500)}</body></html>")
+        File(rootDir, "data.json").writeText("{\"name\":\"WebDevOps\"}")
+        File(rootDir, "large.bin").writeBytes(ByteArray(4 * 1024 * 1024) { it.toByte() })
+        server = StaticFileServer(rootDir, host = "127.0.0.1")
+        port = server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop()
+    }
+
+    private fun open(path: String, block: HttpURLConnection.() -> Unit = {}): HttpURLConnection {
+        val connection = URL("http://127.0.0.1:$port$path").openConnection() as HttpURLConnection
+        connection.block()
+        return connection
+    }
+
+    @Test
+    fun servesIndexWithCors() {
+        val connection = open("/")
+        assertEquals(200, connection.responseCode)
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"))
+        assertTrue(connection.contentType.startsWith("text/html"))
+        assertEquals(File(rootDir, "index.html").readText(), connection.inputStream.reader().readText())
+    }
+
+    @Test
+    fun returnsNotModifiedForETag() {
+        val eTag = open("/data.json").run {
+            inputStream.close()
+            getHeaderField("ETag")
+        }
+        val connection = open("/data.json") {
+            setRequestProperty("If-None-Match", eTag)
+        }
+        assertEquals(304, connection.responseCode)
+
+        // 修改文件后 ETag 失效
+        File(rootDir, "data.json").apply {
+            writeText("{\"name\":\"Changed\"}")
+            setLastModified(lastModified() + 2000)
+        }
+        val changed = open("/data.json") {
+            setRequestProperty("If-None-Match", eTag)
+        }
+        assertEquals(200, changed.responseCode)
+        assertEquals("{\"name\":\"Changed\"}", changed.inputStream.reader().readText())
+    }
+
+    @Test
+    fun compressesTextAssets() {
+        val connection = open("/index.html") {
+            setRequestProperty("Accept-Encoding", "gzip")
+        }
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"))
+        assertEquals("Accept-Encoding", connection.getHeaderField("Vary"))
+        val text = GZIPInputStream(connection.inputStream).reader().readText()
+        assertEquals(File(rootDir, "index.html").readText(), text)
+
+        // 压缩与未压缩的内容不同, 强 ETag 也必须不同
+        val identityETag = open("/index.html").run {
+            inputStream.close()
+            getHeaderField("ETag")
+        }
+        assertNotEquals(identityETag, connection.getHeaderField("ETag"))
+    }
+
+    @Test
+    fun closesConnectionForUnsupportedMethod() {
+        val connection = open("/index.html") {
+            requestMethod = "POST"
+            doOutput = true
+            outputStream.use { it.write("name=value".toByteArray()) }
+        }
+        assertEquals(405, connection.responseCode)
+        assertEquals("close", connection.getHeaderField("Connection"))
+    }
+
+    @Test
+    fun transfersLargeFiles() {
+        val connection = open("/large.bin")
+        assertEquals(200, connection.responseCode)
+        assertArrayEquals(File(rootDir, "large.bin").readBytes(), connection.inputStream.readBytes())
+    }
+
+    @Test
+    fun rejectsPathTraversal() {
+        folder.newFile("secret.txt").writeText("secret")
+        val socket = Socket("127.0.0.1", port)
+        socket.use {
+            it.getOutputStream().write("GET /../secret.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".toByteArray())
+            val statusLine = readLine(BufferedInputStream(it.getInputStream()))
+            assertTrue(statusLine, statusLine.startsWith("HTTP/1.1 403") || statusLine.startsWith("HTTP/1.1 404"))
+        }
+    }
+
+    @Test
+    fun reusesKeepAliveConnection() {
+        val socket = Socket("127.0.0.1", port)
+        socket.use {
+            val output = it.getOutputStream()
+            val input = BufferedInputStream(it.getInputStream())
+            // 两个请求管线化发送
+            output.write(
+                ("GET /data.json HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                        "GET /data.json HTTP/1.1\r\nHost: localhost\r\n\r\n").toByteArray()
+            )
+            repeat(2) {
+                assertEquals("HTTP/1.1 200 OK", readLine(input))
+                assertEquals("{\"name\":\"WebDevOps\"}", String(readBody(input)))
+            }
+        }
+    }
+
+    @Test
+    fun pushesLiveReloadEvents() {
+        val liveServer = StaticFileServer(rootDir, host = "127.0.0.1", liveReload = true)
+        val livePort = liveServer.start()
+        try {
+            val html = URL("http://127.0.0.1:$livePort/index.html").readText()
+            assertTrue(html.contains(LiveReload.CLIENT_PATH))
+
+            Socket("127.0.0.1", livePort).use {
+                it.soTimeout = 5000
+                val input = BufferedInputStream(it.getInputStream())
+                it.getOutputStream().write("GET ${LiveReload.ENDPOINT} HTTP/1.1\r\nHost: localhost\r\n\r\n".toByteArray())
+                assertEquals("HTTP/1.1 200 OK", readLine(input))
+                while (readLine(input).isNotEmpty()) {
+                    // 跳过响应头
+                }
+
+                val liveReload = LiveReload(rootDir, delayMillis = 10L) { change -> liveServer.publish(change) }
+                try {
+                    FileSaveBus.publish(File(rootDir, "style.css"))
+                    assertEquals("event: change", readLine(input))
+                    assertEquals("data: {\"type\":\"css\",\"paths\":[\"/style.css\"]}", readLine(input))
+                } finally {
+                    liveReload.close()
+                }
+            }
+        } finally {
+            liveServer.stop()
+        }
+    }
+
+    @Test
+    fun servesConcurrentKeepAliveConnections() {
+        val connections = 4
+        val requestsPerConnection = 50
+        val completed = AtomicLong()
+        val executor = Executors.newFixedThreadPool(connections)
+        val futures = List(connections) {
+            executor.submit {
+                Socket("127.0.0.1", port).use { socket ->
+                    val output = socket.getOutputStream()
+                    val input = BufferedInputStream(socket.getInputStream())
+                    val request = "GET /data.json HTTP/1.1\r\nHost: localhost\r\n\r\n".toByteArray()
+                    repeat(requestsPerConnection) {
+                        output.write(request)
+                        assertEquals("HTTP/1.1 200 OK", readLine(input))
+                        assertEquals("{\"name\":\"WebDevOps\"}", String(readBody(input)))
+                        completed.incrementAndGet()
+                    }
+                }
+            }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS))
+        // 取出子线程中的断言失败
+        futures.forEach { it.get() }
+        assertEquals((connections * requestsPerConnection).toLong(), completed.get())
+    }
+
+    private fun readLine(input: InputStream): String {
+        val builder = StringBuilder()
+        while (true) {
+            val char = input.read()
+            if (char == -1 || char == '\n'.code) {
+                break
+            }
+            if (char != '\r'.code) {
+                builder.append(char.toChar())
+            }
+        }
+        return builder.toString()
+    }
+
+    /**
+     * 读取剩余的响应头与响应体, 状态行需已读取
+     * */
+    private fun readBody(input: InputStream): ByteArray {
+        var contentLength = 0
+        while (true) {
+            val line = readLine(input)
+            if (line.isEmpty()) {
+                break
+            }
+            if (line.startsWith("Content-Length:", ignoreCase = true)) {
+                contentLength = line.substringAfter(':').trim().toInt()
+            }
+        }
+        val body = ByteArray(contentLength)
+        var offset = 0
+        while (offset < contentLength) {
+            val count = input.read(body, offset, contentLength - offset)
+            if (count == -1) {
+                break
+            }
+            offset += count
+        }
+        return body
+    }
+
+}